@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.converter.markdown;
+
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import nl.ulso.magisto.git.DummyGitClient;
+import nl.ulso.magisto.io.FileSystem;
+import nl.ulso.magisto.io.RealFileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+
+/**
+ * Benchmarks the stages of converting a Markdown page to HTML, each on its own, as well as all of them together.
+ * <p>
+ * Every benchmark runs against each of the pages in the corpus: a small page that is typical for a personal wiki, a
+ * page full of tables, a page full of links, and a very large page. The large page isn't bundled; it's put together
+ * from the other pages when the benchmark starts.
+ * </p>
+ * <p>
+ * Run with {@code mvn -Pbenchmark verify}. The GC profiler is enabled by default, so next to throughput the results
+ * show the allocation rate ({@code gc.alloc.rate.norm} is the number of bytes allocated per operation).
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class MarkdownConversionBenchmark {
+
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+    private static final String CORPUS_PATH = "corpus/";
+    private static final String LARGE_PAGE = "large";
+    private static final String[] LARGE_PAGE_PARTS = {"small", "tables", "links"};
+    private static final int LARGE_PAGE_SIZE = 5 * 1024 * 1024;
+
+    @Param({"small", "tables", "links", LARGE_PAGE})
+    private String page;
+
+    private Path tempDirectory;
+    private Path sourceRoot;
+    private Path targetRoot;
+    private Path path;
+    private FileSystem fileSystem;
+    private MarkdownToHtmlFileConverter converter;
+    private Template template;
+    private char[] markdown;
+    private MarkdownDocument document;
+    private Map<String, Object> model;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final String content = loadPage(page);
+        tempDirectory = Files.createTempDirectory("magisto-benchmark-");
+        sourceRoot = Files.createDirectory(tempDirectory.resolve("source"));
+        targetRoot = Files.createDirectory(tempDirectory.resolve("target"));
+        path = createPath(page + ".md");
+        Files.write(sourceRoot.resolve(path), content.getBytes(CHARSET_UTF8));
+        fileSystem = new RealFileSystem();
+        converter = new MarkdownToHtmlFileConverter(fileSystem, sourceRoot, new DummyGitClient());
+        template = converter.loadDefaultTemplate();
+        markdown = content.toCharArray();
+        document = new MarkdownDocument(markdown);
+        model = converter.createPageModel(path, document);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.walkFileTree(tempDirectory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Benchmark
+    public MarkdownDocument parse() {
+        return new MarkdownDocument(markdown);
+    }
+
+    @Benchmark
+    public String extractTitle() {
+        return document.extractTitle();
+    }
+
+    @Benchmark
+    public String toHtml() {
+        return document.toHtml();
+    }
+
+    @Benchmark
+    public Writer processTemplate() throws IOException, TemplateException {
+        final Writer writer = new StringWriter();
+        template.process(model, writer);
+        return writer;
+    }
+
+    @Benchmark
+    public void convert() throws IOException {
+        converter.convert(fileSystem, sourceRoot, targetRoot, path);
+    }
+
+    private static String loadPage(String page) throws IOException {
+        if (!LARGE_PAGE.equals(page)) {
+            return loadResource(page);
+        }
+        final StringBuilder builder = new StringBuilder(LARGE_PAGE_SIZE);
+        while (builder.length() < LARGE_PAGE_SIZE) {
+            for (String part : LARGE_PAGE_PARTS) {
+                builder.append(loadResource(part)).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String loadResource(String page) throws IOException {
+        final InputStream stream = MarkdownConversionBenchmark.class.getResourceAsStream(CORPUS_PATH + page + ".md");
+        if (stream == null) {
+            throw new FileNotFoundException("Page not found in corpus: " + page);
+        }
+        try (final Reader reader = new InputStreamReader(stream, CHARSET_UTF8)) {
+            final StringBuilder builder = new StringBuilder();
+            final char[] buffer = new char[8192];
+            int length;
+            while ((length = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, length);
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.action.RoundRobinExecutor;
+import nl.ulso.magisto.git.DummyGitClient;
+import nl.ulso.magisto.git.GitClient;
+import nl.ulso.magisto.git.JGitClient;
+import nl.ulso.magisto.io.FileSystem;
+import nl.ulso.magisto.io.RealFileSystem;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs many exports in one go, in a single process.
+ * <p>
+ * Exporting dozens of sites one process at a time means paying for starting a JVM, generating the Markdown parser
+ * and warming up the code again for every single one. A batch pays for that only once. All exports share the file
+ * system, with its threads to walk directories, and a single pool of worker threads to perform actions with. The
+ * Markdown parsers are kept per thread, so they are shared too. Each source directory gets a Git client of its own.
+ * The threads to walk directories are kept until the batch is closed.
+ * </p>
+ * <p>
+ * As many exports run at the same time as there are workers. Each export queues its actions in a lane of its own,
+ * and the shared worker threads take an action from each lane in turn. A site with many changes therefore doesn't
+ * keep sites with few changes waiting; these simply finish first. Each export keeps its own statistics, except for
+ * the time spent throttled and syncing: with a shared file system there's no telling which export that was spent on,
+ * so it's kept for the batch as a whole instead. If one export fails, the others carry on.
+ * </p>
+ * <p>
+ * All exports are performed with the same options. These apply to the batch as a whole; the throttle, for example,
+ * limits the disk access of all exports together. Every export exports all files in its source directory.
+ * </p>
+ * <p>
+ * A batch is described by lines of text, one export per line, with a source and a target directory separated by an
+ * arrow: {@code docs -> /var/www/docs}. Empty lines and lines that start with a {@code #} are ignored.
+ * </p>
+ */
+class Batch implements Stoppable, Closeable {
+
+    private static final String ARROW = "->";
+    private static final String COMMENT = "#";
+
+    private final List<Export> exports;
+    private final ExportOptions options;
+    private final RealFileSystem fileSystem;
+    private final Map<String, GitClient> gitClients = new HashMap<>();
+    private final List<Magisto> magistos = new CopyOnWriteArrayList<>();
+    private volatile boolean stopped;
+    private long throttledTimeInNanos;
+    private long syncTimeInNanos;
+
+    Batch(List<Export> exports, ExportOptions options) {
+        this.exports = exports;
+        this.options = options;
+        this.fileSystem = options.createFileSystem();
+    }
+
+    /**
+     * Reads a batch from a file. Relative directories in it are relative to the directory the file is in.
+     */
+    static List<Export> read(FileSystem fileSystem, Path batchFile) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        try (final BufferedReader reader = fileSystem.newBufferedReaderForTextFile(batchFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return parse(lines, batchFile.toAbsolutePath().getParent());
+    }
+
+    static List<Export> parse(List<String> lines, Path baseDirectory) throws IOException {
+        final List<Export> exports = new ArrayList<>(lines.size());
+        int lineNumber = 0;
+        for (String line : lines) {
+            lineNumber++;
+            final String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith(COMMENT)) {
+                continue;
+            }
+            final int arrow = trimmed.indexOf(ARROW);
+            final String source = arrow != -1 ? trimmed.substring(0, arrow).trim() : "";
+            final String target = arrow != -1 ? trimmed.substring(arrow + ARROW.length()).trim() : "";
+            if (source.isEmpty() || target.isEmpty()) {
+                throw new IOException(String.format(
+                        "Line %d of the batch is not of the form 'source -> target': %s", lineNumber, line));
+            }
+            exports.add(new Export(baseDirectory.resolve(source).toString(),
+                    baseDirectory.resolve(target).toString()));
+        }
+        return exports;
+    }
+
+    /**
+     * Runs all exports in the batch.
+     *
+     * @return The result of each export, in the order of the batch.
+     */
+    List<Result> run() throws InterruptedException {
+        final int workers = options.getWorkers();
+        final RoundRobinExecutor workerPool = workers > 1 ? new RoundRobinExecutor(workers) : null;
+        final ExecutorService exportPool = Executors.newFixedThreadPool(Math.max(1, Math.min(workers,
+                exports.size())));
+        final long throttledTimeAtStart = fileSystem.getThrottledTimeInNanos();
+        final long syncTimeAtStart = fileSystem.getSyncTimeInNanos();
+        try {
+            final List<Future<Statistics>> futures = new ArrayList<>(exports.size());
+            for (final Export export : exports) {
+                final Magisto magisto = createMagisto(export, workerPool != null ? workerPool.newLane() : null);
+                magistos.add(magisto);
+                if (stopped) {
+                    magisto.stop(0, TimeUnit.SECONDS);
+                }
+                futures.add(exportPool.submit(new Callable<Statistics>() {
+                    @Override
+                    public Statistics call() throws IOException {
+                        return magisto.run(export.getSourceDirectory(), export.getTargetDirectory());
+                    }
+                }));
+            }
+            final List<Result> results = new ArrayList<>(exports.size());
+            for (int i = 0; i < exports.size(); i++) {
+                results.add(awaitResult(exports.get(i), futures.get(i)));
+            }
+            return results;
+        } finally {
+            exportPool.shutdownNow();
+            if (workerPool != null) {
+                workerPool.close();
+            }
+            throttledTimeInNanos = fileSystem.getThrottledTimeInNanos() - throttledTimeAtStart;
+            syncTimeInNanos = fileSystem.getSyncTimeInNanos() - syncTimeAtStart;
+        }
+    }
+
+    /**
+     * Logs the time that all exports of the last run together spent throttled and syncing.
+     */
+    void logFileSystemTimes() {
+        if (throttledTimeInNanos > 0) {
+            Logger.getGlobal().log(Level.INFO, String.format("Together, the exports held back on disk access for %d " +
+                    "milliseconds, as throttled.", TimeUnit.NANOSECONDS.toMillis(throttledTimeInNanos)));
+        }
+        if (syncTimeInNanos > 0) {
+            Logger.getGlobal().log(Level.INFO, String.format("Together, the exports spent %d milliseconds making " +
+                    "sure everything is safely on disk.", TimeUnit.NANOSECONDS.toMillis(syncTimeInNanos)));
+        }
+    }
+
+    /**
+     * Stops the threads the exports share to walk directories with.
+     */
+    @Override
+    public void close() {
+        fileSystem.close();
+    }
+
+    private Result awaitResult(Export export, Future<Statistics> future) throws InterruptedException {
+        try {
+            return new Result(export, future.get(), null);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            return new Result(export, null, (Exception) cause);
+        }
+    }
+
+    /*
+    The lane is null if there's only a single worker.
+     */
+    Magisto createMagisto(Export export, Executor lane) {
+        return options.createMagistoBuilder(fileSystem, getGitClient(export.getSourceDirectory()))
+                .sharedExecutor(lane).sharedFileSystem(true).build();
+    }
+
+    private GitClient getGitClient(String sourceDirectory) {
+        GitClient gitClient = gitClients.get(sourceDirectory);
+        if (gitClient == null) {
+            try {
+                gitClient = new JGitClient(sourceDirectory, options.isIndexHistory());
+            } catch (IOException e) {
+                Logger.getGlobal().log(Level.INFO, String.format(
+                        "No Git repository found in '%s'. Version information will not be available.",
+                        sourceDirectory));
+                gitClient = new DummyGitClient();
+            }
+            gitClients.put(sourceDirectory, gitClient);
+        }
+        return gitClient;
+    }
+
+    /*
+    All exports are told to stop first, and only then is there any waiting, so that they all stop at the same time.
+     */
+    @Override
+    public boolean stop(long timeout, TimeUnit unit) throws InterruptedException {
+        stopped = true;
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean done = true;
+        for (Magisto magisto : magistos) {
+            done &= magisto.stop(0, TimeUnit.SECONDS);
+        }
+        if (done) {
+            return true;
+        }
+        done = true;
+        for (Magisto magisto : magistos) {
+            done &= magisto.stop(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        return done;
+    }
+
+    static final class Export {
+        private final String sourceDirectory;
+        private final String targetDirectory;
+
+        Export(String sourceDirectory, String targetDirectory) {
+            this.sourceDirectory = sourceDirectory;
+            this.targetDirectory = targetDirectory;
+        }
+
+        String getSourceDirectory() {
+            return sourceDirectory;
+        }
+
+        String getTargetDirectory() {
+            return targetDirectory;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("'%s' to '%s'", sourceDirectory, targetDirectory);
+        }
+    }
+
+    static final class Result {
+        private final Export export;
+        private final Statistics statistics;
+        private final Exception failure;
+
+        private Result(Export export, Statistics statistics, Exception failure) {
+            this.export = export;
+            this.statistics = statistics;
+            this.failure = failure;
+        }
+
+        Export getExport() {
+            return export;
+        }
+
+        boolean isSuccess() {
+            return failure == null;
+        }
+
+        Statistics getStatistics() {
+            return statistics;
+        }
+
+        Exception getFailure() {
+            return failure;
+        }
+
+        void log() {
+            if (isSuccess()) {
+                Logger.getGlobal().log(Level.INFO, String.format("Exported %s.", export));
+                statistics.log();
+            } else {
+                Logger.getGlobal().log(Level.SEVERE, String.format("Could not export %s. The cause: %s", export,
+                        failure));
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.FileSystem;
+import nl.ulso.magisto.io.PathEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Records what the last export was built from: a content hash for every source and static file, and the fingerprint
+ * of the file converter. The next export compares against it to decide what to convert or copy, instead of comparing
+ * timestamps. Timestamps don't survive a fresh clone or checkout; content hashes do.
+ * <p>
+ * To save reading every file on every export, the manifest also records the size and last modified timestamp of each
+ * file when it was hashed. As long as these don't change, the hash is taken from the manifest. This is the same trick
+ * Git uses for its index. Files that were modified just before their hash was computed might change again within
+ * the resolution of the file system's timestamps. Their timestamp isn't recorded, so that they are always hashed
+ * again the next time.
+ * </p>
+ * <p>
+ * The manifest is a simple text file in the target directory, next to the
+ * {@value FileSystem#MAGISTO_EXPORT_MARKER_FILE} file. Each line holds tab-separated fields: one line with the
+ * fingerprint, and then one line per file with its category, its content hash, its size, its last modified timestamp
+ * and its path. An unknown size and timestamp are both -1. See {@link TabSeparatedFile} for how paths are written.
+ * </p>
+ */
+class BuildManifest {
+
+    static final String MANIFEST_FILE = ".magisto-manifest";
+
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String SOURCE = "source";
+    private static final String STATIC = "static";
+    private static final long UNKNOWN = -1;
+    private static final long TIMESTAMP_RESOLUTION_IN_MILLIS = 2000;
+
+    /*
+    Orders paths on their names, one name at a time. Unlike the natural ordering of paths, this keeps a directory and
+    everything below it together: "a", "a/b", "a-b" instead of "a", "a-b", "a/b".
+     */
+    private static final Comparator<Path> BY_NAMES = new Comparator<Path>() {
+        @Override
+        public int compare(Path path1, Path path2) {
+            final int count = Math.min(path1.getNameCount(), path2.getNameCount());
+            for (int i = 0; i < count; i++) {
+                final int comparison = path1.getName(i).compareTo(path2.getName(i));
+                if (comparison != 0) {
+                    return comparison;
+                }
+            }
+            return path1.getNameCount() - path2.getNameCount();
+        }
+    };
+
+    private final String fingerprint;
+    private final long trustedBeforeInMillis;
+    private final NavigableMap<Path, Record> sourceRecords = new TreeMap<>(BY_NAMES);
+    private final NavigableMap<Path, Record> staticRecords = new TreeMap<>(BY_NAMES);
+
+    BuildManifest(String fingerprint) {
+        this.fingerprint = fingerprint;
+        this.trustedBeforeInMillis = System.currentTimeMillis() - TIMESTAMP_RESOLUTION_IN_MILLIS;
+    }
+
+    /**
+     * @return The manifest of the last export, or {@code null} if there is none, or if it can't be understood. In both
+     * cases the export can only start over.
+     */
+    static BuildManifest read(FileSystem fileSystem, Path targetRoot) throws IOException {
+        final Path manifestFile = targetRoot.resolve(MANIFEST_FILE);
+        if (fileSystem.notExists(manifestFile)) {
+            return null;
+        }
+        final ManifestReader reader = new ManifestReader();
+        if (!TabSeparatedFile.read(fileSystem, manifestFile, "the manifest of the last export", reader)) {
+            return null;
+        }
+        return reader.manifest;
+    }
+
+    void write(FileSystem fileSystem, Path targetRoot) throws IOException {
+        final Path manifestFile = targetRoot.resolve(MANIFEST_FILE);
+        try (final BufferedWriter writer = fileSystem.newBufferedWriterForTextFile(manifestFile)) {
+            TabSeparatedFile.writeLine(writer, FINGERPRINT, fingerprint);
+            writeRecords(writer, SOURCE, sourceRecords);
+            writeRecords(writer, STATIC, staticRecords);
+        }
+    }
+
+    private void writeRecords(BufferedWriter writer, String category, Map<Path, Record> records) throws IOException {
+        for (Map.Entry<Path, Record> entry : records.entrySet()) {
+            final Record record = entry.getValue();
+            TabSeparatedFile.writeLine(writer, category, record.hash, Long.toString(record.size),
+                    Long.toString(record.lastModifiedInMillis), TabSeparatedFile.formatPath(entry.getKey()));
+        }
+    }
+
+    private static Record parseRecord(String[] fields) throws TabSeparatedFile.InvalidLineException {
+        try {
+            return new Record(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+        } catch (NumberFormatException e) {
+            throw new TabSeparatedFile.InvalidLineException();
+        }
+    }
+
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    String getSourceHash(Path path) {
+        return getHash(sourceRecords, path);
+    }
+
+    String getStaticHash(Path path) {
+        return getHash(staticRecords, path);
+    }
+
+    /**
+     * @return The size of the source file when its hash was computed, or -1 if it's unknown.
+     */
+    long getSourceSize(Path path) {
+        final Record record = sourceRecords.get(path);
+        return record != null ? record.size : UNKNOWN;
+    }
+
+    /**
+     * @return The hash of the source file, if it has the same size and timestamp as when the hash was recorded, or
+     * {@code null} otherwise.
+     */
+    String getUnchangedSourceHash(PathEntry entry) {
+        return getUnchangedHash(sourceRecords, entry);
+    }
+
+    /**
+     * @return The hash of the static file, if it has the same size and timestamp as when the hash was recorded, or
+     * {@code null} otherwise.
+     */
+    String getUnchangedStaticHash(PathEntry entry) {
+        return getUnchangedHash(staticRecords, entry);
+    }
+
+    void putSourceHash(Path path, String hash) {
+        sourceRecords.put(path, new Record(hash, UNKNOWN, UNKNOWN));
+    }
+
+    void putStaticHash(Path path, String hash) {
+        staticRecords.put(path, new Record(hash, UNKNOWN, UNKNOWN));
+    }
+
+    void putSourceHash(PathEntry entry, String hash) {
+        sourceRecords.put(entry.getPath(), createRecord(entry, hash));
+    }
+
+    void putStaticHash(PathEntry entry, String hash) {
+        staticRecords.put(entry.getPath(), createRecord(entry, hash));
+    }
+
+    /**
+     * Removes the hashes of a path and of everything below it.
+     */
+    void removeSourceHashes(Path path) {
+        removeRecords(sourceRecords, path);
+    }
+
+    /**
+     * Removes the hashes of a path and of everything below it.
+     */
+    void removeStaticHashes(Path path) {
+        removeRecords(staticRecords, path);
+    }
+
+    /**
+     * Copies the records of another manifest for everything outside a selection; a partial export leaves these alone.
+     */
+    void putUnselectedRecords(BuildManifest manifest, Selection selection) {
+        putUnselectedRecords(manifest.sourceRecords, sourceRecords, selection);
+        putUnselectedRecords(manifest.staticRecords, staticRecords, selection);
+    }
+
+    private static void putUnselectedRecords(Map<Path, Record> from, Map<Path, Record> to, Selection selection) {
+        for (Map.Entry<Path, Record> entry : from.entrySet()) {
+            if (!selection.includes(entry.getKey())) {
+                to.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static String getHash(Map<Path, Record> records, Path path) {
+        final Record record = records.get(path);
+        return record != null ? record.hash : null;
+    }
+
+    private static String getUnchangedHash(Map<Path, Record> records, PathEntry entry) {
+        final Record record = records.get(entry.getPath());
+        if (record == null || record.lastModifiedInMillis == UNKNOWN
+                || record.size != entry.getSize() || record.lastModifiedInMillis != entry.getLastModifiedInMillis()) {
+            return null;
+        }
+        return record.hash;
+    }
+
+    private Record createRecord(PathEntry entry, String hash) {
+        if (entry.getLastModifiedInMillis() >= trustedBeforeInMillis) {
+            return new Record(hash, entry.getSize(), UNKNOWN);
+        }
+        return new Record(hash, entry.getSize(), entry.getLastModifiedInMillis());
+    }
+
+    private void removeRecords(NavigableMap<Path, Record> records, Path path) {
+        final Iterator<Path> iterator = records.tailMap(path, true).keySet().iterator();
+        while (iterator.hasNext() && iterator.next().startsWith(path)) {
+            iterator.remove();
+        }
+    }
+
+    /*
+    Records come after the fingerprint.
+     */
+    private static final class ManifestReader implements TabSeparatedFile.LineReader {
+        private BuildManifest manifest;
+
+        @Override
+        public boolean readLine(String[] fields) throws TabSeparatedFile.InvalidLineException {
+            if (fields.length == 2 && FINGERPRINT.equals(fields[0])) {
+                manifest = new BuildManifest(fields[1]);
+            } else if (manifest != null && fields.length == 5 && SOURCE.equals(fields[0])) {
+                manifest.sourceRecords.put(TabSeparatedFile.parsePath(fields[4]), parseRecord(fields));
+            } else if (manifest != null && fields.length == 5 && STATIC.equals(fields[0])) {
+                manifest.staticRecords.put(TabSeparatedFile.parsePath(fields[4]), parseRecord(fields));
+            } else {
+                throw new TabSeparatedFile.InvalidLineException();
+            }
+            return true;
+        }
+    }
+
+    private static final class Record {
+        private final String hash;
+        private final long size;
+        private final long lastModifiedInMillis;
+
+        private Record(String hash, long size, long lastModifiedInMillis) {
+            this.hash = hash;
+            this.size = size;
+            this.lastModifiedInMillis = lastModifiedInMillis;
+        }
+    }
+}
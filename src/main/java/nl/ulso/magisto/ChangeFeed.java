@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.FileSystem;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Lists the paths in the target directory that an export created, overwrote or deleted.
+ * <p>
+ * Without it, a deployment has to compare the complete target directory with what's deployed to find out what
+ * changed. The change feed is a simple text file in the target directory, next to the
+ * {@value BuildManifest#MANIFEST_FILE}, that's written by every successful export, even if nothing changed. Each line
+ * holds tab-separated fields: the change, the size in bytes, the content hash and the path. Deleted paths have no
+ * size or content hash; those fields hold a {@value #NONE} instead. Directories are listed only when they're deleted.
+ * </p>
+ * <p>
+ * The planner tells what it's going to change; the actions tell what they actually changed. Only what was both
+ * planned and performed ends up in the feed. Some paths are deleted along with an action on another path: the files
+ * inside a directory that's deleted as a whole, and the old path of a file that's moved. They're listed once that
+ * action is performed. Copies bring their content hash along, from the build manifest; only converted files are
+ * hashed, when the feed is written.
+ * </p>
+ * <p>
+ * Files that an interrupted export already wrote, and that the next export resumes from, are listed as well: the
+ * interrupted export never got to write a change feed.
+ * </p>
+ */
+class ChangeFeed {
+
+    static final String CHANGE_FEED_FILE = ".magisto-changes";
+
+    private static final String NONE = "-";
+
+    enum Change {
+        CREATED, OVERWRITTEN, DELETED;
+
+        String getCode() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final Map<Path, Change> changes = new TreeMap<>();
+    private final Map<Path, String> hashes = new HashMap<>();
+    private final Map<Path, List<Path>> pendingDeletions = new HashMap<>();
+
+    /*
+    Both the planner and the workers that perform actions report changes, possibly at the same time.
+     */
+    synchronized void written(Path targetPath, boolean created) {
+        changes.put(targetPath, created ? Change.CREATED : Change.OVERWRITTEN);
+    }
+
+    /*
+    A copy has the same content as its source, so its hash is known already.
+     */
+    synchronized void copied(Path targetPath, String hash) {
+        hashes.put(targetPath, hash);
+    }
+
+    synchronized void converted(Path targetPath) {
+        hashes.put(targetPath, null);
+    }
+
+    /*
+    A path that's deleted to make way for something else is not deleted in the end.
+     */
+    synchronized void deleted(Path targetPath) {
+        markDeleted(targetPath);
+        deletedAlong(targetPath);
+    }
+
+    /*
+    The old path of the file is deleted along with the move.
+     */
+    synchronized void moved(Path targetPath, String hash) {
+        copied(targetPath, hash);
+        deletedAlong(targetPath);
+    }
+
+    /*
+    The path is listed as deleted once the deletion or the move of the action path is performed.
+     */
+    synchronized void deletedWith(Path targetPath, Path actionPath) {
+        List<Path> paths = pendingDeletions.get(actionPath);
+        if (paths == null) {
+            paths = new ArrayList<>();
+            pendingDeletions.put(actionPath, paths);
+        }
+        paths.add(targetPath);
+    }
+
+    private void deletedAlong(Path actionPath) {
+        final List<Path> paths = pendingDeletions.remove(actionPath);
+        if (paths != null) {
+            for (Path path : paths) {
+                markDeleted(path);
+            }
+        }
+    }
+
+    private void markDeleted(Path targetPath) {
+        if (!changes.containsKey(targetPath)) {
+            changes.put(targetPath, Change.DELETED);
+        }
+    }
+
+    /*
+    A converter that skips a page removes its target, if there was one.
+     */
+    synchronized void skipped(Path targetPath) {
+        hashes.remove(targetPath);
+        if (changes.get(targetPath) == Change.CREATED) {
+            changes.remove(targetPath);
+        } else {
+            changes.put(targetPath, Change.DELETED);
+        }
+    }
+
+    /*
+    The changes are copied first, so that the feed isn't locked while converted files are hashed. Copies of
+    directories have a hash, but they're left out.
+     */
+    void write(FileSystem fileSystem, Path targetRoot) throws IOException {
+        final Map<Path, Change> changes;
+        final Map<Path, String> hashes;
+        synchronized (this) {
+            changes = new TreeMap<>(this.changes);
+            hashes = new HashMap<>(this.hashes);
+        }
+        try (final BufferedWriter writer = fileSystem.newBufferedWriterForTextFile(
+                targetRoot.resolve(CHANGE_FEED_FILE))) {
+            for (Map.Entry<Path, Change> entry : changes.entrySet()) {
+                final Change change = entry.getValue();
+                final Path path = targetRoot.resolve(entry.getKey());
+                if (change == Change.DELETED) {
+                    writeLine(writer, change, NONE, NONE, entry.getKey());
+                } else if (hashes.containsKey(entry.getKey()) && fileSystem.exists(path)
+                        && !fileSystem.isDirectory(path)) {
+                    final String hash = hashes.get(entry.getKey());
+                    writeLine(writer, change, Long.toString(fileSystem.getSize(path)),
+                            hash != null ? hash : fileSystem.computeContentHash(path), entry.getKey());
+                }
+            }
+        }
+    }
+
+    private void writeLine(BufferedWriter writer, Change change, String size, String hash, Path path)
+            throws IOException {
+        TabSeparatedFile.writeLine(writer, change.getCode(), size, hash, TabSeparatedFile.formatPath(path));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Collects the paths that changed in the source directory since the last export, split into source paths and static
+ * paths, both relative to their own root.
+ * <p>
+ * Changes to hidden files and directories are left out, just like a full export leaves them out, with two
+ * exceptions. The static content directory is of course taken into account. And hidden files in the root of the
+ * source directory (like a custom template) are recorded as "other changes". These have no path of their own, but
+ * they still require the export to be run again.
+ * </p>
+ * <p>
+ * If a path and one of its ancestors are both in the set, only the ancestor is kept; its changes cover those of its
+ * descendants.
+ * </p>
+ */
+class ChangeSet {
+
+    private final Path sourceRoot;
+    private final Path staticRoot;
+    private final SortedSet<Path> sourcePaths = new TreeSet<>();
+    private final SortedSet<Path> staticPaths = new TreeSet<>();
+    private boolean hasOtherChanges = false;
+    private boolean isComplete = false;
+
+    ChangeSet(Path sourceRoot, String staticContentDirectory) {
+        this.sourceRoot = sourceRoot;
+        this.staticRoot = sourceRoot.resolve(staticContentDirectory);
+    }
+
+    /**
+     * @param path Absolute path to a file or directory that was created, modified or deleted.
+     */
+    void add(Path path) {
+        if (path.startsWith(staticRoot)) {
+            if (path.equals(staticRoot)) {
+                isComplete = true;
+            } else {
+                staticPaths.add(staticRoot.relativize(path));
+            }
+        } else if (path.startsWith(sourceRoot) && !path.equals(sourceRoot)) {
+            final Path relativePath = sourceRoot.relativize(path);
+            if (!isHidden(relativePath)) {
+                sourcePaths.add(relativePath);
+            } else if (relativePath.getNameCount() == 1) {
+                hasOtherChanges = true;
+            }
+        }
+    }
+
+    /**
+     * Marks this set as complete: everything might have changed. This happens for example if the operating system
+     * lost track of changes.
+     */
+    void addEverything() {
+        isComplete = true;
+    }
+
+    boolean isEmpty() {
+        return !isComplete && !hasOtherChanges && sourcePaths.isEmpty() && staticPaths.isEmpty();
+    }
+
+    boolean isComplete() {
+        return isComplete;
+    }
+
+    SortedSet<Path> getSourcePaths() {
+        return withoutDescendants(sourcePaths);
+    }
+
+    SortedSet<Path> getStaticPaths() {
+        return withoutDescendants(staticPaths);
+    }
+
+    private static boolean isHidden(Path relativePath) {
+        for (Path name : relativePath) {
+            if (name.toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static SortedSet<Path> withoutDescendants(SortedSet<Path> paths) {
+        final SortedSet<Path> result = new TreeSet<>();
+        for (Path path : paths) {
+            if (!hasAncestorIn(paths, path)) {
+                result.add(path);
+            }
+        }
+        return Collections.unmodifiableSortedSet(result);
+    }
+
+    private static boolean hasAncestorIn(SortedSet<Path> paths, Path path) {
+        Path ancestor = path.getParent();
+        while (ancestor != null) {
+            if (paths.contains(ancestor)) {
+                return true;
+            }
+            ancestor = ancestor.getParent();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.action.CostEstimator;
+import nl.ulso.magisto.io.FileSystem;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long it took to convert or copy each source file the last time it was converted or copied, and how
+ * large it was. The next export uses the durations as cost estimates, to start the most expensive files first.
+ * <p>
+ * The profile is a simple text file in the target directory, next to the {@value BuildManifest#MANIFEST_FILE}. Each
+ * line holds tab-separated fields: the duration in microseconds, the size in bytes, and the path. An unknown size is
+ * -1. Only files that are still in the source directory are kept in the profile.
+ * </p>
+ */
+class CostProfile implements CostEstimator {
+
+    static final String PROFILE_FILE = ".magisto-profile";
+
+    private static final long UNKNOWN = -1;
+
+    private final Map<Path, Cost> costs = new HashMap<>();
+
+    /**
+     * @return The profile of earlier exports; empty if there is none, or if it can't be understood.
+     */
+    static CostProfile read(FileSystem fileSystem, Path targetRoot) throws IOException {
+        final CostProfile profile = new CostProfile();
+        final Path profileFile = targetRoot.resolve(PROFILE_FILE);
+        if (fileSystem.notExists(profileFile)) {
+            return profile;
+        }
+        final boolean complete = TabSeparatedFile.read(fileSystem, profileFile, "the profile of earlier exports",
+                new TabSeparatedFile.LineReader() {
+                    @Override
+                    public boolean readLine(String[] fields) throws TabSeparatedFile.InvalidLineException {
+                        if (fields.length != 3) {
+                            throw new TabSeparatedFile.InvalidLineException();
+                        }
+                        profile.costs.put(TabSeparatedFile.parsePath(fields[2]),
+                                new Cost(Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+                        return true;
+                    }
+                });
+        return complete ? profile : new CostProfile();
+    }
+
+    /**
+     * Writes the profile, leaving out all files that are no longer in the manifest.
+     */
+    void write(FileSystem fileSystem, Path targetRoot, BuildManifest manifest) throws IOException {
+        final SortedMap<String, Cost> sortedCosts = new TreeMap<>();
+        for (Map.Entry<Path, Cost> entry : costs.entrySet()) {
+            if (manifest.getSourceHash(entry.getKey()) != null) {
+                sortedCosts.put(TabSeparatedFile.formatPath(entry.getKey()), entry.getValue());
+            }
+        }
+        try (final BufferedWriter writer = fileSystem.newBufferedWriterForTextFile(targetRoot.resolve(PROFILE_FILE))) {
+            for (Map.Entry<String, Cost> entry : sortedCosts.entrySet()) {
+                final Cost cost = entry.getValue();
+                TabSeparatedFile.writeLine(writer, Long.toString(cost.durationInMicros), Long.toString(cost.size),
+                        entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Records the cost of a file that was just converted or copied. If the size is unknown, the size from earlier
+     * exports is kept.
+     */
+    void record(Path path, long durationInNanos, long size) {
+        if (size == UNKNOWN) {
+            final Cost previousCost = costs.get(path);
+            size = previousCost != null ? previousCost.size : UNKNOWN;
+        }
+        costs.put(path, new Cost(TimeUnit.NANOSECONDS.toMicros(durationInNanos), size));
+    }
+
+    @Override
+    public long estimateCost(Path path) {
+        final Cost cost = costs.get(path);
+        return cost != null ? cost.durationInMicros : 0;
+    }
+
+    private static final class Cost {
+        private final long durationInMicros;
+        private final long size;
+
+        private Cost(long durationInMicros, long size) {
+            this.durationInMicros = durationInMicros;
+            this.size = size;
+        }
+    }
+}
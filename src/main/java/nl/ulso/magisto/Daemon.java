@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.DaemonProtocol.Request;
+import nl.ulso.magisto.git.DummyGitClient;
+import nl.ulso.magisto.git.GitClient;
+import nl.ulso.magisto.git.JGitClient;
+import nl.ulso.magisto.io.RealFileSystem;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs Magisto as a long-lived process that performs exports on request of a {@link DaemonClient}.
+ * <p>
+ * Starting a JVM, generating the Markdown parser, setting up FreeMarker and opening a Git repository together take
+ * a lot longer than exporting a handful of changed files. The daemon pays for all of that only once. It keeps a Git
+ * client open for every source directory it has exported.
+ * </p>
+ * <p>
+ * The daemon only listens on the loopback interface, and it handles one request at a time, so that two exports never
+ * run into each other. It only accepts requests from clients that know its {@link DaemonSecret}.
+ * </p>
+ */
+class Daemon implements Closeable {
+
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+    private static final int REQUEST_TIMEOUT_IN_MILLIS = 10000;
+
+    private final ExportOptions options;
+    private final RealFileSystem fileSystem;
+    private final Map<String, GitClient> gitClients = new HashMap<>();
+    private final ServerSocket serverSocket;
+    private final DaemonSecret secret;
+
+    Daemon(int port, ExportOptions options) throws IOException {
+        this(port, options, DaemonSecret.getDefaultDirectory());
+    }
+
+    /*
+    Whether to overwrite is up to each request; the options only give the default.
+     */
+    Daemon(int port, ExportOptions options, Path secretDirectory) throws IOException {
+        this.options = options;
+        this.fileSystem = options.createFileSystem();
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        try {
+            this.secret = DaemonSecret.create(secretDirectory, serverSocket.getLocalPort());
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Serves requests until the daemon is closed.
+     */
+    void serve() throws IOException {
+        Logger.getGlobal().log(Level.INFO, String.format("Waiting for requests on port %d...", getPort()));
+        while (!serverSocket.isClosed()) {
+            try (final Socket socket = serverSocket.accept()) {
+                handle(socket);
+            } catch (SocketException e) {
+                if (!serverSocket.isClosed()) {
+                    Logger.getGlobal().log(Level.WARNING, String.format(
+                            "Lost the connection with a client. The cause: %s", e.getMessage()));
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        socket.setSoTimeout(REQUEST_TIMEOUT_IN_MILLIS);
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), CHARSET_UTF8));
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), CHARSET_UTF8));
+        final Request request;
+        try {
+            request = DaemonProtocol.readRequest(reader, secret);
+        } catch (IOException e) {
+            Logger.getGlobal().log(Level.WARNING, String.format("Ignoring invalid request: %s", e.getMessage()));
+            DaemonProtocol.writeError(writer, String.valueOf(e.getMessage()));
+            return;
+        }
+        Logger.getGlobal().log(Level.INFO, String.format("Exporting '%s' to '%s'...",
+                request.getSourceDirectory(), request.getTargetDirectory()));
+        final Statistics statistics;
+        try {
+            statistics = createMagisto(request).run(request.getSourceDirectory(), request.getTargetDirectory());
+        } catch (IOException | RuntimeException e) {
+            Logger.getGlobal().log(Level.SEVERE, String.format("Export failed. The cause: %s", e.getMessage()), e);
+            DaemonProtocol.writeError(writer, String.valueOf(e.getMessage()));
+            return;
+        }
+        statistics.log();
+        DaemonProtocol.writeStatistics(writer, statistics);
+    }
+
+    Magisto createMagisto(Request request) {
+        return options.createMagistoBuilder(fileSystem, getGitClient(request.getSourceDirectory()))
+                .forceOverwrite(request.isForceOverwrite()).build();
+    }
+
+    private GitClient getGitClient(String sourceDirectory) {
+        GitClient gitClient = gitClients.get(sourceDirectory);
+        if (gitClient == null) {
+            try {
+                gitClient = new JGitClient(sourceDirectory, options.isIndexHistory());
+            } catch (IOException e) {
+                Logger.getGlobal().log(Level.INFO, String.format(
+                        "No Git repository found in '%s'. Version information will not be available.",
+                        sourceDirectory));
+                gitClient = new DummyGitClient();
+            }
+            gitClients.put(sourceDirectory, gitClient);
+        }
+        return gitClient;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            serverSocket.close();
+        } finally {
+            try {
+                secret.delete();
+            } finally {
+                fileSystem.close();
+            }
+        }
+    }
+}
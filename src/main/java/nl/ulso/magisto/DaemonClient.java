@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.DaemonProtocol.Request;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+
+/**
+ * Asks a {@link Daemon} on the same machine to perform an export.
+ * <p>
+ * The client itself doesn't need any of the heavy machinery that an export requires, so it starts quickly. It reads
+ * the {@link DaemonSecret} of the daemon from the user's home directory, so it has to run as the same user.
+ * </p>
+ */
+class DaemonClient {
+
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+
+    private final int port;
+    private final Path secretDirectory;
+
+    DaemonClient(int port) {
+        this(port, DaemonSecret.getDefaultDirectory());
+    }
+
+    DaemonClient(int port, Path secretDirectory) {
+        this.port = port;
+        this.secretDirectory = secretDirectory;
+    }
+
+    /*
+    The daemon has its own working directory, so directories are always sent as absolute paths.
+     */
+    Statistics export(String sourceDirectory, String targetDirectory, boolean forceOverwrite) throws IOException {
+        final Request request = new Request(toAbsolutePath(sourceDirectory), toAbsolutePath(targetDirectory),
+                forceOverwrite);
+        final String secret = DaemonSecret.read(secretDirectory, port);
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), CHARSET_UTF8));
+            final BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), CHARSET_UTF8));
+            DaemonProtocol.writeRequest(writer, secret, request);
+            return DaemonProtocol.readStatistics(reader);
+        }
+    }
+
+    private static String toAbsolutePath(String directory) {
+        return createPath(directory).toAbsolutePath().normalize().toString();
+    }
+}
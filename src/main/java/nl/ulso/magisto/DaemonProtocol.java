@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.action.ActionType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Defines what the {@link DaemonClient} and the {@link Daemon} say to each other.
+ * <p>
+ * The protocol is plain text in UTF-8, one connection per export. Every message is a number of lines with a key and a
+ * value separated by a tab, ended by an empty line. A request looks like this:
+ * </p>
+ * <pre>
+ * magisto	2
+ * secret	0123456789abcdef...
+ * source	/absolute/path/to/source
+ * target	/absolute/path/to/target
+ * force	false
+ * </pre>
+ * <p>
+ * The secret is the one the daemon wrote to its {@link DaemonSecret} file. Requests without it are refused.
+ * </p>
+ * <p>
+ * The response starts with either {@code ok} or {@code error}. After {@code ok} follow the duration of the run in
+ * milliseconds and the number of actions performed per {@link ActionType}; after {@code error} follows the message:
+ * </p>
+ * <pre>
+ * ok
+ * duration	123
+ * CONVERT_SOURCE	2
+ * </pre>
+ */
+final class DaemonProtocol {
+
+    private static final String VERSION = "2";
+    private static final String MAGISTO = "magisto";
+    private static final String SECRET = "secret";
+    private static final String SOURCE = "source";
+    private static final String TARGET = "target";
+    private static final String FORCE = "force";
+    private static final String OK = "ok";
+    private static final String ERROR = "error";
+    private static final String DURATION = "duration";
+    private static final String SEPARATOR = "\t";
+
+    private DaemonProtocol() {
+    }
+
+    static void writeRequest(Writer writer, String secret, Request request) throws IOException {
+        writeLine(writer, MAGISTO, VERSION);
+        writeLine(writer, SECRET, secret);
+        writeLine(writer, SOURCE, request.getSourceDirectory());
+        writeLine(writer, TARGET, request.getTargetDirectory());
+        writeLine(writer, FORCE, Boolean.toString(request.isForceOverwrite()));
+        writeEnd(writer);
+    }
+
+    /**
+     * @return The request, if it carries the daemon's secret.
+     * @throws IOException If the request is invalid, or if it doesn't carry the daemon's secret.
+     */
+    static Request readRequest(BufferedReader reader, DaemonSecret secret) throws IOException {
+        final Map<String, String> message = readMessage(reader);
+        if (!VERSION.equals(message.get(MAGISTO))) {
+            throw new IOException("Unsupported protocol version: " + message.get(MAGISTO));
+        }
+        if (!secret.matches(message.get(SECRET))) {
+            throw new IOException("Refusing a request without the daemon's secret");
+        }
+        final String source = message.get(SOURCE);
+        final String target = message.get(TARGET);
+        if (source == null || target == null) {
+            throw new IOException("Both a source and a target directory are required");
+        }
+        return new Request(source, target, Boolean.parseBoolean(message.get(FORCE)));
+    }
+
+    static void writeStatistics(Writer writer, Statistics statistics) throws IOException {
+        writeLine(writer, OK, null);
+        writeLine(writer, DURATION, Long.toString(statistics.getDurationInMillis()));
+        for (ActionType actionType : ActionType.values()) {
+            final int count = statistics.countFor(actionType);
+            if (count > 0) {
+                writeLine(writer, actionType.name(), Integer.toString(count));
+            }
+        }
+        writeEnd(writer);
+    }
+
+    static void writeError(Writer writer, String message) throws IOException {
+        writeLine(writer, ERROR, message.replaceAll("\\s+", " "));
+        writeEnd(writer);
+    }
+
+    /**
+     * @return The statistics in the response.
+     * @throws IOException If the response is an error, or if it can't be read.
+     */
+    static Statistics readStatistics(BufferedReader reader) throws IOException {
+        final Map<String, String> message = readMessage(reader);
+        if (message.containsKey(ERROR)) {
+            throw new IOException("The daemon reported an error: " + message.get(ERROR));
+        }
+        if (!message.containsKey(OK)) {
+            throw new IOException("Unexpected response from the daemon");
+        }
+        final Map<ActionType, Integer> actionsPerformed = new EnumMap<>(ActionType.class);
+        for (ActionType actionType : ActionType.values()) {
+            final String count = message.get(actionType.name());
+            if (count != null) {
+                actionsPerformed.put(actionType, Integer.parseInt(count));
+            }
+        }
+        return new Statistics(Long.parseLong(message.get(DURATION)), actionsPerformed);
+    }
+
+    private static void writeLine(Writer writer, String key, String value) throws IOException {
+        writer.write(key);
+        if (value != null) {
+            writer.write(SEPARATOR);
+            writer.write(value);
+        }
+        writer.write('\n');
+    }
+
+    private static void writeEnd(Writer writer) throws IOException {
+        writer.write('\n');
+        writer.flush();
+    }
+
+    private static Map<String, String> readMessage(BufferedReader reader) throws IOException {
+        final Map<String, String> message = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            final int separator = line.indexOf(SEPARATOR);
+            if (separator == -1) {
+                message.put(line, "");
+            } else {
+                message.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+        if (line == null) {
+            throw new IOException("Connection closed before the end of the message");
+        }
+        return message;
+    }
+
+    /**
+     * Request to export a source directory to a target directory.
+     */
+    static final class Request {
+        private final String sourceDirectory;
+        private final String targetDirectory;
+        private final boolean forceOverwrite;
+
+        Request(String sourceDirectory, String targetDirectory, boolean forceOverwrite) {
+            this.sourceDirectory = sourceDirectory;
+            this.targetDirectory = targetDirectory;
+            this.forceOverwrite = forceOverwrite;
+        }
+
+        String getSourceDirectory() {
+            return sourceDirectory;
+        }
+
+        String getTargetDirectory() {
+            return targetDirectory;
+        }
+
+        boolean isForceOverwrite() {
+            return forceOverwrite;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.ContentHashes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+
+/**
+ * Secret that a {@link DaemonClient} has to send along with every request to a {@link Daemon}.
+ * <p>
+ * Every process on the machine can connect to the daemon's port, and every request makes the daemon write to a
+ * directory of the client's choosing, with the rights of the user that runs the daemon. That's why the daemon only
+ * accepts requests from clients that know its secret. The daemon generates a new secret every time it starts, and
+ * writes it to a file in the user's home directory, which only the user can read. The file is named after the port,
+ * so that several daemons can run side by side. The daemon removes it when it stops.
+ * </p>
+ */
+final class DaemonSecret {
+
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+    private static final String SECRET_FILE_PREFIX = ".magisto-daemon-";
+    private static final int SECRET_LENGTH = 32;
+
+    private final Path file;
+    private final String secret;
+
+    private DaemonSecret(Path file, String secret) {
+        this.file = file;
+        this.secret = secret;
+    }
+
+    static Path getDefaultDirectory() {
+        return createPath(System.getProperty("user.home"));
+    }
+
+    /*
+    The file is created with the right permissions from the start, so that there's no moment at which others can read
+    it. A file left behind by a daemon that crashed is replaced.
+     */
+    static DaemonSecret create(Path directory, int port) throws IOException {
+        final byte[] bytes = new byte[SECRET_LENGTH];
+        new SecureRandom().nextBytes(bytes);
+        final String secret = ContentHashes.toHex(bytes);
+        final Path file = getFile(directory, port);
+        Files.deleteIfExists(file);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            final File plainFile = Files.createFile(file).toFile();
+            if (!(plainFile.setReadable(false, false) && plainFile.setReadable(true, true)
+                    && plainFile.setWritable(false, false) && plainFile.setWritable(true, true))) {
+                Files.delete(file);
+                throw new IOException("Could not make the daemon's secret file readable to its owner only: " + file);
+            }
+        }
+        Files.write(file, secret.getBytes(CHARSET_UTF8));
+        return new DaemonSecret(file, secret);
+    }
+
+    /**
+     * @return The secret of the daemon on the given port.
+     * @throws IOException If there's no daemon on that port, or if its secret can't be read.
+     */
+    static String read(Path directory, int port) throws IOException {
+        final Path file = getFile(directory, port);
+        try {
+            return new String(Files.readAllBytes(file), CHARSET_UTF8).trim();
+        } catch (NoSuchFileException e) {
+            throw new IOException(String.format("No daemon found on port %d; it leaves its secret in '%s'.",
+                    port, file), e);
+        }
+    }
+
+    private static Path getFile(Path directory, int port) {
+        return directory.resolve(SECRET_FILE_PREFIX + port);
+    }
+
+    /*
+    The comparison takes as long no matter where the secrets differ, so that its timing gives nothing away.
+     */
+    boolean matches(String candidate) {
+        return candidate != null
+                && MessageDigest.isEqual(secret.getBytes(CHARSET_UTF8), candidate.getBytes(CHARSET_UTF8));
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.action.ActionType;
+import nl.ulso.magisto.io.FileSystem;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Explains why an export converts, copies or deletes each file it does.
+ * <p>
+ * When an export unexpectedly converts thousands of pages, the statistics only tell that it did, not why. With an
+ * explanation, every action other than a skip comes with the reason the planner chose it. The reasons are summarized
+ * in the log, with a few examples each, and written per path to a simple text file in the target directory, next to
+ * the {@value BuildManifest#MANIFEST_FILE}. Each line holds tab-separated fields: the reason, the action and the
+ * path.
+ * </p>
+ */
+class Explanation implements Closeable {
+
+    static final String EXPLANATION_FILE = ".magisto-explanation";
+
+    private static final int EXAMPLES_LIMIT = 3;
+
+    enum Reason {
+        NEW("there was no target for them yet"),
+        CHANGED("their content changed since the last export"),
+        NEWER("they were newer than their targets"),
+        CONVERTER_CHANGED("the file converter or the custom template changed"),
+        FORCED("you forced me to"),
+        REMOVED("their source was removed"),
+        MOVED("their content was already in the target directory, at the path of a removed source");
+
+        private final String description;
+
+        Reason(String description) {
+            this.description = description;
+        }
+
+        String getCode() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    private final Map<Reason, Integer> counts = new EnumMap<>(Reason.class);
+    private final Map<Reason, List<Path>> examples = new EnumMap<>(Reason.class);
+    private final BufferedWriter writer;
+
+    private Explanation(BufferedWriter writer) {
+        this.writer = writer;
+    }
+
+    static Explanation open(FileSystem fileSystem, Path targetRoot) throws IOException {
+        return new Explanation(fileSystem.newBufferedWriterForTextFile(targetRoot.resolve(EXPLANATION_FILE)));
+    }
+
+    void explain(ActionType actionType, Path path, Reason reason) throws IOException {
+        final Integer count = counts.get(reason);
+        counts.put(reason, count == null ? 1 : count + 1);
+        List<Path> list = examples.get(reason);
+        if (list == null) {
+            list = new ArrayList<>(EXAMPLES_LIMIT);
+            examples.put(reason, list);
+        }
+        if (list.size() < EXAMPLES_LIMIT) {
+            list.add(path);
+        }
+        TabSeparatedFile.writeLine(writer, reason.getCode(), actionType.name(), TabSeparatedFile.formatPath(path));
+    }
+
+    int countFor(Reason reason) {
+        final Integer count = counts.get(reason);
+        return count != null ? count : 0;
+    }
+
+    void log() {
+        final Logger logger = Logger.getGlobal();
+        if (counts.isEmpty()) {
+            logger.log(Level.INFO, "There's nothing to convert, copy or delete, so there's nothing to explain.");
+            return;
+        }
+        logger.log(Level.INFO, "Here's why I converted, copied or deleted files:");
+        for (Map.Entry<Reason, Integer> entry : counts.entrySet()) {
+            final Reason reason = entry.getKey();
+            logger.log(Level.INFO, String.format("- %d file(s), because %s. For example: %s", entry.getValue(),
+                    reason.description, examples.get(reason)));
+        }
+        logger.log(Level.INFO, String.format("The reason for each file is in '%s' in the target directory.",
+                EXPLANATION_FILE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
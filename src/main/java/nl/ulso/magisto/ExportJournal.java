@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.FileSystem;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+
+/**
+ * Records which files an export has converted or copied so far, so that an export that was interrupted can be resumed
+ * where it left off.
+ * <p>
+ * The build manifest is written only at the end of a successful export. If an export is interrupted, for example
+ * halfway through converting all pages after a template change, the next export would start from scratch. Instead it
+ * reads the journal of the interrupted export, and skips every file that was already done, as long as it was done by
+ * the same file converter and the content of the file hasn't changed since.
+ * </p>
+ * <p>
+ * The journal is a simple text file in the target directory, next to the {@value BuildManifest#MANIFEST_FILE}. It
+ * has the same format as the manifest, without sizes and timestamps. Each line is flushed as soon as it's written,
+ * so that the journal survives the process being killed. After a successful export the journal is deleted.
+ * </p>
+ */
+class ExportJournal implements Closeable {
+
+    static final String JOURNAL_FILE = ".magisto-journal";
+
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String SOURCE = "source";
+    private static final String STATIC = "static";
+
+    private final Map<Path, String> completedSources = new HashMap<>();
+    private final Map<Path, String> completedStatics = new HashMap<>();
+    private BufferedWriter writer;
+    private int resumedCount;
+
+    private ExportJournal() {
+    }
+
+    /**
+     * Reads the journal of an interrupted export, if there is one and if it was made by the same file converter, and
+     * starts a new journal that includes everything in it.
+     */
+    static ExportJournal open(FileSystem fileSystem, Path targetRoot, String fingerprint) throws IOException {
+        final ExportJournal journal = new ExportJournal();
+        final Path journalFile = targetRoot.resolve(JOURNAL_FILE);
+        if (fileSystem.exists(journalFile)) {
+            journal.read(fileSystem, journalFile, fingerprint);
+        }
+        journal.writer = fileSystem.newBufferedWriterForTextFile(journalFile);
+        journal.writeLine(FINGERPRINT, fingerprint);
+        for (Map.Entry<Path, String> entry : journal.completedSources.entrySet()) {
+            journal.writeLine(SOURCE, entry.getValue(), TabSeparatedFile.formatPath(entry.getKey()));
+        }
+        for (Map.Entry<Path, String> entry : journal.completedStatics.entrySet()) {
+            journal.writeLine(STATIC, entry.getValue(), TabSeparatedFile.formatPath(entry.getKey()));
+        }
+        journal.writer.flush();
+        return journal;
+    }
+
+    /*
+    A journal that can't be understood, or that was made by a different file converter, is of no use.
+     */
+    private void read(FileSystem fileSystem, Path journalFile, final String fingerprint) throws IOException {
+        final boolean complete = TabSeparatedFile.read(fileSystem, journalFile, "the journal of the interrupted export",
+                new TabSeparatedFile.LineReader() {
+                    private boolean headerRead;
+
+                    @Override
+                    public boolean readLine(String[] fields) throws TabSeparatedFile.InvalidLineException {
+                        if (!headerRead) {
+                            headerRead = true;
+                            return fields.length == 2 && FINGERPRINT.equals(fields[0])
+                                    && fingerprint.equals(fields[1]);
+                        }
+                        if (fields.length == 3 && SOURCE.equals(fields[0])) {
+                            completedSources.put(TabSeparatedFile.parsePath(fields[2]), fields[1]);
+                        } else if (fields.length == 3 && STATIC.equals(fields[0])) {
+                            completedStatics.put(TabSeparatedFile.parsePath(fields[2]), fields[1]);
+                        } else {
+                            throw new TabSeparatedFile.InvalidLineException();
+                        }
+                        return true;
+                    }
+                });
+        if (!complete) {
+            completedSources.clear();
+            completedStatics.clear();
+        }
+    }
+
+    /**
+     * @return {@code true} if the interrupted export already converted or copied the source file with this hash.
+     */
+    boolean isSourceCompleted(Path path, String hash) {
+        return isCompleted(completedSources, path, hash);
+    }
+
+    /**
+     * @return {@code true} if the interrupted export already copied the static file with this hash.
+     */
+    boolean isStaticCompleted(Path path, String hash) {
+        return isCompleted(completedStatics, path, hash);
+    }
+
+    private boolean isCompleted(Map<Path, String> completed, Path path, String hash) {
+        if (hash != null && hash.equals(completed.get(path))) {
+            resumedCount++;
+            return true;
+        }
+        return false;
+    }
+
+    int getResumedCount() {
+        return resumedCount;
+    }
+
+    void recordSource(Path path, String hash) {
+        record(SOURCE, path, hash);
+    }
+
+    void recordStatic(Path path, String hash) {
+        record(STATIC, path, hash);
+    }
+
+    /*
+    The journal is only there to save time on the next export. If it can't be written, the current export should
+    carry on regardless.
+     */
+    private synchronized void record(String category, Path path, String hash) {
+        if (writer == null || hash == null) {
+            return;
+        }
+        try {
+            writeLine(category, hash, TabSeparatedFile.formatPath(path));
+            writer.flush();
+        } catch (IOException e) {
+            Logger.getGlobal().log(Level.WARNING, String.format(
+                    "Could not write the journal; an interrupted export will start from scratch. The cause: %s",
+                    e.getMessage()));
+            closeQuietly();
+        }
+    }
+
+    private void writeLine(String... fields) throws IOException {
+        TabSeparatedFile.writeLine(writer, fields);
+    }
+
+    /**
+     * Closes and deletes the journal; the export is done, so there's nothing to resume anymore.
+     */
+    void delete(FileSystem fileSystem, Path targetRoot) throws IOException {
+        close();
+        if (fileSystem.exists(targetRoot.resolve(JOURNAL_FILE))) {
+            fileSystem.delete(targetRoot, createPath(JOURNAL_FILE));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            try {
+                writer.close();
+            } finally {
+                writer = null;
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // Nothing left to do.
+        } finally {
+            writer = null;
+        }
+    }
+}
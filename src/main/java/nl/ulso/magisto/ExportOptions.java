@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.action.RealActionFactory;
+import nl.ulso.magisto.converter.markdown.DocumentBudget;
+import nl.ulso.magisto.converter.markdown.MarkdownToHtmlFileConverterFactory;
+import nl.ulso.magisto.git.GitClient;
+import nl.ulso.magisto.io.CopyStrategy;
+import nl.ulso.magisto.io.Durability;
+import nl.ulso.magisto.io.FileSystem;
+import nl.ulso.magisto.io.RealFileSystem;
+import nl.ulso.magisto.io.Throttle;
+
+/**
+ * Options for real exports, as given on the command line or in the Maven plugin, whether it's a single export, a
+ * batch, or the exports a daemon performs on request. Which files to export is not among them; that's up to each
+ * export.
+ */
+final class ExportOptions {
+
+    private boolean forceOverwrite = false;
+    private int workers = 1;
+    private boolean streaming = false;
+    private boolean explain = false;
+    private int generations = Magisto.UNSTAGED;
+    private boolean indexHistory = false;
+    private DocumentBudget budget = DocumentBudget.DEFAULT;
+    private Throttle throttle = Throttle.UNLIMITED;
+    private Durability durability = Durability.NONE;
+    private CopyStrategy copyStrategy = CopyStrategy.FULL;
+
+    ExportOptions forceOverwrite(boolean forceOverwrite) {
+        this.forceOverwrite = forceOverwrite;
+        return this;
+    }
+
+    ExportOptions workers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    ExportOptions streaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    ExportOptions explain(boolean explain) {
+        this.explain = explain;
+        return this;
+    }
+
+    ExportOptions generations(int generations) {
+        this.generations = generations;
+        return this;
+    }
+
+    ExportOptions indexHistory(boolean indexHistory) {
+        this.indexHistory = indexHistory;
+        return this;
+    }
+
+    ExportOptions budget(DocumentBudget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    ExportOptions throttle(Throttle throttle) {
+        this.throttle = throttle;
+        return this;
+    }
+
+    ExportOptions durability(Durability durability) {
+        this.durability = durability;
+        return this;
+    }
+
+    ExportOptions copyStrategy(CopyStrategy copyStrategy) {
+        this.copyStrategy = copyStrategy;
+        return this;
+    }
+
+    int getWorkers() {
+        return workers;
+    }
+
+    boolean isIndexHistory() {
+        return indexHistory;
+    }
+
+    /**
+     * @return A new file system that's throttled, synced and copies files according to these options. It has to be
+     * closed once all exports are done.
+     */
+    RealFileSystem createFileSystem() {
+        return new RealFileSystem(workers, throttle, durability, copyStrategy);
+    }
+
+    /**
+     * @return A builder for an export that converts Markdown with the given Git client, configured according to these
+     * options.
+     */
+    Magisto.Builder createMagistoBuilder(FileSystem fileSystem, GitClient gitClient) {
+        return new Magisto.Builder(fileSystem, new RealActionFactory(),
+                new MarkdownToHtmlFileConverterFactory(gitClient, budget))
+                .forceOverwrite(forceOverwrite).workers(workers).streaming(streaming).explain(explain)
+                .generations(generations);
+    }
+}
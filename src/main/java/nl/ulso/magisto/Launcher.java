@@ -19,16 +19,28 @@ package nl.ulso.magisto;
 import com.lexicalscope.jewel.cli.ArgumentValidationException;
 import com.lexicalscope.jewel.cli.CliFactory;
 import com.lexicalscope.jewel.cli.ValidationFailure;
-import nl.ulso.magisto.action.RealActionFactory;
-import nl.ulso.magisto.converter.markdown.MarkdownToHtmlFileConverterFactory;
+import nl.ulso.magisto.converter.markdown.DocumentBudget;
 import nl.ulso.magisto.git.DummyGitClient;
 import nl.ulso.magisto.git.GitClient;
 import nl.ulso.magisto.git.JGitClient;
+import nl.ulso.magisto.io.CopyStrategy;
+import nl.ulso.magisto.io.Durability;
 import nl.ulso.magisto.io.RealFileSystem;
+import nl.ulso.magisto.io.Throttle;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
 
+import static nl.ulso.magisto.io.Paths.createPath;
+
 /**
  * Launches the Magisto application.
  * <p>
@@ -45,16 +57,36 @@ public class Launcher {
 
     private static final String WORKING_DIRECTORY = System.getProperty("user.dir");
 
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
     private static Magisto DUMMY_MAGISTO = null; // For testing
 
     public static void main(String[] arguments) {
         try {
             final Options options = parseProgramOptions(arguments);
             configureLoggingSystem(options.isVerbose());
+            if (options.isDaemon()) {
+                runDaemon(options.getPort(), resolveExportOptions(options));
+                return;
+            }
+            if (options.getBatchFile() != null) {
+                runBatch(options.getBatchFile(), resolveExportOptions(options));
+                return;
+            }
             final String sourceDirectory = resolveSourceDirectory(options);
-            final GitClient gitClient = createGitClient(sourceDirectory);
-            final Magisto magisto = createMagisto(options.isForceOverwrite(), gitClient);
+            if (options.isConnect()) {
+                runClient(options.getPort(), sourceDirectory, options.getTargetDirectory(),
+                        options.isForceOverwrite());
+                return;
+            }
+            final Selection selection = resolveSelection(options, System.in);
+            final GitClient gitClient = createGitClient(sourceDirectory, options.isIndexHistory());
+            final Magisto magisto = createMagisto(resolveExportOptions(options), selection, gitClient);
+            stopOnShutdown(magisto);
             run(magisto, sourceDirectory, options.getTargetDirectory());
+            if (options.isWatch()) {
+                watch(magisto, sourceDirectory, options.getTargetDirectory());
+            }
         } catch (RuntimeException e) {
             System.exit(-1);
         }
@@ -75,8 +107,9 @@ public class Launcher {
     }
 
     static Options parseProgramOptions(String[] arguments) {
+        final Options options;
         try {
-            return CliFactory.parseArguments(Options.class, arguments);
+            options = CliFactory.parseArguments(Options.class, arguments);
         } catch (ArgumentValidationException e) {
             System.err.println("You gave me one or more invalid arguments: ");
             for (ValidationFailure failure : e.getValidationFailures()) {
@@ -84,38 +117,206 @@ public class Launcher {
             }
             throw new RuntimeException(e);
         }
+        if (!options.isDaemon() && options.getBatchFile() == null && options.getTargetDirectory() == null) {
+            System.err.println("You gave me one or more invalid arguments: ");
+            System.err.println("Option is mandatory: --target -t value : Target directory");
+            throw new RuntimeException();
+        }
+        if (options.getBatchFile() != null && (options.getIncludes() != null || options.isIncludeFromStdin())) {
+            System.err.println("You gave me one or more invalid arguments: ");
+            System.err.println("A batch exports all files; --include and --include-from-stdin can't be used with it");
+            throw new RuntimeException();
+        }
+        resolveDurability(options);
+        resolveCopyStrategy(options);
+        return options;
     }
 
-    private static GitClient createGitClient(String sourceDirectory) {
+    private static GitClient createGitClient(String sourceDirectory, boolean indexHistory) {
         try {
-            return new JGitClient(sourceDirectory);
+            return new JGitClient(sourceDirectory, indexHistory);
         } catch (IOException e) {
             Logger.getGlobal().log(Level.INFO, "No Git repository found. Version information will not be available.");
             return new DummyGitClient();
         }
     }
 
-    static Magisto createMagisto(boolean forceOverwrite, GitClient gitClient) {
+    /*
+    The file system of a single export lives as long as the process; in watch mode that's until it's killed.
+     */
+    static Magisto createMagisto(ExportOptions exportOptions, Selection selection, GitClient gitClient) {
         if (DUMMY_MAGISTO != null) {
             return DUMMY_MAGISTO;
         }
-        return new Magisto(forceOverwrite, new RealFileSystem(), new RealActionFactory(),
-                new MarkdownToHtmlFileConverterFactory(gitClient));
+        return exportOptions.createMagistoBuilder(exportOptions.createFileSystem(), gitClient).selection(selection)
+                .build();
+    }
+
+    static ExportOptions resolveExportOptions(Options options) {
+        return new ExportOptions().forceOverwrite(options.isForceOverwrite()).workers(options.getWorkers())
+                .streaming(options.isStreaming()).explain(options.isExplain())
+                .generations(options.isStage() ? options.getGenerations() : Magisto.UNSTAGED)
+                .indexHistory(options.isIndexHistory()).budget(resolveBudget(options))
+                .throttle(resolveThrottle(options)).durability(resolveDurability(options))
+                .copyStrategy(resolveCopyStrategy(options));
+    }
+
+    static DocumentBudget resolveBudget(Options options) {
+        return new DocumentBudget(options.getMaxParseTime(), options.getMaxDocumentSize(), options.isFallbackToText());
+    }
+
+    static Throttle resolveThrottle(Options options) {
+        return new Throttle(options.getMaxIoRate() * 1024 * 1024, options.getMaxIoOperations());
+    }
+
+    static Durability resolveDurability(Options options) {
+        try {
+            return Durability.parse(options.getDurability());
+        } catch (IllegalArgumentException e) {
+            System.err.println("You gave me one or more invalid arguments: ");
+            System.err.println(e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    static CopyStrategy resolveCopyStrategy(Options options) {
+        try {
+            return CopyStrategy.parse(options.getCopyStrategy());
+        } catch (IllegalArgumentException e) {
+            System.err.println("You gave me one or more invalid arguments: ");
+            System.err.println(e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+    Paths on standard input are added to those given as options. That way a Git hook can pipe the files it knows to
+    have changed straight into Magisto.
+     */
+    static Selection resolveSelection(Options options, InputStream input) {
+        if (options.getIncludes() == null && !options.isIncludeFromStdin()) {
+            return Selection.EVERYTHING;
+        }
+        final List<String> patterns = new ArrayList<>();
+        if (options.getIncludes() != null) {
+            patterns.addAll(options.getIncludes());
+        }
+        if (options.isIncludeFromStdin()) {
+            try {
+                final BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    patterns.add(line);
+                }
+            } catch (IOException e) {
+                throw reportIOException(e);
+            }
+        }
+        return Selection.of(patterns);
+    }
+
+    /*
+    On Ctrl-C, let the files in progress finish so that the journal is accurate, and the next run can resume.
+     */
+    private static void stopOnShutdown(final Stoppable stoppable) {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    if (!stoppable.stop(0, TimeUnit.SECONDS)) {
+                        System.err.println("Stopping after the files in progress...");
+                        stoppable.stop(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
     }
 
     private static void run(Magisto magisto, String sourceDirectory, String targetDirectory) {
         final Statistics statistics;
         try {
             statistics = magisto.run(sourceDirectory, targetDirectory);
+        } catch (InterruptedIOException e) {
+            System.err.println("Export interrupted. Run me again to pick up where I left off.");
+            throw new RuntimeException(e);
         } catch (IOException e) {
-            System.err.println("Oops! An IO exception occurred...");
-            System.err.println();
-            System.err.println("Deliver the following to your friendly neighbourhood geek to help you out:");
+            throw reportIOException(e);
+        }
+        statistics.log();
+    }
+
+    private static void runBatch(String batchFile, ExportOptions exportOptions) {
+        final Batch batch;
+        try {
+            batch = new Batch(Batch.read(new RealFileSystem(), createPath(batchFile)), exportOptions);
+        } catch (IOException e) {
+            throw reportIOException(e);
+        }
+        final List<Batch.Result> results;
+        try {
+            stopOnShutdown(batch);
+            results = batch.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            batch.close();
+        }
+        int failures = 0;
+        for (Batch.Result result : results) {
+            result.log();
+            if (!result.isSuccess()) {
+                failures++;
+            }
+        }
+        batch.logFileSystemTimes();
+        Logger.getGlobal().log(Level.INFO, String.format("Exported %d of %d source directories.",
+                results.size() - failures, results.size()));
+        if (failures > 0) {
+            throw new RuntimeException();
+        }
+    }
+
+    private static void runDaemon(int port, ExportOptions exportOptions) {
+        try (final Daemon daemon = new Daemon(port, exportOptions)) {
+            daemon.serve();
+        } catch (IOException e) {
+            throw reportIOException(e);
+        }
+    }
+
+    private static void runClient(int port, String sourceDirectory, String targetDirectory, boolean forceOverwrite) {
+        final Statistics statistics;
+        try {
+            statistics = new DaemonClient(port).export(sourceDirectory, targetDirectory, forceOverwrite);
+        } catch (IOException e) {
+            throw reportIOException(e);
+        }
+        statistics.log();
+    }
+
+    private static RuntimeException reportIOException(IOException e) {
+        System.err.println("Oops! An IO exception occurred...");
+        System.err.println();
+        System.err.println("Deliver the following to your friendly neighbourhood geek to help you out:");
+        System.err.println();
+        e.printStackTrace(System.err);
+        return new RuntimeException();
+    }
+
+    private static void watch(Magisto magisto, String sourceDirectory, String targetDirectory) {
+        try {
+            new Watcher(magisto, sourceDirectory, targetDirectory).watch();
+        } catch (IOException e) {
+            System.err.println("Oops! An IO exception occurred while watching for changes...");
             System.err.println();
             e.printStackTrace(System.err);
             throw new RuntimeException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        statistics.log();
     }
 
     static String resolveSourceDirectory(Options options) {
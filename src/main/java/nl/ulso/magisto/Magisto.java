@@ -16,40 +16,77 @@
 
 package nl.ulso.magisto;
 
+import nl.ulso.magisto.Explanation.Reason;
 import nl.ulso.magisto.action.Action;
 import nl.ulso.magisto.action.ActionCallback;
 import nl.ulso.magisto.action.ActionFactory;
 import nl.ulso.magisto.action.ActionSet;
+import nl.ulso.magisto.action.ActionType;
+import nl.ulso.magisto.action.StopSignal;
 import nl.ulso.magisto.converter.FileConverter;
 import nl.ulso.magisto.converter.FileConverterFactory;
+import nl.ulso.magisto.io.ContentHashes;
 import nl.ulso.magisto.io.FileSystem;
+import nl.ulso.magisto.io.PathEntry;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
-import java.util.Iterator;
-import java.util.SortedSet;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import static nl.ulso.magisto.io.Paths.createPath;
 import static nl.ulso.magisto.io.Paths.prioritizeOnExtension;
+import static nl.ulso.magisto.io.Paths.sortEntries;
 
 /**
  * Knits all the components in the Magisto system together (like a module) and runs it.
  */
-class Magisto {
-    private static final String STATIC_CONTENT_DIRECTORY = ".static";
+class Magisto implements Stoppable {
+    static final String STATIC_CONTENT_DIRECTORY = ".static";
+    private static final String DIRECTORY_HASH = ContentHashes.hash("");
+    private static final int STREAMING_BATCH_SIZE = 1000;
+
+    /**
+     * Number of generations to pass in order not to stage exports, but to export to the target directory directly.
+     */
+    static final int UNSTAGED = -1;
 
     private final boolean forceOverwrite;
     private final boolean forceCopy;
+    private final int workers;
+    private final boolean streaming;
+    private final boolean explain;
+    private final Selection selection;
+    private final Executor sharedExecutor;
+    private final int generations;
+    private final boolean sharedFileSystem;
     private final FileSystem fileSystem;
     private final ActionFactory actionFactory;
     private final FileConverterFactory fileConverterFactory;
+    private final StopSignal stopSignal = new StopSignal();
+    private final ReentrantLock runLock = new ReentrantLock();
 
-    public Magisto(boolean forceOverwrite, FileSystem fileSystem, ActionFactory actionFactory,
-                   FileConverterFactory fileConverterFactory) {
-        this.forceOverwrite = forceOverwrite;
-        this.forceCopy = forceOverwrite;
-        this.fileSystem = fileSystem;
-        this.actionFactory = actionFactory;
-        this.fileConverterFactory = fileConverterFactory;
+    Magisto(Builder builder) {
+        this.forceOverwrite = builder.forceOverwrite;
+        this.forceCopy = builder.forceOverwrite;
+        this.workers = builder.workers;
+        this.streaming = builder.streaming;
+        this.explain = builder.explain;
+        this.selection = builder.selection;
+        this.sharedExecutor = builder.sharedExecutor;
+        this.generations = builder.generations;
+        this.sharedFileSystem = builder.sharedFileSystem;
+        this.fileSystem = builder.fileSystem;
+        this.actionFactory = builder.actionFactory;
+        this.fileConverterFactory = builder.fileConverterFactory;
     }
 
     /*
@@ -60,123 +97,1383 @@ class Magisto {
     example: deletions from the target first, in reverse order (first files in directories, then the directories
     themselves). Copies go later, in lexicographical order. That's one reasons why collecting actions and performing
     them are two distinct steps. Also, I like this more.
+
+    With more than one worker the actions are performed in parallel. The ordering constraints above still hold; the
+    ActionSet takes care of that.
+
+    When streaming, actions aren't collected for the whole run, but performed in batches as soon as they're planned.
+    Only the deletions are collected up front, as paths. That keeps memory use down on very large sites.
+
+    Whether a file has changed is decided by comparing its content hash with the one in the build manifest of the
+    previous run. Only if there is no such manifest (the target is empty, or was exported by an older version of
+    Magisto) are timestamps compared instead. The new manifest is written only after all actions were performed
+    successfully.
+
+    Along the way the time it takes to convert or copy each source file is recorded in a cost profile. With more than
+    one worker, the next run starts the files that took longest first.
+
+    Every file that is converted or copied is also recorded in a journal. If the run is interrupted, the next run
+    skips the files in the journal, instead of starting over. The journal is deleted once the run is done.
+
+    A partial export walks only the subtrees of its selection, and leaves everything outside of it alone, including
+    the records of the previous run in the build manifest. It's never incremental; it's cheap enough as it is.
+
+    When explaining, the planners pass the reason for every action they choose, other than a skip, to an explanation,
+    which is logged after the run.
+
+    A staged export doesn't touch the target directory until it's done. It runs in a staging directory that starts out
+    as a copy of the target, which then replaces the target in one go. The journal is kept in the staging directory,
+    so an interrupted staged export resumes like any other.
+
+    Everything the export wrote is synced before the build manifest is written, so that the manifest never vouches for
+    files that didn't make it to disk. The manifest and the cost profile are synced in turn before the touch file
+    marks the export as complete.
+
+    Moving a directory in the source moves the files in it in the target, instead of deleting and copying them,
+    except when streaming. Only files that are copied as they are can be moved.
+
+    Every export also writes a change feed, which lists the target paths it created, overwrote or deleted, so that a
+    deployment can push just those.
      */
     public Statistics run(final String sourceDirectory, final String targetDirectory) throws IOException {
+        return run(sourceDirectory, targetDirectory, null);
+    }
+
+    /*
+    Runs Magisto for a set of changes only, as collected by the Watcher. Instead of walking both trees, actions are
+    determined for the changed paths alone, using the build manifest of the previous run to detect what's actually
+    different. If there is no such manifest, if the file converter has changed, or if the set of changes is complete,
+    this falls back to a full run.
+     */
+    public Statistics run(final String sourceDirectory, final String targetDirectory, final ChangeSet changes)
+            throws IOException {
+        runLock.lock();
+        try {
+            if (stopSignal.isStopped()) {
+                throw new InterruptedIOException("Stopped before the export started");
+            }
+            return runExclusively(sourceDirectory, targetDirectory, changes);
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    /*
+    Stops the current run, if any, and refuses all future runs. Files that are being converted or copied are finished,
+    and recorded in the journal, but no new ones are started. Returns when the current run is done, or when the
+    timeout expires, whichever comes first.
+     */
+    @Override
+    public boolean stop(long timeout, TimeUnit unit) throws InterruptedException {
+        stopSignal.stop();
+        if (runLock.tryLock(timeout, unit)) {
+            runLock.unlock();
+            return true;
+        }
+        return false;
+    }
+
+    private Statistics runExclusively(String sourceDirectory, String targetDirectory, ChangeSet changes)
+            throws IOException {
         final Statistics statistics = new Statistics();
+        final long throttledTimeAtStart = fileSystem.getThrottledTimeInNanos();
+        final long syncTimeAtStart = fileSystem.getSyncTimeInNanos();
         try {
             statistics.begin();
             final Path sourceRoot = fileSystem.resolveSourceDirectory(sourceDirectory);
-            final Path targetRoot = fileSystem.prepareTargetDirectory(targetDirectory);
+            final Path targetRoot = generations == UNSTAGED
+                    ? fileSystem.prepareTargetDirectory(targetDirectory)
+                    : fileSystem.stageTargetDirectory(targetDirectory);
             fileSystem.requireDistinct(sourceRoot, targetRoot);
 
-            final ActionSet actions = new ActionSet(actionFactory);
-            addSourceActions(actions, sourceRoot, targetRoot);
-            addStaticActions(actions, sourceRoot, targetRoot);
+            final FileConverter fileConverter = fileConverterFactory.create(fileSystem, sourceRoot);
+            final BuildManifest previousManifest = BuildManifest.read(fileSystem, targetRoot);
+            final boolean incremental = isIncremental(changes, fileConverter, previousManifest);
+            final BuildManifest manifest = incremental
+                    ? previousManifest : createManifest(fileConverter, previousManifest);
+            final CostProfile profile = CostProfile.read(fileSystem, targetRoot);
+            final ExportJournal journal = ExportJournal.open(fileSystem, targetRoot, fileConverter.getFingerprint());
+            final Explanation explanation = explain ? Explanation.open(fileSystem, targetRoot) : null;
+            final ChangeFeed changeFeed = new ChangeFeed();
+            final ActionSet actions = new ActionSet(actionFactory, workers, profile, stopSignal, sharedExecutor);
+            try {
+                final ActionCallback callback = new ActionCallback() {
+                    @Override
+                    public void actionPerformed(Action action, long durationInNanos) {
+                        statistics.registerActionPerformed(action);
+                        final ActionType actionType = action.getActionType();
+                        final Path path = action.getPath();
+                        if (actionType == ActionType.CONVERT_SOURCE || actionType == ActionType.COPY_SOURCE) {
+                            statistics.registerDuration(path, durationInNanos);
+                            profile.record(path, durationInNanos, manifest.getSourceSize(path));
+                            journal.recordSource(path, manifest.getSourceHash(path));
+                            if (actionType == ActionType.CONVERT_SOURCE) {
+                                changeFeed.converted(fileConverter.getConvertedFileName(path));
+                            } else {
+                                changeFeed.copied(path, manifest.getSourceHash(path));
+                            }
+                        } else if (actionType == ActionType.MOVE_TARGET) {
+                            journal.recordSource(path, manifest.getSourceHash(path));
+                            changeFeed.moved(path, manifest.getSourceHash(path));
+                        } else if (actionType == ActionType.COPY_STATIC) {
+                            journal.recordStatic(path, manifest.getStaticHash(path));
+                            changeFeed.copied(path, manifest.getStaticHash(path));
+                        } else if (actionType == ActionType.DELETE_TARGET) {
+                            changeFeed.deleted(path);
+                        }
+                    }
 
-            actions.performAll(fileSystem, sourceRoot, targetRoot, new ActionCallback() {
-                @Override
-                public void actionPerformed(Action action) {
-                    statistics.registerActionPerformed(action);
+                    /*
+                    A page that's skipped has no target, so nothing is recorded for it. Without its hash in the
+                    manifest the next export tries again.
+                     */
+                    @Override
+                    public void actionSkipped(Action action) {
+                        final Path path = action.getPath();
+                        manifest.removeSourceHashes(path);
+                        changeFeed.skipped(fileConverter.getConvertedFileName(path));
+                    }
+                };
+                if (incremental) {
+                    final MovingPlan plan = new MovingPlan(createTargetPlan(actions, explanation), sourceRoot,
+                            targetRoot, null, null, previousManifest, manifest, changeFeed);
+                    final IncrementalPlanner planner = new IncrementalPlanner(
+                            decorate(plan, journal, manifest, null, changeFeed),
+                            sourceRoot, targetRoot, fileConverter, manifest);
+                    planner.addSourceActions(changes.getSourcePaths());
+                    planner.addStaticActions(changes.getStaticPaths());
+                    plan.finish();
+                } else {
+                    final Future<List<PathEntry>> targetScan = startScan(actions, targetRoot,
+                            getTargetRoots(fileConverter), prioritizeOnExtension(fileConverter.getTargetExtension()));
+                    final List<PathEntry> sourceEntries = selection.select(findEntries(sourceRoot,
+                            selection.getRoots(), prioritizeOnExtension(fileConverter.getSourceExtensions())));
+                    final List<PathEntry> targetEntries = selection.selectTargets(awaitScan(targetScan),
+                            fileConverter);
+                    final FullPlanner planner = new FullPlanner(sourceRoot, targetRoot, fileConverter,
+                            previousManifest, manifest);
+                    planner.hashStaticEntries();
+                    if (streaming) {
+                        final StreamingPlan plan = new StreamingPlan(actions, sourceRoot, targetRoot, callback,
+                                changeFeed);
+                        plan.deleteTargets(planner.findDeletions(sourceEntries, targetEntries));
+                        planner.plan(decorate(plan, journal, manifest, explanation, changeFeed),
+                                sourceEntries, targetEntries);
+                        plan.finish(statistics);
+                    } else {
+                        final MovingPlan plan = new MovingPlan(createTargetPlan(actions, explanation), sourceRoot,
+                                targetRoot, sourceEntries, targetEntries, previousManifest, manifest, changeFeed);
+                        planner.plan(decorate(plan, journal, manifest, null, changeFeed),
+                                sourceEntries, targetEntries);
+                        plan.finish();
+                    }
+                }
+                if (journal.getResumedCount() > 0) {
+                    Logger.getGlobal().log(Level.INFO, String.format("Resumed the last export, which was " +
+                            "interrupted. It already did %d file(s).", journal.getResumedCount()));
+                }
+
+                actions.performAll(fileSystem, sourceRoot, targetRoot, callback);
+                if (explanation != null) {
+                    explanation.log();
                 }
-            });
 
-            fileSystem.writeTouchFile(targetRoot);
+                fileSystem.sync();
+                manifest.write(fileSystem, targetRoot);
+                profile.write(fileSystem, targetRoot, manifest);
+                changeFeed.write(fileSystem, targetRoot);
+                fileSystem.sync();
+                fileSystem.writeTouchFile(targetRoot);
+            } finally {
+                actions.close();
+                journal.close();
+                if (explanation != null) {
+                    explanation.close();
+                }
+            }
+            journal.delete(fileSystem, targetRoot);
+            if (generations != UNSTAGED) {
+                fileSystem.publishTargetDirectory(targetDirectory, targetRoot, generations);
+            }
         } finally {
+            if (!sharedFileSystem) {
+                statistics.registerThrottledTime(fileSystem.getThrottledTimeInNanos() - throttledTimeAtStart);
+                statistics.registerSyncTime(fileSystem.getSyncTimeInNanos() - syncTimeAtStart);
+            }
             statistics.end();
         }
         return statistics;
     }
 
     /*
+    With more than one worker the target directory is scanned on one of the worker threads, while the source directory
+    is scanned on the current thread. On a slow file system that's where most of the waiting is.
+     */
+    private Future<List<PathEntry>> startScan(ActionSet actions, final Path root, final Collection<Path> subtrees,
+                                              final Comparator<? super Path> comparator) {
+        return actions.submit(new Callable<List<PathEntry>>() {
+            @Override
+            public List<PathEntry> call() throws IOException {
+                return findEntries(root, subtrees, comparator);
+            }
+        });
+    }
+
+    /*
+    For a partial export only the subtrees of the selection are walked, together with the directories that lead up to
+    them. Their sizes aren't known without walking their parents, so if their hashes are needed, they're computed.
+     */
+    private List<PathEntry> findEntries(Path root, Collection<Path> subtrees, Comparator<? super Path> comparator)
+            throws IOException {
+        if (!selection.isPartial() || subtrees.contains(createPath(""))) {
+            return fileSystem.findAllEntries(root, comparator);
+        }
+        final List<PathEntry> entries = new ArrayList<>();
+        final Set<Path> ancestors = new HashSet<>();
+        for (Path subtree : subtrees) {
+            final Path directory = root.resolve(subtree);
+            if (fileSystem.notExists(directory)) {
+                continue;
+            }
+            final boolean isDirectory = fileSystem.isDirectory(directory);
+            entries.add(new PathEntry(subtree, isDirectory, -1, fileSystem.getLastModifiedInMillis(directory)));
+            for (Path ancestor = subtree.getParent(); ancestor != null && ancestors.add(ancestor); ) {
+                entries.add(new PathEntry(ancestor, true, -1,
+                        fileSystem.getLastModifiedInMillis(root.resolve(ancestor))));
+                ancestor = ancestor.getParent();
+            }
+            if (isDirectory) {
+                for (PathEntry entry : fileSystem.findAllEntries(directory, comparator)) {
+                    entries.add(new PathEntry(subtree.resolve(entry.getPath()), entry.isDirectory(), entry.getSize(),
+                            entry.getLastModifiedInMillis()));
+                }
+            }
+        }
+        sortEntries(entries, comparator);
+        return entries;
+    }
+
+    /*
+    A converted file has a different name in the target than in the source.
+     */
+    private Set<Path> getTargetRoots(FileConverter fileConverter) {
+        final Set<Path> roots = new HashSet<>();
+        for (Path root : selection.getRoots()) {
+            roots.add(fileConverter.supports(root) ? fileConverter.getConvertedFileName(root) : root);
+        }
+        return roots;
+    }
+
+    /*
+    A partial export leaves everything outside its selection alone, so its manifest keeps the records of the previous
+    run for it. It keeps the previous fingerprint too: if the file converter changed, the rest of the tree must still
+    be converted again by the next full export.
+     */
+    private BuildManifest createManifest(FileConverter fileConverter, BuildManifest previousManifest) {
+        if (!selection.isPartial() || previousManifest == null) {
+            return new BuildManifest(fileConverter.getFingerprint());
+        }
+        final BuildManifest manifest = new BuildManifest(previousManifest.getFingerprint());
+        manifest.putUnselectedRecords(previousManifest, selection);
+        return manifest;
+    }
+
+    private List<PathEntry> awaitScan(Future<List<PathEntry>> scan) throws IOException {
+        try {
+            return scan.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning a directory", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private boolean isIncremental(ChangeSet changes, FileConverter fileConverter, BuildManifest previousManifest) {
+        return changes != null
+                && !changes.isComplete()
+                && !selection.isPartial()
+                && !forceOverwrite
+                && previousManifest != null
+                && fileConverter.getFingerprint().equals(previousManifest.getFingerprint());
+    }
+
+    /*
+    Reading the content of every file on every run would make a run without changes as slow as reading the complete
+    source directory. Instead the hash from the previous manifest is reused if the file has the same size and
+    timestamp as when that hash was computed. Directories have no content to hash.
+     */
+    private String computeContentHash(Path root, PathEntry entry, String unchangedHash) throws IOException {
+        if (unchangedHash != null) {
+            return unchangedHash;
+        }
+        if (entry.isDirectory()) {
+            return DIRECTORY_HASH;
+        }
+        return fileSystem.computeContentHash(root.resolve(entry.getPath()));
+    }
+
+    /*
+    Moves are only found once all of the plan is known, so the plan of a move is explained at the very end, after
+    deletions and new copies have been paired up. Otherwise a move would be explained as a new copy and a deletion.
+     */
+    private TargetPlan createTargetPlan(ActionSet actions, Explanation explanation) {
+        final ActionSetPlan plan = new ActionSetPlan(actions);
+        return explanation != null ? new ExplainingTargetPlan(plan, explanation) : plan;
+    }
+
+    /*
+    Files that the interrupted previous run already did are skipped before they're explained; they aren't rebuilt.
+    They do go into the change feed, since they changed since the last successful run; as far as the feed is
+    concerned, they're performed already.
+     */
+    private Plan decorate(Plan plan, ExportJournal journal, BuildManifest manifest, Explanation explanation,
+                          ChangeFeed changeFeed) {
+        return new FeedingPlan(new ResumingPlan(explanation != null ? new ExplainingPlan(plan, explanation) : plan,
+                journal, manifest, changeFeed), changeFeed);
+    }
+
+    private PathEntry nullableNext(Iterator<PathEntry> entries) {
+        return entries.hasNext() ? entries.next() : null;
+    }
+
+    private boolean isFileConverterChanged(FileConverter fileConverter, Path sourceRoot, Path targetRoot,
+                                           BuildManifest previousManifest) throws IOException {
+        if (previousManifest == null) {
+            return fileConverter.isCustomTemplateChanged(fileSystem, sourceRoot, targetRoot);
+        }
+        return !fileConverter.getFingerprint().equals(previousManifest.getFingerprint());
+    }
+
+    private boolean isSourceChanged(PathEntry source, PathEntry target, String hash, BuildManifest previousManifest,
+                                    String previousHash) {
+        if (previousManifest == null) {
+            return source.getLastModifiedInMillis() > target.getLastModifiedInMillis();
+        }
+        return !hash.equals(previousHash);
+    }
+
+    private Reason getChangeReason(BuildManifest previousManifest) {
+        return previousManifest == null ? Reason.NEWER : Reason.CHANGED;
+    }
+
+    /*
+    Determines the actions for a full run, by walking the source and target trees side by side.
+
     If it weren't for files that can disappear from the source and must therefore be removed from the target,
     determining the list of actions could be as simple as selecting all files in the source directory that are newer
     than the last export. In that case detecting the files to be deleted would require a separate step after performing
     actions on the source files, to detect all files in the target directory that weren't updated. This balanced line
     algorithm is simpler. It's a bit faster too.
+
+    Static content is resolved along the way: it gives way to source content for the same path, and it takes the place
+    of target content that would otherwise be deleted. Static content that has no counterpart at all is copied last.
+
+    In a partial export, a target directory that's only there because it leads up to the selection is never deleted,
+    even if it's gone from the source. Only what's inside the selection is known to be gone; the rest of the directory
+    may well still be in use.
      */
-    private void addSourceActions(ActionSet actions, Path sourceRoot, Path targetRoot) throws IOException {
-        final FileConverter fileConverter = fileConverterFactory.create(fileSystem, sourceRoot);
-        final boolean forceConvert = forceOverwrite
-                || fileConverter.isCustomTemplateChanged(fileSystem, sourceRoot, targetRoot);
-        final Iterator<Path> sources = fileSystem.findAllPaths(sourceRoot,
-                prioritizeOnExtension(fileConverter.getSourceExtensions())).iterator();
-        final Iterator<Path> targets = fileSystem.findAllPaths(targetRoot,
-                prioritizeOnExtension(fileConverter.getTargetExtension())).iterator();
-
-        Path source = nullableNext(sources);
-        Path target = nullableNext(targets);
-        while (source != null || target != null) {
-            final int comparison = compareNullablePaths(source, target, fileConverter);
-
-            if (comparison == 0) { // Corresponding source and target
-                if (isSourceNewerThanTarget(sourceRoot.resolve(source), targetRoot.resolve(target))) {
-                    if (fileConverter.supports(source)) {
-                        actions.addConvertSourceAction(source, fileConverter);
+    private final class FullPlanner {
+        private final Path sourceRoot;
+        private final Path staticRoot;
+        private final Path targetRoot;
+        private final FileConverter fileConverter;
+        private final BuildManifest previousManifest;
+        private final BuildManifest manifest;
+        private final Map<Path, PathEntry> staticEntries = new LinkedHashMap<>();
+
+        private FullPlanner(Path sourceRoot, Path targetRoot, FileConverter fileConverter,
+                            BuildManifest previousManifest, BuildManifest manifest) {
+            this.sourceRoot = sourceRoot;
+            this.staticRoot = sourceRoot.resolve(STATIC_CONTENT_DIRECTORY);
+            this.targetRoot = targetRoot;
+            this.fileConverter = fileConverter;
+            this.previousManifest = previousManifest;
+            this.manifest = manifest;
+        }
+
+        private void hashStaticEntries() throws IOException {
+            if (fileSystem.notExists(staticRoot)) {
+                return;
+            }
+            final List<PathEntry> entries = selection.isPartial()
+                    ? selection.select(findEntries(staticRoot, selection.getRoots(), prioritizeOnExtension()))
+                    : fileSystem.findAllEntries(staticRoot);
+            for (PathEntry staticEntry : entries) {
+                final String unchangedHash = previousManifest != null
+                        ? previousManifest.getUnchangedStaticHash(staticEntry) : null;
+                manifest.putStaticHash(staticEntry, computeContentHash(staticRoot, staticEntry, unchangedHash));
+                staticEntries.put(staticEntry.getPath(), staticEntry);
+            }
+        }
+
+        /*
+        The same walk as in plan(), but only to find the target paths to delete. That's just a matter of comparing
+        paths, so it's cheap. Deletions are returned in the order of the walk: parents before children.
+         */
+        private List<Path> findDeletions(List<PathEntry> sourceEntries, List<PathEntry> targetEntries) {
+            final List<Path> deletions = new ArrayList<>();
+            final SourceCursor source = new SourceCursor(sourceEntries, fileConverter);
+            final Iterator<PathEntry> targets = targetEntries.iterator();
+            PathEntry target = nullableNext(targets);
+            while (source.getEntry() != null || target != null) {
+                final int comparison = source.compareTo(target);
+                if (comparison <= 0) {
+                    source.next();
+                }
+                if (comparison >= 0) {
+                    if (comparison > 0 && !staticEntries.containsKey(target.getPath())
+                            && selection.includesTarget(target.getPath(), fileConverter)) {
+                        deletions.add(target.getPath());
+                    }
+                    target = nullableNext(targets);
+                }
+            }
+            return deletions;
+        }
+
+        private void plan(Plan plan, List<PathEntry> sourceEntries, List<PathEntry> targetEntries)
+                throws IOException {
+            final boolean forceConvert = forceOverwrite
+                    || isFileConverterChanged(fileConverter, sourceRoot, targetRoot, previousManifest);
+            final SourceCursor source = new SourceCursor(sourceEntries, fileConverter);
+            final Iterator<PathEntry> targets = targetEntries.iterator();
+
+            PathEntry target = nullableNext(targets);
+            while (source.getEntry() != null || target != null) {
+                final int comparison = source.compareTo(target);
+
+                if (comparison <= 0) {
+                    final PathEntry sourceEntry = source.getEntry();
+                    final String unchangedHash = previousManifest != null
+                            ? previousManifest.getUnchangedSourceHash(sourceEntry) : null;
+                    manifest.putSourceHash(sourceEntry, computeContentHash(sourceRoot, sourceEntry, unchangedHash));
+                    staticEntries.remove(sourceEntry.getPath()); // Source content has precedence.
+                }
+
+                if (comparison == 0) { // Corresponding source and target
+                    final Path sourcePath = source.getEntry().getPath();
+                    final String previousHash = previousManifest != null
+                            ? previousManifest.getSourceHash(sourcePath) : null;
+                    if (isSourceChanged(source.getEntry(), target, manifest.getSourceHash(sourcePath),
+                            previousManifest, previousHash)) {
+                        final Reason reason = getChangeReason(previousManifest);
+                        if (source.isConverted()) {
+                            plan.convertSource(sourcePath, fileConverter, reason);
+                        } else {
+                            plan.copySource(sourcePath, reason);
+                        }
+                    } else if (forceConvert && source.isConverted()) {
+                        plan.convertSource(sourcePath, fileConverter,
+                                forceOverwrite ? Reason.FORCED : Reason.CONVERTER_CHANGED);
+                    } else if (forceCopy) {
+                        plan.copySource(sourcePath, Reason.FORCED);
                     } else {
-                        actions.addCopySourceAction(source);
+                        plan.skipSource(sourcePath);
                     }
-                } else if (forceConvert && fileConverter.supports(source)) {
-                    actions.addConvertSourceAction(source, fileConverter);
-                } else if (forceCopy) {
-                    actions.addCopySourceAction(source);
-                } else {
-                    actions.addSkipSourceAction(source);
+                    planStatic(plan, target);
+                    source.next();
+                    target = nullableNext(targets);
+
+                } else if (comparison < 0) { // Source exists, no corresponding target
+                    if (source.isConverted()) {
+                        plan.convertSource(source.getEntry().getPath(), fileConverter, Reason.NEW);
+                    } else {
+                        plan.copySource(source.getEntry().getPath(), Reason.NEW);
+                    }
+                    source.next();
+
+                } else if (comparison > 0) { // Target exists, no corresponding source
+                    if (!planStatic(plan, target) && selection.includesTarget(target.getPath(), fileConverter)) {
+                        plan.deleteTarget(target.getPath(), Reason.REMOVED);
+                    }
+                    target = nullableNext(targets);
                 }
-                source = nullableNext(sources);
-                target = nullableNext(targets);
+            }
+
+            for (PathEntry staticEntry : staticEntries.values()) { // Static content without a target
+                plan.copyStatic(staticEntry.getPath(), Reason.NEW);
+            }
+            staticEntries.clear();
+        }
+
+        /*
+        Plans the static content for an existing target path, if there is any.
+         */
+        private boolean planStatic(Plan plan, PathEntry target) throws IOException {
+            final Path staticPath = target.getPath();
+            final PathEntry staticEntry = staticEntries.remove(staticPath);
+            if (staticEntry == null) {
+                return false;
+            }
+            final String previousHash = previousManifest != null ? previousManifest.getStaticHash(staticPath) : null;
+            if (forceCopy) {
+                plan.copyStatic(staticPath, Reason.FORCED);
+            } else if (isSourceChanged(staticEntry, target, manifest.getStaticHash(staticPath), previousManifest,
+                    previousHash)) {
+                plan.copyStatic(staticPath, getChangeReason(previousManifest));
+            } else {
+                plan.skipStatic(staticPath);
+            }
+            return true;
+        }
+    }
+
+    /*
+    Walks the source entries for the merge join. Whether the file converter supports a source path, and what it
+    would make of it, is worked out once per entry, instead of on every comparison with a target entry.
+     */
+    private static final class SourceCursor {
+        private final Iterator<PathEntry> entries;
+        private final FileConverter fileConverter;
+        private PathEntry entry;
+        private boolean converted;
+        private Path targetPath;
+
+        private SourceCursor(List<PathEntry> entries, FileConverter fileConverter) {
+            this.entries = entries.iterator();
+            this.fileConverter = fileConverter;
+            next();
+        }
+
+        private void next() {
+            if (!entries.hasNext()) {
+                entry = null;
+                targetPath = null;
+                return;
+            }
+            entry = entries.next();
+            final Path path = entry.getPath();
+            converted = fileConverter.supports(path);
+            targetPath = converted ? fileConverter.getConvertedFileName(path) : path;
+        }
+
+        /**
+         * @return The current entry, or {@code null} if there are no more entries.
+         */
+        private PathEntry getEntry() {
+            return entry;
+        }
+
+        private boolean isConverted() {
+            return converted;
+        }
+
+        private int compareTo(PathEntry target) {
+            if (entry == null) {
+                return 1;
+            }
+            if (target == null) {
+                return -1;
+            }
+            return targetPath.compareTo(target.getPath());
+        }
+    }
 
-            } else if (comparison < 0) { // Source exists, no corresponding target
-                if (fileConverter.supports(source)) {
-                    actions.addConvertSourceAction(source, fileConverter);
+    /*
+    Turns conversions and copies that the interrupted previous run already performed into skips. Such files are in the
+    journal with the same content hash as they have now.
+     */
+    private static final class ResumingPlan implements Plan {
+        private final Plan plan;
+        private final ExportJournal journal;
+        private final BuildManifest manifest;
+        private final ChangeFeed changeFeed;
+
+        private ResumingPlan(Plan plan, ExportJournal journal, BuildManifest manifest, ChangeFeed changeFeed) {
+            this.plan = plan;
+            this.journal = journal;
+            this.manifest = manifest;
+            this.changeFeed = changeFeed;
+        }
+
+        @Override
+        public void skipSource(Path path) throws IOException {
+            plan.skipSource(path);
+        }
+
+        @Override
+        public void copySource(Path path, Reason reason) throws IOException {
+            if (journal.isSourceCompleted(path, manifest.getSourceHash(path))) {
+                changeFeed.copied(path, manifest.getSourceHash(path));
+                plan.skipSource(path);
+            } else {
+                plan.copySource(path, reason);
+            }
+        }
+
+        @Override
+        public void convertSource(Path path, FileConverter fileConverter, Reason reason) throws IOException {
+            if (journal.isSourceCompleted(path, manifest.getSourceHash(path))) {
+                changeFeed.converted(fileConverter.getConvertedFileName(path));
+                plan.skipSource(path);
+            } else {
+                plan.convertSource(path, fileConverter, reason);
+            }
+        }
+
+        @Override
+        public void deleteTarget(Path path, Reason reason) throws IOException {
+            plan.deleteTarget(path, reason);
+        }
+
+        @Override
+        public void skipStatic(Path path) throws IOException {
+            plan.skipStatic(path);
+        }
+
+        @Override
+        public void copyStatic(Path path, Reason reason) throws IOException {
+            if (journal.isStaticCompleted(path, manifest.getStaticHash(path))) {
+                changeFeed.copied(path, manifest.getStaticHash(path));
+                plan.skipStatic(path);
+            } else {
+                plan.copyStatic(path, reason);
+            }
+        }
+    }
+
+    /*
+    Passes the reason for every action other than a skip to an explanation.
+     */
+    private static class ExplainingPlan implements Plan {
+        private final Plan plan;
+        private final Explanation explanation;
+
+        ExplainingPlan(Plan plan, Explanation explanation) {
+            this.plan = plan;
+            this.explanation = explanation;
+        }
+
+        @Override
+        public void skipSource(Path path) throws IOException {
+            plan.skipSource(path);
+        }
+
+        @Override
+        public void copySource(Path path, Reason reason) throws IOException {
+            explanation.explain(ActionType.COPY_SOURCE, path, reason);
+            plan.copySource(path, reason);
+        }
+
+        @Override
+        public void convertSource(Path path, FileConverter fileConverter, Reason reason) throws IOException {
+            explanation.explain(ActionType.CONVERT_SOURCE, path, reason);
+            plan.convertSource(path, fileConverter, reason);
+        }
+
+        @Override
+        public void deleteTarget(Path path, Reason reason) throws IOException {
+            explanation.explain(ActionType.DELETE_TARGET, path, reason);
+            plan.deleteTarget(path, reason);
+        }
+
+        @Override
+        public void skipStatic(Path path) throws IOException {
+            plan.skipStatic(path);
+        }
+
+        @Override
+        public void copyStatic(Path path, Reason reason) throws IOException {
+            explanation.explain(ActionType.COPY_STATIC, path, reason);
+            plan.copyStatic(path, reason);
+        }
+    }
+
+    /*
+    Passes the target path of every conversion and copy to the change feed. Only the planner knows whether there was
+    a target already. The action callback passes on what was actually performed, with the content hash if it's known,
+    and deletions.
+     */
+    private static final class FeedingPlan implements Plan {
+        private final Plan plan;
+        private final ChangeFeed changeFeed;
+
+        private FeedingPlan(Plan plan, ChangeFeed changeFeed) {
+            this.plan = plan;
+            this.changeFeed = changeFeed;
+        }
+
+        @Override
+        public void skipSource(Path path) throws IOException {
+            plan.skipSource(path);
+        }
+
+        @Override
+        public void copySource(Path path, Reason reason) throws IOException {
+            changeFeed.written(path, reason == Reason.NEW);
+            plan.copySource(path, reason);
+        }
+
+        @Override
+        public void convertSource(Path path, FileConverter fileConverter, Reason reason) throws IOException {
+            changeFeed.written(fileConverter.getConvertedFileName(path), reason == Reason.NEW);
+            plan.convertSource(path, fileConverter, reason);
+        }
+
+        @Override
+        public void deleteTarget(Path path, Reason reason) throws IOException {
+            plan.deleteTarget(path, reason);
+        }
+
+        @Override
+        public void skipStatic(Path path) throws IOException {
+            plan.skipStatic(path);
+        }
+
+        @Override
+        public void copyStatic(Path path, Reason reason) throws IOException {
+            changeFeed.written(path, reason == Reason.NEW);
+            plan.copyStatic(path, reason);
+        }
+    }
+
+    /*
+    Receives the actions the planners come up with, and for every action other than a skip, the reason why.
+     */
+    private interface Plan {
+        void skipSource(Path path) throws IOException;
+
+        void copySource(Path path, Reason reason) throws IOException;
+
+        void convertSource(Path path, FileConverter fileConverter, Reason reason) throws IOException;
+
+        void deleteTarget(Path path, Reason reason) throws IOException;
+
+        void skipStatic(Path path) throws IOException;
+
+        void copyStatic(Path path, Reason reason) throws IOException;
+    }
+
+    /*
+    A plan that also takes the decisions that can only be made once everything else is planned.
+     */
+    private interface TargetPlan extends Plan {
+        void moveTarget(Path fromPath, Path toPath) throws IOException;
+
+        void deleteTargetTree(Path path) throws IOException;
+    }
+
+    /*
+    A move is explained on its new path. A tree is explained as a whole, just like it's deleted.
+     */
+    private static final class ExplainingTargetPlan extends ExplainingPlan implements TargetPlan {
+        private final TargetPlan plan;
+        private final Explanation explanation;
+
+        private ExplainingTargetPlan(TargetPlan plan, Explanation explanation) {
+            super(plan, explanation);
+            this.plan = plan;
+            this.explanation = explanation;
+        }
+
+        @Override
+        public void moveTarget(Path fromPath, Path toPath) throws IOException {
+            explanation.explain(ActionType.MOVE_TARGET, toPath, Reason.MOVED);
+            plan.moveTarget(fromPath, toPath);
+        }
+
+        @Override
+        public void deleteTargetTree(Path path) throws IOException {
+            explanation.explain(ActionType.DELETE_TARGET, path, Reason.REMOVED);
+            plan.deleteTargetTree(path);
+        }
+    }
+
+    private static final class ActionSetPlan implements TargetPlan {
+        private final ActionSet actions;
+
+        private ActionSetPlan(ActionSet actions) {
+            this.actions = actions;
+        }
+
+        @Override
+        public void skipSource(Path path) {
+            actions.addSkipSourceAction(path);
+        }
+
+        @Override
+        public void copySource(Path path, Reason reason) {
+            actions.addCopySourceAction(path);
+        }
+
+        @Override
+        public void convertSource(Path path, FileConverter fileConverter, Reason reason) {
+            actions.addConvertSourceAction(path, fileConverter);
+        }
+
+        @Override
+        public void deleteTarget(Path path, Reason reason) {
+            actions.addDeleteTargetAction(path);
+        }
+
+        @Override
+        public void deleteTargetTree(Path path) {
+            actions.addDeleteTargetTreeAction(path);
+        }
+
+        @Override
+        public void skipStatic(Path path) {
+            actions.addSkipStaticAction(path);
+        }
+
+        @Override
+        public void copyStatic(Path path, Reason reason) {
+            actions.addCopyStaticAction(path, STATIC_CONTENT_DIRECTORY);
+        }
+
+        @Override
+        public void moveTarget(Path fromPath, Path toPath) {
+            actions.addMoveTargetAction(fromPath, toPath);
+        }
+    }
+
+    /*
+    Turns the deletion of a target file and the copy of a new source file with the same content into a move of the
+    target file, so that a reorganized directory isn't deleted and copied all over again. Deletions and copies of new
+    files are held back until planning is done, since only then is it known which ones match. They're matched on size
+    first, and only then on content hash. Sizes come from the entries the planner found, not from the file system.
+    The hash of a target file comes from the previous build manifest if the file hasn't changed since, and is
+    computed otherwise.
+
+    Conversions are never turned into moves: a page is rendered with its path and its history, so a page that moved
+    must be converted again anyway. Neither is a file moved into a directory that's still a file that's about to be
+    deleted; moves go before deletions. When overwriting is forced, nothing is moved; everything is copied afresh.
+
+    Whatever isn't moved is deleted, but a directory that's deleted takes everything that's left inside it along, in
+    a single action; see findDeletedTrees().
+     */
+    private final class MovingPlan implements Plan {
+        private final TargetPlan plan;
+        private final Path sourceRoot;
+        private final Path targetRoot;
+        private final List<PathEntry> sourceEntries;
+        private final List<PathEntry> targetEntries;
+        private final BuildManifest previousManifest;
+        private final BuildManifest manifest;
+        private final ChangeFeed changeFeed;
+        private final List<Path> deletions = new ArrayList<>();
+        private final List<Path> newCopies = new ArrayList<>();
+        private final Map<Long, List<Path>> newCopiesBySize = new HashMap<>();
+
+        private MovingPlan(TargetPlan plan, Path sourceRoot, Path targetRoot, List<PathEntry> sourceEntries,
+                           List<PathEntry> targetEntries, BuildManifest previousManifest, BuildManifest manifest,
+                           ChangeFeed changeFeed) {
+            this.plan = plan;
+            this.sourceRoot = sourceRoot;
+            this.targetRoot = targetRoot;
+            this.sourceEntries = sourceEntries;
+            this.targetEntries = targetEntries;
+            this.previousManifest = previousManifest;
+            this.manifest = manifest;
+            this.changeFeed = changeFeed;
+        }
+
+        @Override
+        public void skipSource(Path path) throws IOException {
+            plan.skipSource(path);
+        }
+
+        @Override
+        public void copySource(Path path, Reason reason) throws IOException {
+            if (reason != Reason.NEW) {
+                plan.copySource(path, reason);
+                return;
+            }
+            newCopies.add(path);
+        }
+
+        @Override
+        public void convertSource(Path path, FileConverter fileConverter, Reason reason) throws IOException {
+            plan.convertSource(path, fileConverter, reason);
+        }
+
+        @Override
+        public void deleteTarget(Path path, Reason reason) {
+            deletions.add(path);
+        }
+
+        @Override
+        public void skipStatic(Path path) throws IOException {
+            plan.skipStatic(path);
+        }
+
+        @Override
+        public void copyStatic(Path path, Reason reason) throws IOException {
+            plan.copyStatic(path, reason);
+        }
+
+        private void finish() throws IOException {
+            final Map<Path, PathEntry> newEntries = findEntries(sourceRoot, sourceEntries, newCopies);
+            for (Path path : newCopies) {
+                final PathEntry entry = newEntries.get(path);
+                if (entry == null || entry.isDirectory()) {
+                    plan.copySource(path, Reason.NEW);
+                    continue;
+                }
+                List<Path> paths = newCopiesBySize.get(entry.getSize());
+                if (paths == null) {
+                    paths = new ArrayList<>();
+                    newCopiesBySize.put(entry.getSize(), paths);
+                }
+                paths.add(path);
+            }
+            final Map<Path, PathEntry> deletedEntries = findEntries(targetRoot, targetEntries, deletions);
+            final Set<Path> deletedPaths = new HashSet<>(deletions);
+            final Set<Path> deletedTrees = findDeletedTrees(deletions);
+            for (Path path : deletions) {
+                final Path newPath = findNewPath(deletedEntries.get(path), deletedPaths);
+                final Path tree = findDeletedAncestor(path, deletedTrees);
+                if (newPath != null) {
+                    plan.moveTarget(path, newPath);
+                    changeFeed.deletedWith(path, newPath);
+                } else if (tree != null) {
+                    changeFeed.deletedWith(path, tree);
+                } else if (deletedTrees.contains(path)) {
+                    plan.deleteTargetTree(path);
                 } else {
-                    actions.addCopySourceAction(source);
+                    plan.deleteTarget(path, Reason.REMOVED);
+                }
+            }
+            for (List<Path> paths : newCopiesBySize.values()) {
+                for (Path path : paths) {
+                    plan.copySource(path, Reason.NEW);
+                }
+            }
+            deletions.clear();
+            newCopies.clear();
+            newCopiesBySize.clear();
+        }
+
+        /*
+        The full planner passes the entries it found while walking the trees. The incremental planner doesn't walk
+        them, so then the entries of the few paths it plans are looked up one by one.
+         */
+        private Map<Path, PathEntry> findEntries(Path root, List<PathEntry> entries, List<Path> paths)
+                throws IOException {
+            final Map<Path, PathEntry> result = new HashMap<>(paths.size());
+            if (paths.isEmpty()) {
+                return result;
+            }
+            if (entries != null) {
+                final Set<Path> selected = new HashSet<>(paths);
+                for (PathEntry entry : entries) {
+                    if (selected.contains(entry.getPath())) {
+                        result.put(entry.getPath(), entry);
+                    }
+                }
+                return result;
+            }
+            for (Path path : paths) {
+                final Path fullPath = root.resolve(path);
+                result.put(path, fileSystem.isDirectory(fullPath) ? new PathEntry(path, true, 0, 0)
+                        : new PathEntry(path, false, fileSystem.getSize(fullPath),
+                        fileSystem.getLastModifiedInMillis(fullPath)));
+            }
+            return result;
+        }
+
+        private Path findNewPath(PathEntry entry, Set<Path> deletedPaths) throws IOException {
+            if (forceOverwrite || newCopiesBySize.isEmpty() || entry == null || entry.isDirectory()) {
+                return null;
+            }
+            final long size = entry.getSize();
+            final List<Path> candidates = newCopiesBySize.get(size);
+            if (candidates == null) {
+                return null;
+            }
+            final String hash = computeTargetHash(entry);
+            for (Iterator<Path> iterator = candidates.iterator(); iterator.hasNext(); ) {
+                final Path candidate = iterator.next();
+                if (hash.equals(manifest.getSourceHash(candidate)) && !hasDeletedAncestor(candidate, deletedPaths)) {
+                    iterator.remove();
+                    if (candidates.isEmpty()) {
+                        newCopiesBySize.remove(size);
+                    }
+                    return candidate;
                 }
-                source = nullableNext(sources);
+            }
+            return null;
+        }
 
-            } else if (comparison > 0) { // Target exists, no corresponding source
-                actions.addDeleteTargetAction(target);
-                target = nullableNext(targets);
+        private String computeTargetHash(PathEntry entry) throws IOException {
+            if (previousManifest != null) {
+                final String sourceHash = previousManifest.getUnchangedSourceHash(entry);
+                if (sourceHash != null) {
+                    return sourceHash;
+                }
+                final String staticHash = previousManifest.getUnchangedStaticHash(entry);
+                if (staticHash != null) {
+                    return staticHash;
+                }
             }
+            return fileSystem.computeContentHash(targetRoot.resolve(entry.getPath()));
         }
     }
 
-    private void addStaticActions(ActionSet actions, Path sourceRoot, Path targetRoot) throws IOException {
-        final Path staticRoot = sourceRoot.resolve(STATIC_CONTENT_DIRECTORY);
-        if (fileSystem.notExists(staticRoot)) {
-            return;
+    /*
+    Finds the deleted directories with something inside them that's deleted too, and that are not inside a deleted
+    directory themselves: the roots of the subtrees that can be deleted as a whole.
+
+    That's only safe if everything inside such a directory is known to be deleted. It is when the planner saw the
+    complete target tree: both planners then delete everything inside a directory they delete. In a partial export
+    the target tree is filtered, so the planner may not have seen all of it. Then nothing is deleted as a whole, and a
+    directory that turns out not to be empty simply fails to be deleted.
+     */
+    private Set<Path> findDeletedTrees(List<Path> deletions) {
+        final Set<Path> trees = new HashSet<>();
+        if (selection.isPartial()) {
+            return trees;
         }
-        final SortedSet<Path> staticPaths = fileSystem.findAllPaths(staticRoot);
-        for (Path staticPath : staticPaths) {
-            final Path targetPath = targetRoot.resolve(staticPath);
-            if (forceCopy || fileSystem.notExists(targetPath)
-                    || isSourceNewerThanTarget(staticRoot.resolve(staticPath), targetPath)) {
-                actions.addCopyStaticAction(staticPath, STATIC_CONTENT_DIRECTORY);
-            } else {
-                actions.addSkipStaticAction(staticPath);
+        final Set<Path> deletedPaths = new HashSet<>(deletions);
+        for (Path path : deletions) {
+            final Path parent = path.getParent();
+            if (parent != null && deletedPaths.contains(parent) && !hasDeletedAncestor(parent, deletedPaths)) {
+                trees.add(parent);
             }
         }
+        return trees;
     }
 
-    private Path nullableNext(Iterator<Path> paths) {
-        return paths.hasNext() ? paths.next() : null;
+    private static boolean hasDeletedAncestor(Path path, Set<Path> deletedPaths) {
+        return findDeletedAncestor(path, deletedPaths) != null;
     }
 
-    private int compareNullablePaths(Path source, Path target, FileConverter fileConverter) {
-        if (source == null) {
-            return 1;
+    private static Path findDeletedAncestor(Path path, Set<Path> deletedPaths) {
+        for (Path ancestor = path.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+            if (deletedPaths.contains(ancestor)) {
+                return ancestor;
+            }
+        }
+        return null;
+    }
+
+    /*
+    Performs actions as they are planned, in batches of limited size, instead of collecting all of them first. Skips
+    are only counted; there's nothing to perform anyway.
+
+    Deletions must be performed before anything else, which is why they're passed in all at once up front. Where
+    possible a directory is deleted along with everything inside it, in a single action. Otherwise deletions are
+    performed in reverse, so that a directory is deleted only after everything inside it. Within a batch the ActionSet
+    takes care of the right order. Because the planner walks the trees in order, a directory is always created in
+    the same batch as its content, or in an earlier one. All batches go through the same ActionSet, so that its worker
+    threads are started only once.
+     */
+    private final class StreamingPlan implements Plan {
+        private final ActionSet batch;
+        private final Path sourceRoot;
+        private final Path targetRoot;
+        private final ActionCallback callback;
+        private final ChangeFeed changeFeed;
+        private int batchSize;
+        private int sourceSkips;
+        private int staticSkips;
+
+        private StreamingPlan(ActionSet batch, Path sourceRoot, Path targetRoot, ActionCallback callback,
+                              ChangeFeed changeFeed) {
+            this.batch = batch;
+            this.sourceRoot = sourceRoot;
+            this.targetRoot = targetRoot;
+            this.callback = callback;
+            this.changeFeed = changeFeed;
+        }
+
+        private void deleteTargets(List<Path> paths) throws IOException {
+            final Set<Path> deletedTrees = findDeletedTrees(paths);
+            final ListIterator<Path> iterator = paths.listIterator(paths.size());
+            while (iterator.hasPrevious()) {
+                final Path path = iterator.previous();
+                final Path tree = findDeletedAncestor(path, deletedTrees);
+                if (tree != null) {
+                    changeFeed.deletedWith(path, tree);
+                    continue;
+                }
+                if (deletedTrees.contains(path)) {
+                    batch.addDeleteTargetTreeAction(path);
+                } else {
+                    batch.addDeleteTargetAction(path);
+                }
+                added();
+            }
+            flush();
+        }
+
+        @Override
+        public void skipSource(Path path) {
+            sourceSkips++;
+        }
+
+        @Override
+        public void copySource(Path path, Reason reason) throws IOException {
+            batch.addCopySourceAction(path);
+            added();
+        }
+
+        @Override
+        public void convertSource(Path path, FileConverter fileConverter, Reason reason) throws IOException {
+            batch.addConvertSourceAction(path, fileConverter);
+            added();
+        }
+
+        @Override
+        public void deleteTarget(Path path, Reason reason) {
+            // Already performed, by deleteTargets().
+        }
+
+        @Override
+        public void skipStatic(Path path) {
+            staticSkips++;
+        }
+
+        @Override
+        public void copyStatic(Path path, Reason reason) throws IOException {
+            batch.addCopyStaticAction(path, STATIC_CONTENT_DIRECTORY);
+            added();
+        }
+
+        private void finish(Statistics statistics) throws IOException {
+            flush();
+            statistics.registerActionsPerformed(ActionType.SKIP_SOURCE, sourceSkips);
+            statistics.registerActionsPerformed(ActionType.SKIP_STATIC, staticSkips);
+        }
+
+        private void added() throws IOException {
+            if (++batchSize == STREAMING_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            batch.performAll(fileSystem, sourceRoot, targetRoot, callback);
+            batchSize = 0;
+        }
+    }
+
+    /*
+    Determines the actions for a set of changed paths, without walking the source and target trees. The build
+    manifest of the previous run is updated along the way.
+     */
+    private final class IncrementalPlanner {
+        private final Plan plan;
+        private final Path sourceRoot;
+        private final Path staticRoot;
+        private final Path targetRoot;
+        private final FileConverter fileConverter;
+        private final BuildManifest manifest;
+        private final Set<Path> plannedStatics = new HashSet<>();
+        private final Set<Path> plannedDeletions = new HashSet<>();
+
+        private IncrementalPlanner(Plan plan, Path sourceRoot, Path targetRoot, FileConverter fileConverter,
+                                   BuildManifest manifest) {
+            this.plan = plan;
+            this.sourceRoot = sourceRoot;
+            this.staticRoot = sourceRoot.resolve(STATIC_CONTENT_DIRECTORY);
+            this.targetRoot = targetRoot;
+            this.fileConverter = fileConverter;
+            this.manifest = manifest;
+        }
+
+        /*
+        A changed source path that still exists is converted or copied, unless its content turns out to be the same
+        as before. A new directory brings everything inside it along. A changed source path that no longer exists is
+        removed from the target, unless there's static content for it, which then takes its place.
+         */
+        private void addSourceActions(SortedSet<Path> paths) throws IOException {
+            for (Path path : paths) {
+                final Path sourcePath = sourceRoot.resolve(path);
+                if (fileSystem.exists(sourcePath)) {
+                    addSourceAction(path);
+                    if (fileSystem.isDirectory(sourcePath)) {
+                        for (Path child : fileSystem.findAllPaths(sourcePath)) {
+                            addSourceAction(path.resolve(child));
+                        }
+                    }
+                } else {
+                    manifest.removeSourceHashes(path);
+                    final Path targetPath = fileConverter.supports(path)
+                            ? fileConverter.getConvertedFileName(path) : path;
+                    if (fileSystem.exists(staticRoot.resolve(targetPath))) {
+                        addStaticAction(targetPath, true);
+                    } else {
+                        addDeleteTargetActions(targetPath);
+                    }
+                }
+            }
+        }
+
+        private void addSourceAction(Path path) throws IOException {
+            final String previousHash = manifest.getSourceHash(path);
+            final String hash = fileSystem.computeContentHash(sourceRoot.resolve(path));
+            manifest.putSourceHash(path, hash);
+            final boolean isConverted = fileConverter.supports(path);
+            final Path targetPath = isConverted ? fileConverter.getConvertedFileName(path) : path;
+            final boolean isChanged = previousHash != null && !hash.equals(previousHash);
+            if (!isChanged && previousHash != null && fileSystem.exists(targetRoot.resolve(targetPath))) {
+                plan.skipSource(path);
+            } else if (isConverted) {
+                plan.convertSource(path, fileConverter, isChanged ? Reason.CHANGED : Reason.NEW);
+            } else {
+                plan.copySource(path, isChanged ? Reason.CHANGED : Reason.NEW);
+            }
         }
-        if (target == null) {
-            return -1;
+
+        /*
+        Changed static content is copied, unless its content is the same as before, or unless there's source content
+        for the same path, which always has precedence. Static content that no longer exists is removed from the
+        target, again unless there's source content for it.
+         */
+        private void addStaticActions(SortedSet<Path> paths) throws IOException {
+            for (Path path : paths) {
+                final Path staticPath = staticRoot.resolve(path);
+                if (fileSystem.exists(staticPath)) {
+                    addStaticAction(path, false);
+                    if (fileSystem.isDirectory(staticPath)) {
+                        for (Path child : fileSystem.findAllPaths(staticPath)) {
+                            addStaticAction(path.resolve(child), false);
+                        }
+                    }
+                } else {
+                    manifest.removeStaticHashes(path);
+                    if (fileSystem.notExists(sourceRoot.resolve(path))) {
+                        addDeleteTargetActions(path);
+                    }
+                }
+            }
+        }
+
+        /*
+        Forcing a copy is needed when static content takes the place of source content that was removed; the
+        target then still holds the source content.
+         */
+        private void addStaticAction(Path path, boolean forceCopy) throws IOException {
+            if (!plannedStatics.add(path)) {
+                return;
+            }
+            final String previousHash = manifest.getStaticHash(path);
+            final String hash = fileSystem.computeContentHash(staticRoot.resolve(path));
+            manifest.putStaticHash(path, hash);
+            if (manifest.getSourceHash(path) != null) {
+                return; // Source content has precedence.
+            }
+            final boolean isChanged = previousHash != null && !hash.equals(previousHash);
+            if (forceCopy) {
+                plan.copyStatic(path, Reason.REMOVED);
+            } else if (!isChanged && previousHash != null && fileSystem.exists(targetRoot.resolve(path))) {
+                plan.skipStatic(path);
+            } else {
+                plan.copyStatic(path, isChanged ? Reason.CHANGED : Reason.NEW);
+            }
         }
-        if (fileConverter.supports(source)) {
-            return fileConverter.getConvertedFileName(source).compareTo(target);
+
+        private void addDeleteTargetActions(Path path) throws IOException {
+            final Path targetPath = targetRoot.resolve(path);
+            if (fileSystem.notExists(targetPath)) {
+                return;
+            }
+            addDeleteTargetAction(path);
+            if (fileSystem.isDirectory(targetPath)) {
+                for (Path child : fileSystem.findAllPaths(targetPath)) {
+                    addDeleteTargetAction(path.resolve(child));
+                }
+            }
+        }
+
+        private void addDeleteTargetAction(Path path) throws IOException {
+            if (plannedDeletions.add(path)) {
+                plan.deleteTarget(path, Reason.REMOVED);
+            }
         }
-        return source.compareTo(target);
     }
 
-    private boolean isSourceNewerThanTarget(Path sourcePath, Path targetPath) throws IOException {
-        final long sourceLastModified = fileSystem.getLastModifiedInMillis(sourcePath);
-        final long targetLastModified = fileSystem.getLastModifiedInMillis(targetPath);
-        return sourceLastModified > targetLastModified;
+    /**
+     * Collects the settings of a {@link Magisto}. Everything but the file system, the action factory and the file
+     * converter factory is optional: by default Magisto doesn't force anything, works on a single thread, plans all
+     * actions before it performs them, doesn't explain itself, exports everything and doesn't stage exports.
+     */
+    static final class Builder {
+        private final FileSystem fileSystem;
+        private final ActionFactory actionFactory;
+        private final FileConverterFactory fileConverterFactory;
+        private boolean forceOverwrite = false;
+        private int workers = 1;
+        private boolean streaming = false;
+        private boolean explain = false;
+        private Selection selection = Selection.EVERYTHING;
+        private Executor sharedExecutor = null;
+        private int generations = UNSTAGED;
+        private boolean sharedFileSystem = false;
+
+        Builder(FileSystem fileSystem, ActionFactory actionFactory, FileConverterFactory fileConverterFactory) {
+            this.fileSystem = fileSystem;
+            this.actionFactory = actionFactory;
+            this.fileConverterFactory = fileConverterFactory;
+        }
+
+        Builder forceOverwrite(boolean forceOverwrite) {
+            this.forceOverwrite = forceOverwrite;
+            return this;
+        }
+
+        Builder workers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        Builder streaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        Builder explain(boolean explain) {
+            this.explain = explain;
+            return this;
+        }
+
+        Builder selection(Selection selection) {
+            this.selection = selection;
+            return this;
+        }
+
+        /**
+         * @param sharedExecutor Worker threads to perform actions with, shared with other instances that run at the
+         *                       same time, like in a batch. Without them, every run starts threads of its own.
+         */
+        Builder sharedExecutor(Executor sharedExecutor) {
+            this.sharedExecutor = sharedExecutor;
+            return this;
+        }
+
+        /**
+         * @param generations Number of previous generations to keep when staging exports, or {@link #UNSTAGED} not
+         *                    to stage them.
+         */
+        Builder generations(int generations) {
+            this.generations = generations;
+            return this;
+        }
+
+        /**
+         * @param sharedFileSystem Whether the file system is shared with other instances that run at the same time,
+         *                         like in a batch. The time spent throttled and syncing is then left out of the
+         *                         statistics, since there's no telling which run it was spent on.
+         */
+        Builder sharedFileSystem(boolean sharedFileSystem) {
+            this.sharedFileSystem = sharedFileSystem;
+            return this;
+        }
+
+        Magisto build() {
+            return new Magisto(this);
+        }
     }
 }
@@ -16,12 +16,14 @@
 
 package nl.ulso.magisto;
 
-import nl.ulso.magisto.action.RealActionFactory;
-import nl.ulso.magisto.converter.markdown.MarkdownToHtmlFileConverterFactory;
+import nl.ulso.magisto.converter.markdown.DocumentBudget;
 import nl.ulso.magisto.git.DummyGitClient;
 import nl.ulso.magisto.git.GitClient;
 import nl.ulso.magisto.git.JGitClient;
+import nl.ulso.magisto.io.CopyStrategy;
+import nl.ulso.magisto.io.Durability;
 import nl.ulso.magisto.io.RealFileSystem;
+import nl.ulso.magisto.io.Throttle;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -30,11 +32,14 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
+import static nl.ulso.magisto.io.Paths.createPath;
+
 /**
  * Runs Magisto as a Maven plugin.
  */
@@ -46,23 +51,75 @@ public class MagistoMojo extends AbstractMojo {
     @Parameter(property = "source", defaultValue = ".")
     private String sourceDirectory;
 
-    @Parameter(property = "target", required = true)
+    @Parameter(property = "target")
     private String targetDirectory;
 
     @Parameter(property = "force", defaultValue = "false")
     private boolean forceOverwrite;
 
+    @Parameter(property = "indexHistory", defaultValue = "false")
+    private boolean indexHistory;
+
+    @Parameter(property = "workers", defaultValue = "1")
+    private int workers;
+
+    @Parameter(property = "streaming", defaultValue = "false")
+    private boolean streaming;
+
+    @Parameter(property = "includes")
+    private List<String> includes;
+
+    @Parameter(property = "explain", defaultValue = "false")
+    private boolean explain;
+
+    @Parameter(property = "maxParseTime", defaultValue = "2000")
+    private long maxParseTime;
+
+    @Parameter(property = "maxDocumentSize", defaultValue = "0")
+    private long maxDocumentSize;
+
+    @Parameter(property = "fallbackToText", defaultValue = "false")
+    private boolean fallbackToText;
+
+    @Parameter(property = "maxIoRate", defaultValue = "0")
+    private long maxIoRate;
+
+    @Parameter(property = "maxIoOperations", defaultValue = "0")
+    private long maxIoOperations;
+
+    @Parameter(property = "durability", defaultValue = "none")
+    private String durability;
+
+    @Parameter(property = "copyStrategy", defaultValue = "full")
+    private String copyStrategy;
+
+    @Parameter(property = "stage", defaultValue = "false")
+    private boolean stage;
+
+    @Parameter(property = "generations", defaultValue = "2")
+    private int generations;
+
+    @Parameter(property = "batch")
+    private List<String> batch;
+
     @Parameter(property = "verbose", defaultValue = "false")
     private boolean verbose;
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
+        if (batch != null && !batch.isEmpty()) {
+            executeBatch();
+            return;
+        }
+        if (targetDirectory == null) {
+            throw new MojoExecutionException("The target directory is required, unless a batch is given");
+        }
+        final ExportOptions exportOptions = createExportOptions();
         final Handler consoleHandler = configureLogging(verbose);
-        final GitClient gitClient = createGitClient(sourceDirectory);
-        final Magisto magisto = new Magisto(forceOverwrite, new RealFileSystem(), new RealActionFactory(),
-                new MarkdownToHtmlFileConverterFactory(gitClient));
-        try {
-            magisto.run(sourceDirectory, targetDirectory).log();
+        final GitClient gitClient = createGitClient(sourceDirectory, indexHistory);
+        try (final RealFileSystem fileSystem = exportOptions.createFileSystem()) {
+            exportOptions.createMagistoBuilder(fileSystem, gitClient).selection(Selection.of(includes)).build()
+                    .run(sourceDirectory, targetDirectory).log();
         } catch (IOException e) {
             throw new MojoFailureException("IOException occurred", e);
         } finally {
@@ -70,9 +127,66 @@ public class MagistoMojo extends AbstractMojo {
         }
     }
 
-    private GitClient createGitClient(String sourceDirectory) throws MojoFailureException {
+    private void executeBatch() throws MojoExecutionException, MojoFailureException {
+        if (includes != null && !includes.isEmpty()) {
+            throw new MojoExecutionException("A batch exports all files; includes can't be used with it");
+        }
+        final ExportOptions exportOptions = createExportOptions();
+        final Handler consoleHandler = configureLogging(verbose);
+        try (final Batch exports = new Batch(Batch.parse(batch, createPath("")), exportOptions)) {
+            final List<Batch.Result> results = exports.run();
+            int failures = 0;
+            for (Batch.Result result : results) {
+                result.log();
+                if (!result.isSuccess()) {
+                    failures++;
+                }
+            }
+            exports.logFileSystemTimes();
+            if (failures > 0) {
+                throw new MojoFailureException(String.format("Could not export %d of %d source directories",
+                        failures, results.size()));
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Invalid batch", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoFailureException("Interrupted while running the batch", e);
+        } finally {
+            resetLogging(consoleHandler);
+        }
+    }
+
+    private ExportOptions createExportOptions() throws MojoExecutionException {
+        return new ExportOptions().forceOverwrite(forceOverwrite).workers(workers).streaming(streaming)
+                .explain(explain).generations(stage ? generations : Magisto.UNSTAGED).indexHistory(indexHistory)
+                .budget(new DocumentBudget(maxParseTime, maxDocumentSize, fallbackToText))
+                .throttle(createThrottle()).durability(createDurability()).copyStrategy(createCopyStrategy());
+    }
+
+    private Throttle createThrottle() {
+        return new Throttle(maxIoRate * 1024 * 1024, maxIoOperations);
+    }
+
+    private Durability createDurability() throws MojoExecutionException {
+        try {
+            return Durability.parse(durability);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    private CopyStrategy createCopyStrategy() throws MojoExecutionException {
+        try {
+            return CopyStrategy.parse(copyStrategy);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    private GitClient createGitClient(String sourceDirectory, boolean indexHistory) throws MojoFailureException {
         try {
-            return new JGitClient(sourceDirectory);
+            return new JGitClient(sourceDirectory, indexHistory);
         } catch (IOException e) {
             Logger.getGlobal().log(Level.INFO, "No Git repository found. Version information will not be available.");
             return new DummyGitClient();
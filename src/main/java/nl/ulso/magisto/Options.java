@@ -18,6 +18,8 @@ package nl.ulso.magisto;
 
 import com.lexicalscope.jewel.cli.Option;
 
+import java.util.List;
+
 /**
  * Represents the command-line options one can pass
  */
@@ -27,12 +29,91 @@ interface Options {
             defaultToNull = true)
     String getSourceDirectory();
 
-    @Option(shortName = "t", longName = "target", description = "Target directory")
+    @Option(shortName = "t", longName = "target", description = "Target directory, required unless running as a daemon",
+            defaultToNull = true)
     String getTargetDirectory();
 
     @Option(shortName = "f", longName = "force", description = "Forces overwriting of files that would be skipped otherwise")
     boolean isForceOverwrite();
 
+    @Option(shortName = "i", longName = "index-history",
+            description = "Walks the Git history once up front, instead of once for every page")
+    boolean isIndexHistory();
+
+    @Option(shortName = "w", longName = "workers", defaultValue = "1",
+            description = "Number of worker threads to scan directories and perform actions with, defaults to 1")
+    int getWorkers();
+
+    @Option(longName = "streaming",
+            description = "Performs actions in batches while planning them, to keep memory use down on large sites")
+    boolean isStreaming();
+
+    @Option(longName = "include", defaultToNull = true,
+            description = "Exports only these paths or globs, relative to the source directory")
+    List<String> getIncludes();
+
+    @Option(longName = "include-from-stdin",
+            description = "Exports only the paths read from standard input, one per line, for example from a Git hook")
+    boolean isIncludeFromStdin();
+
+    @Option(longName = "explain",
+            description = "Explains why each file is converted, copied or deleted, to track down needless rebuilds")
+    boolean isExplain();
+
+    @Option(longName = "max-parse-time", defaultValue = "2000",
+            description = "Maximum time to parse a Markdown file in, in milliseconds, or 0 for none; defaults to 2000")
+    long getMaxParseTime();
+
+    @Option(longName = "max-document-size", defaultValue = "0",
+            description = "Maximum size of a Markdown file to convert, in kilobytes, or 0 for none; defaults to 0")
+    long getMaxDocumentSize();
+
+    @Option(longName = "fallback-to-text",
+            description = "Converts Markdown files that exceed the maximums to preformatted text, instead of skipping")
+    boolean isFallbackToText();
+
+    @Option(longName = "max-io-rate", defaultValue = "0",
+            description = "Maximum number of megabytes per second to copy and write, or 0 for none; defaults to 0")
+    long getMaxIoRate();
+
+    @Option(longName = "max-io-operations", defaultValue = "0",
+            description = "Maximum number of files per second to copy, delete or write, or 0 for none; defaults to 0")
+    long getMaxIoOperations();
+
+    @Option(longName = "durability", defaultValue = "none",
+            description = "When to sync to disk: none, batched or strict; defaults to none")
+    String getDurability();
+
+    @Option(longName = "copy-strategy", defaultValue = "full",
+            description = "How to copy files: full, transfer, reflink or hardlink; defaults to full")
+    String getCopyStrategy();
+
+    @Option(longName = "stage",
+            description = "Exports to a copy of the target directory first, and then replaces the target with it")
+    boolean isStage();
+
+    @Option(longName = "generations", defaultValue = "2",
+            description = "Number of previous exports to keep when staging, for rollbacks; defaults to 2")
+    int getGenerations();
+
+    @Option(longName = "batch", defaultToNull = true,
+            description = "Runs all exports in this file, one 'source -> target' per line, in a single process")
+    String getBatchFile();
+
+    @Option(longName = "watch",
+            description = "Keeps running after the export, exporting changes in the source directory as they happen")
+    boolean isWatch();
+
+    @Option(longName = "daemon", description = "Runs as a daemon, performing exports on request of clients")
+    boolean isDaemon();
+
+    @Option(longName = "connect", description = "Asks the daemon to perform the export, instead of doing it directly")
+    boolean isConnect();
+
+    @Option(longName = "port", defaultValue = "7493",
+            description = "Local port the daemon listens on, defaults to 7493")
+    int getPort();
+
     @Option(shortName = "v", longName = "verbose", description = "Use verbose logging")
     boolean isVerbose();
 
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.converter.FileConverter;
+import nl.ulso.magisto.io.ExtensionLessPath;
+import nl.ulso.magisto.io.PathEntry;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.*;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+import static nl.ulso.magisto.io.Paths.splitOnExtension;
+
+/**
+ * Selects the part of the source tree to export, for a partial export.
+ * <p>
+ * A selection is a list of patterns. A pattern without wildcards is a path, which selects that path and everything
+ * inside it. A pattern with wildcards is a glob, as supported by {@link java.nio.file.FileSystem#getPathMatcher}. It
+ * selects every path it matches, and everything inside these. Patterns are relative to the source directory.
+ * </p>
+ * <p>
+ * Only the subtrees that patterns can possibly match are walked: those of the directories in front of the first
+ * wildcard. A glob that starts with a wildcard therefore still walks the complete tree. Everything outside a
+ * selection is left alone: it isn't converted or copied, nor deleted from the target.
+ * </p>
+ */
+class Selection {
+
+    static final Selection EVERYTHING = new Selection(Collections.<String>emptyList());
+
+    private static final String WILDCARDS = "*?[{";
+
+    private final List<Path> paths = new ArrayList<>();
+    private final List<PathMatcher> matchers = new ArrayList<>();
+    private final SortedSet<Path> roots = new TreeSet<>();
+
+    private Selection(Collection<String> patterns) {
+        final SortedSet<Path> bases = new TreeSet<>();
+        for (String pattern : patterns) {
+            final String trimmed = pattern.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            final int wildcard = indexOfWildcard(trimmed);
+            if (wildcard == -1) {
+                final Path path = createPath(trimmed).normalize();
+                paths.add(path);
+                bases.add(path);
+            } else {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + trimmed));
+                final int separator = trimmed.lastIndexOf('/', wildcard);
+                bases.add(createPath(separator == -1 ? "" : trimmed.substring(0, separator)).normalize());
+            }
+        }
+        for (Path base : bases) {
+            if (!hasAncestorIn(bases, base)) {
+                roots.add(base);
+            }
+        }
+    }
+
+    /**
+     * @param patterns Paths and globs, relative to the source directory. Blank patterns are ignored; if there's
+     *                 nothing else, nothing is selected. If there are no patterns at all, everything is selected.
+     */
+    static Selection of(Collection<String> patterns) {
+        return patterns != null ? new Selection(patterns) : EVERYTHING;
+    }
+
+    private static int indexOfWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if (WILDCARDS.indexOf(pattern.charAt(i)) != -1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+    The empty path is the ancestor of every other path.
+     */
+    private static boolean hasAncestorIn(SortedSet<Path> paths, Path path) {
+        if (isEmpty(path)) {
+            return false;
+        }
+        if (paths.contains(createPath(""))) {
+            return true;
+        }
+        Path ancestor = path.getParent();
+        while (ancestor != null) {
+            if (paths.contains(ancestor)) {
+                return true;
+            }
+            ancestor = ancestor.getParent();
+        }
+        return false;
+    }
+
+    private static boolean isEmpty(Path path) {
+        return path.toString().isEmpty();
+    }
+
+    boolean isPartial() {
+        return this != EVERYTHING;
+    }
+
+    /**
+     * @return The subtrees to walk, none of which is inside another. The empty path stands for the complete tree.
+     */
+    SortedSet<Path> getRoots() {
+        return Collections.unmodifiableSortedSet(roots);
+    }
+
+    /**
+     * @return {@code true} if the path, or one of its ancestors, is selected.
+     */
+    boolean includes(Path path) {
+        if (!isPartial()) {
+            return true;
+        }
+        for (Path ancestor = path; ancestor != null; ancestor = ancestor.getParent()) {
+            if (paths.contains(ancestor)) {
+                return true;
+            }
+            for (PathMatcher matcher : matchers) {
+                if (matcher.matches(ancestor)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A target file is selected if its source is. Its source can't be known from the target alone, but every possible
+     * source file name can be tried.
+     *
+     * @return {@code true} if the target path, or one of its ancestors, is selected.
+     */
+    boolean includesTarget(Path path, FileConverter fileConverter) {
+        if (includes(path)) {
+            return true;
+        }
+        final ExtensionLessPath extensionLessPath = splitOnExtension(path);
+        if (!fileConverter.getTargetExtension().equalsIgnoreCase(extensionLessPath.getOriginalExtension())) {
+            return false;
+        }
+        final Path pathWithoutExtension = extensionLessPath.getPathWithoutExtension();
+        for (String sourceExtension : fileConverter.getSourceExtensions()) {
+            if (includes(pathWithoutExtension.resolveSibling(
+                    pathWithoutExtension.getFileName() + "." + sourceExtension))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Selects the source or static entries to export. Directories that lead up to a selected entry are kept too,
+     * so that they are created in the target if needed.
+     */
+    List<PathEntry> select(List<PathEntry> entries) {
+        return select(entries, null);
+    }
+
+    /**
+     * Selects the target entries that belong to the selected source entries. Directories that lead up to a selected
+     * entry are kept too, so that they aren't deleted.
+     */
+    List<PathEntry> selectTargets(List<PathEntry> entries, FileConverter fileConverter) {
+        return select(entries, fileConverter);
+    }
+
+    private List<PathEntry> select(List<PathEntry> entries, FileConverter fileConverter) {
+        if (!isPartial()) {
+            return entries;
+        }
+        final Set<Path> selected = new HashSet<>();
+        for (PathEntry entry : entries) {
+            final Path path = entry.getPath();
+            if (fileConverter != null ? includesTarget(path, fileConverter) : includes(path)) {
+                for (Path ancestor = path; ancestor != null && selected.add(ancestor); ) {
+                    ancestor = ancestor.getParent();
+                }
+            }
+        }
+        final List<PathEntry> result = new ArrayList<>(selected.size());
+        for (PathEntry entry : entries) {
+            if (selected.contains(entry.getPath())) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+}
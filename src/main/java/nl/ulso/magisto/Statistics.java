@@ -19,8 +19,12 @@ package nl.ulso.magisto;
 import nl.ulso.magisto.action.Action;
 import nl.ulso.magisto.action.ActionType;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,9 +33,26 @@ import java.util.logging.Logger;
  */
 public class Statistics {
 
+    private static final int SLOWEST_FILES_LIMIT = 5;
+
     private final Map<ActionType, Integer> actionsPerformed = new HashMap<>();
+    private final List<SlowFile> slowestFiles = new ArrayList<>(SLOWEST_FILES_LIMIT + 1);
     private long start = -1;
     private long end = -1;
+    private long throttledTimeInNanos = 0;
+    private long syncTimeInNanos = 0;
+
+    public Statistics() {
+    }
+
+    /*
+    Restores the statistics of a run that was performed elsewhere, by the daemon.
+     */
+    Statistics(long durationInMillis, Map<ActionType, Integer> actionsPerformed) {
+        this.start = 0;
+        this.end = durationInMillis;
+        this.actionsPerformed.putAll(actionsPerformed);
+    }
 
     public Statistics begin() {
         if (start != -1) {
@@ -53,19 +74,65 @@ public class Statistics {
     }
 
     public Statistics registerActionPerformed(Action action) {
+        return registerActionsPerformed(action.getActionType(), 1);
+    }
+
+    /*
+    Registers actions that were counted rather than performed, like skips when streaming.
+     */
+    public Statistics registerActionsPerformed(ActionType actionType, int count) {
         if (start == -1 || end != -1) {
             throw new IllegalStateException("registerActionPerformed() must be called after begin() and before end()!");
         }
-        final ActionType actionType = action.getActionType();
+        if (count == 0) {
+            return this;
+        }
         if (!actionsPerformed.containsKey(actionType)) {
-            actionsPerformed.put(actionType, 1);
+            actionsPerformed.put(actionType, count);
         } else {
-            final Integer count = actionsPerformed.get(actionType);
-            actionsPerformed.put(actionType, count + 1);
+            final Integer previousCount = actionsPerformed.get(actionType);
+            actionsPerformed.put(actionType, previousCount + count);
         }
         return this;
     }
 
+    /*
+    Keeps track of the files that took the longest to convert or copy. Only a handful are kept; inserting into a
+    short sorted list is cheap enough.
+     */
+    public Statistics registerDuration(Path path, long durationInNanos) {
+        if (slowestFiles.size() == SLOWEST_FILES_LIMIT
+                && slowestFiles.get(SLOWEST_FILES_LIMIT - 1).durationInNanos >= durationInNanos) {
+            return this;
+        }
+        int index = 0;
+        while (index < slowestFiles.size() && slowestFiles.get(index).durationInNanos >= durationInNanos) {
+            index++;
+        }
+        slowestFiles.add(index, new SlowFile(path, durationInNanos));
+        if (slowestFiles.size() > SLOWEST_FILES_LIMIT) {
+            slowestFiles.remove(SLOWEST_FILES_LIMIT);
+        }
+        return this;
+    }
+
+    /*
+    Registers the time spent waiting for file system access that was throttled, summed over all threads. With more
+    than one worker this can be longer than the run itself.
+     */
+    public Statistics registerThrottledTime(long durationInNanos) {
+        throttledTimeInNanos += durationInNanos;
+        return this;
+    }
+
+    /*
+    Registers the time spent syncing files and directories to disk, summed over all threads.
+     */
+    public Statistics registerSyncTime(long durationInNanos) {
+        syncTimeInNanos += durationInNanos;
+        return this;
+    }
+
     public void log() {
         if (end == -1) {
             throw new IllegalStateException("end() must be called before print() is called!");
@@ -79,6 +146,47 @@ public class Statistics {
             logger.log(Level.INFO, String.format(
                     "- %s %d %s file(s)", actionType.getPastTenseVerb(), entry.getValue(), actionType.getFileType()));
         }
+        if (throttledTimeInNanos > 0) {
+            logger.log(Level.INFO, String.format("I held back on disk access for %d milliseconds, as throttled.",
+                    TimeUnit.NANOSECONDS.toMillis(throttledTimeInNanos)));
+        }
+        if (syncTimeInNanos > 0) {
+            logger.log(Level.INFO, String.format("I spent %d milliseconds making sure everything is safely on disk.",
+                    TimeUnit.NANOSECONDS.toMillis(syncTimeInNanos)));
+        }
+        if (!slowestFiles.isEmpty()) {
+            logger.log(Level.INFO, "These files took me the longest:");
+            for (SlowFile slowFile : slowestFiles) {
+                logger.log(Level.INFO, String.format("- %s (%d milliseconds)", slowFile.path,
+                        TimeUnit.NANOSECONDS.toMillis(slowFile.durationInNanos)));
+            }
+        }
+    }
+
+    public long getDurationInMillis() {
+        if (end == -1) {
+            throw new IllegalStateException("end() must be called before getDurationInMillis() is called!");
+        }
+        return end - start;
+    }
+
+    public long getThrottledTimeInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledTimeInNanos);
+    }
+
+    public long getSyncTimeInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(syncTimeInNanos);
+    }
+
+    /**
+     * @return The paths of the files that took the longest to convert or copy, slowest first.
+     */
+    public List<Path> getSlowestFiles() {
+        final List<Path> paths = new ArrayList<>(slowestFiles.size());
+        for (SlowFile slowFile : slowestFiles) {
+            paths.add(slowFile.path);
+        }
+        return paths;
     }
 
     public int countFor(ActionType actionType) {
@@ -98,4 +206,14 @@ public class Statistics {
         }
         return builder.toString();
     }
+
+    private static final class SlowFile {
+        private final Path path;
+        private final long durationInNanos;
+
+        private SlowFile(Path path, long durationInNanos) {
+            this.path = path;
+            this.durationInNanos = durationInNanos;
+        }
+    }
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Something that runs for a while, and that can be asked to stop early.
+ */
+interface Stoppable {
+
+    /**
+     * Stops what's running as soon as possible: work in progress is finished, but no new work is started. Nothing
+     * can be started anymore afterwards either.
+     *
+     * @return {@code true} if everything stopped within the timeout, {@code false} otherwise.
+     */
+    boolean stop(long timeout, TimeUnit unit) throws InterruptedException;
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.FileSystem;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+
+/**
+ * Reads and writes the simple text files that Magisto keeps in the target directory, like the
+ * {@value BuildManifest#MANIFEST_FILE}: one record per line, with tab-separated fields.
+ * <p>
+ * Paths are written with forward slashes between their names, whatever the platform. A name can hold any character
+ * but a slash, including tabs and line breaks. Those are escaped with a backslash, as is the backslash itself, so
+ * that every path takes up exactly one field on one line.
+ * </p>
+ * <p>
+ * These files only save time on the next export. One that can't be understood is ignored as a whole, with a warning,
+ * and the next export does without it.
+ * </p>
+ */
+final class TabSeparatedFile {
+
+    private static final String SEPARATOR = "\t";
+    private static final String PATH_SEPARATOR = "/";
+    private static final char ESCAPE = '\\';
+
+    private TabSeparatedFile() {
+    }
+
+    /**
+     * Reads the fields of a single line.
+     */
+    interface LineReader {
+        /**
+         * @return {@code true} to read the next line, {@code false} to stop reading because the file is of no use.
+         * @throws InvalidLineException If the line can't be understood.
+         */
+        boolean readLine(String[] fields) throws InvalidLineException;
+    }
+
+    static final class InvalidLineException extends Exception {
+    }
+
+    /**
+     * Reads a file line by line, up to the end, until the line reader stops, or until a line can't be understood.
+     *
+     * @param description What the file is, for the warning about an invalid line.
+     * @return {@code true} if all lines were read, {@code false} if the file should be ignored.
+     */
+    static boolean read(FileSystem fileSystem, Path file, String description, LineReader lineReader)
+            throws IOException {
+        try (final BufferedReader reader = fileSystem.newBufferedReaderForTextFile(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    if (!lineReader.readLine(line.split(SEPARATOR, -1))) {
+                        return false;
+                    }
+                } catch (InvalidLineException | NumberFormatException e) {
+                    Logger.getGlobal().log(Level.WARNING, String.format(
+                            "Ignoring %s; it has an invalid line: %s", description, line));
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static void writeLine(BufferedWriter writer, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(SEPARATOR);
+            }
+            writer.write(fields[i]);
+        }
+        writer.newLine();
+    }
+
+    static String formatPath(Path path) {
+        final StringBuilder builder = new StringBuilder();
+        for (Path name : path) {
+            if (builder.length() > 0) {
+                builder.append(PATH_SEPARATOR);
+            }
+            escape(name.toString(), builder);
+        }
+        return builder.toString();
+    }
+
+    private static void escape(String name, StringBuilder builder) {
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            switch (c) {
+                case ESCAPE:
+                    builder.append(ESCAPE).append(ESCAPE);
+                    break;
+                case '\t':
+                    builder.append(ESCAPE).append('t');
+                    break;
+                case '\n':
+                    builder.append(ESCAPE).append('n');
+                    break;
+                case '\r':
+                    builder.append(ESCAPE).append('r');
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+
+    static Path parsePath(String path) throws InvalidLineException {
+        final String[] names = path.split(PATH_SEPARATOR);
+        final String[] more = new String[names.length - 1];
+        for (int i = 0; i < more.length; i++) {
+            more[i] = unescape(names[i + 1]);
+        }
+        return createPath(unescape(names[0]), more);
+    }
+
+    private static String unescape(String name) throws InvalidLineException {
+        if (name.indexOf(ESCAPE) == -1) {
+            return name;
+        }
+        final StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c != ESCAPE) {
+                builder.append(c);
+                continue;
+            }
+            if (++i == name.length()) {
+                throw new InvalidLineException();
+            }
+            switch (name.charAt(i)) {
+                case ESCAPE:
+                    builder.append(ESCAPE);
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                default:
+                    throw new InvalidLineException();
+            }
+        }
+        return builder.toString();
+    }
+}
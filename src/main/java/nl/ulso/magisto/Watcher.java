@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static nl.ulso.magisto.io.Paths.createPath;
+
+/**
+ * Watches the source directory for changes, and runs Magisto on every batch of changes, until interrupted.
+ * <p>
+ * Changes are debounced: a batch is only handed to Magisto once no new changes came in for a short while, or when the
+ * batch has been collecting changes for too long. This turns something like a {@code git checkout} that touches
+ * thousands of files into a single run.
+ * </p>
+ */
+class Watcher {
+
+    private static final long QUIET_PERIOD_IN_MILLIS = 250;
+    private static final long MAXIMUM_DELAY_IN_MILLIS = 5000;
+
+    private final Magisto magisto;
+    private final String sourceDirectory;
+    private final String targetDirectory;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    Watcher(Magisto magisto, String sourceDirectory, String targetDirectory) {
+        this.magisto = magisto;
+        this.sourceDirectory = sourceDirectory;
+        this.targetDirectory = targetDirectory;
+    }
+
+    void watch() throws IOException, InterruptedException {
+        final Path sourceRoot = createPath(sourceDirectory).toRealPath();
+        try (final WatchService watchService = sourceRoot.getFileSystem().newWatchService()) {
+            register(watchService, sourceRoot, sourceRoot);
+            Logger.getGlobal().log(Level.INFO, String.format("Watching '%s' for changes...", sourceRoot));
+            while (!Thread.currentThread().isInterrupted()) {
+                final ChangeSet changes = awaitChanges(watchService, sourceRoot);
+                if (changes.isEmpty()) {
+                    continue;
+                }
+                try {
+                    magisto.run(sourceDirectory, targetDirectory, changes).log();
+                } catch (InterruptedIOException e) {
+                    return;
+                } catch (IOException e) {
+                    Logger.getGlobal().log(Level.SEVERE, String.format(
+                            "Could not export the changes. I'll try again on the next change. The cause: %s",
+                            e.getMessage()), e);
+                }
+            }
+        }
+    }
+
+    /*
+    Registers a directory and all its subdirectories with the watch service. Hidden directories are skipped, just
+    like the export skips them, except for the static content directory in the root.
+     */
+    private void register(final WatchService watchService, final Path sourceRoot, Path directory)
+            throws IOException {
+        final Path staticRoot = sourceRoot.resolve(Magisto.STATIC_CONTENT_DIRECTORY);
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attributes) throws IOException {
+                if (!path.equals(sourceRoot) && !path.equals(staticRoot) && Files.isHidden(path)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                directories.put(path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private ChangeSet awaitChanges(WatchService watchService, Path sourceRoot)
+            throws IOException, InterruptedException {
+        final ChangeSet changes = new ChangeSet(sourceRoot, Magisto.STATIC_CONTENT_DIRECTORY);
+        WatchKey key = watchService.take();
+        final long deadline = System.currentTimeMillis() + MAXIMUM_DELAY_IN_MILLIS;
+        while (key != null) {
+            collectChanges(watchService, sourceRoot, key, changes);
+            final long timeout = Math.min(QUIET_PERIOD_IN_MILLIS, deadline - System.currentTimeMillis());
+            key = timeout > 0 ? watchService.poll(timeout, TimeUnit.MILLISECONDS) : null;
+        }
+        return changes;
+    }
+
+    private void collectChanges(WatchService watchService, Path sourceRoot, WatchKey key, ChangeSet changes)
+            throws IOException {
+        final Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || directory == null) {
+                changes.addEverything();
+                continue;
+            }
+            final Path path = directory.resolve((Path) event.context());
+            changes.add(path);
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                register(watchService, sourceRoot, path);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+}
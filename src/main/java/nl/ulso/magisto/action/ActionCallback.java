@@ -23,5 +23,14 @@ package nl.ulso.magisto.action;
  */
 public interface ActionCallback {
 
-    void actionPerformed(Action action);
+    /**
+     * @param durationInNanos Wall clock time it took to perform the action.
+     */
+    void actionPerformed(Action action, long durationInNanos);
+
+    /**
+     * Called instead of {@link #actionPerformed(Action, long)} for a conversion that turned out to be skipped. Nothing
+     * was written for it; see {@link nl.ulso.magisto.converter.ConversionSkippedException}.
+     */
+    void actionSkipped(Action action);
 }
@@ -20,12 +20,14 @@ import java.util.Comparator;
 
 /**
  * Comparator for {@link Action}s. It puts actions in order of type. If actions are of the same type, they are ordered
- * lexicographically on path, except for {@link DeleteTargetAction}s. These are ordered in reverse.
+ * lexicographically on path, except for {@link DeleteTargetAction}s. These are ordered in reverse. Moves come before
+ * deletions, so that a file is moved out of a directory before that directory is deleted.
  */
 class ActionComparator implements Comparator<Action> {
 
     private final Class[] actionClasses = new Class[]{
             SkipSourceAction.class,
+            MoveTargetAction.class,
             DeleteTargetAction.class,
             CopySourceAction.class,
             ConvertSourceAction.class,
@@ -36,4 +36,8 @@ public interface ActionFactory {
     Action convertSource(Path path, FileConverter fileConverter);
 
     Action deleteTarget(Path path);
+
+    Action deleteTargetTree(Path path);
+
+    Action moveTarget(Path fromPath, Path toPath);
 }
@@ -16,15 +16,29 @@
 
 package nl.ulso.magisto.action;
 
+import nl.ulso.magisto.converter.ConversionSkippedException;
 import nl.ulso.magisto.converter.FileConverter;
 import nl.ulso.magisto.io.FileSystem;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Maintains a set of actions to be performed. On each path at most one action can be performed. Additionally the
@@ -38,18 +52,64 @@ import java.util.TreeSet;
  * ActionCallback)} method.</li>
  * </ol>
  * <p>
- * Once all actions are performed, the internal set of actions is depleted.
+ * Once all actions are performed, the internal set of actions is depleted, and new actions can be added. Worker
+ * threads are kept until the action set is closed.
+ * </p>
+ * <p>
+ * With more than one worker, actions are performed concurrently by a {@link ParallelActionExecutor}, which keeps the
+ * ordering constraints of the {@link ActionComparator} that actually matter. Conversions are performed last, by a
+ * {@link ConversionPipeline} that reads, renders and writes different files at the same time.
+ * </p>
+ * <p>
+ * The worker threads can be shared between action sets that are performed at the same time, for example when
+ * exporting many sites in one go. Conversions are then performed by the {@code ParallelActionExecutor} as well: the
+ * stages of a pipeline wait for each other, so they can't share a limited number of threads with anything else.
  * </p>
  */
-public class ActionSet {
+public class ActionSet implements Closeable {
 
     private static final ActionComparator ACTION_COMPARATOR = new ActionComparator();
 
     private final Map<Path, Action> actionMap;
     private final ActionFactory actionFactory;
+    private final int workers;
+    private final CostEstimator costEstimator;
+    private final StopSignal stopSignal;
+    private final Executor sharedExecutor;
+    private ExecutorService executor;
+    private ConversionPipeline pipeline;
 
     public ActionSet(ActionFactory actionFactory) {
+        this(actionFactory, 1);
+    }
+
+    public ActionSet(ActionFactory actionFactory, int workers) {
+        this(actionFactory, workers, null, new StopSignal());
+    }
+
+    /**
+     * @param costEstimator Estimates the cost of actions, so that with multiple workers the most expensive actions
+     *                      can be started first; may be {@code null}.
+     * @param stopSignal    Signal to stop performing actions with.
+     */
+    public ActionSet(ActionFactory actionFactory, int workers, CostEstimator costEstimator, StopSignal stopSignal) {
+        this(actionFactory, workers, costEstimator, stopSignal, null);
+    }
+
+    /**
+     * @param sharedExecutor Worker threads to share with other action sets; if {@code null}, the action set starts
+     *                       its own threads when it first needs them, and keeps them until it's closed.
+     */
+    public ActionSet(ActionFactory actionFactory, int workers, CostEstimator costEstimator, StopSignal stopSignal,
+                     Executor sharedExecutor) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required, not " + workers);
+        }
         this.actionFactory = actionFactory;
+        this.workers = workers;
+        this.costEstimator = costEstimator;
+        this.stopSignal = stopSignal;
+        this.sharedExecutor = sharedExecutor;
         actionMap = new HashMap<>();
     }
 
@@ -77,20 +137,157 @@ public class ActionSet {
         add(actionFactory.deleteTarget(path));
     }
 
+    public void addDeleteTargetTreeAction(Path path) {
+        add(actionFactory.deleteTargetTree(path));
+    }
+
+    public void addMoveTargetAction(Path fromPath, Path toPath) {
+        add(actionFactory.moveTarget(fromPath, toPath));
+    }
+
     /**
      * Performs all actions in the list in the right order, calling the callback after each action is performed.
      * Afterwards all actions all cleared from the list, ensuring that the actions in a list can be performed only
      * once.
+     * <p>
+     * With multiple workers the order in which the callback is called is no longer defined, but the callback is never
+     * called concurrently.
+     * </p>
+     *
+     * @throws InterruptedIOException If the actions were stopped by the {@link StopSignal} before all were performed.
      */
     public void performAll(FileSystem fileSystem, Path sourceRoot, Path targetRoot,
-                           ActionCallback callback) throws IOException {
+                           final ActionCallback callback) throws IOException {
         final SortedSet<Action> actions = new TreeSet<>(ACTION_COMPARATOR);
         actions.addAll(actionMap.values());
+        final ActionCallback blockingCallback = new ActionCallback() {
+            @Override
+            public void actionPerformed(Action action, long durationInNanos) {
+                callback.actionPerformed(new BlockedActionWrapper(action), durationInNanos);
+            }
+
+            @Override
+            public void actionSkipped(Action action) {
+                callback.actionSkipped(new BlockedActionWrapper(action));
+            }
+        };
+        try {
+            if (workers == 1) {
+                for (Action action : actions) {
+                    if (stopSignal.isStopped()) {
+                        throw stopped();
+                    }
+                    final long start = System.nanoTime();
+                    try {
+                        action.perform(fileSystem, sourceRoot, targetRoot);
+                    } catch (ConversionSkippedException e) {
+                        blockingCallback.actionSkipped(action);
+                        continue;
+                    }
+                    blockingCallback.actionPerformed(action, System.nanoTime() - start);
+                }
+            } else {
+                performAllInParallel(actions, fileSystem, sourceRoot, targetRoot, blockingCallback);
+            }
+        } finally {
+            actions.clear();
+            actionMap.clear();
+        }
+    }
+
+    /*
+    Conversions come last, through their own pipeline. Nothing depends on a conversion, and the only thing a
+    conversion depends on is its parent directory, which is created by the actions that come before.
+
+    If the costs of actions can be estimated, the most expensive ones are started first. A single slow page that's
+    started last would otherwise keep one worker busy long after all others are done. Dependencies between actions are
+    still respected; the order only decides which of the actions that are ready to go goes first.
+
+    With shared worker threads there's no pipeline; see above.
+     */
+    private void performAllInParallel(Collection<Action> actions, FileSystem fileSystem, Path sourceRoot,
+                                      Path targetRoot, ActionCallback callback) throws IOException {
+        if (sharedExecutor != null) {
+            final List<Action> all = new ArrayList<>(actions);
+            if (costEstimator != null) {
+                sortOnCostDescending(all);
+            }
+            new ParallelActionExecutor(workers, sharedExecutor).performAll(all, fileSystem, sourceRoot, targetRoot,
+                    callback, stopSignal);
+            if (stopSignal.isStopped()) {
+                throw stopped();
+            }
+            return;
+        }
+        final List<Action> conversions = new ArrayList<>();
+        final List<Action> others = new ArrayList<>();
         for (Action action : actions) {
-            action.perform(fileSystem, sourceRoot, targetRoot);
-            callback.actionPerformed(new BlockedActionWrapper(action));
+            if (action.getActionType() == ActionType.CONVERT_SOURCE) {
+                conversions.add(action);
+            } else {
+                others.add(action);
+            }
+        }
+        if (costEstimator != null) {
+            sortOnCostDescending(others);
+            sortOnCostDescending(conversions);
+        }
+        new ParallelActionExecutor(workers, getExecutor()).performAll(others, fileSystem, sourceRoot, targetRoot,
+                callback, stopSignal);
+        pipeline.performAll(conversions, fileSystem, sourceRoot, targetRoot, callback, stopSignal);
+        if (stopSignal.isStopped()) {
+            throw stopped();
+        }
+    }
+
+    /**
+     * Runs a task on the worker threads of this action set, so that it can be done while the current thread does
+     * something else. With a single worker the task is run right away, on the current thread.
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        final FutureTask<T> future = new FutureTask<>(task);
+        if (workers == 1) {
+            future.run();
+        } else {
+            (sharedExecutor != null ? sharedExecutor : getExecutor()).execute(future);
         }
-        actions.clear();
+        return future;
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(workers);
+            pipeline = new ConversionPipeline(workers);
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the worker threads of this action set, if it has any of its own. If it performs actions after all, it
+     * starts new ones.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            pipeline.close();
+            executor = null;
+            pipeline = null;
+        }
+    }
+
+    static InterruptedIOException stopped() {
+        return new InterruptedIOException("Stopped before all actions were performed");
+    }
+
+    private void sortOnCostDescending(List<Action> actions) {
+        Collections.sort(actions, new Comparator<Action>() {
+            @Override
+            public int compare(Action action1, Action action2) {
+                return Long.compare(costEstimator.estimateCost(action2.getPath()),
+                        costEstimator.estimateCost(action1.getPath()));
+            }
+        });
     }
 
     /**
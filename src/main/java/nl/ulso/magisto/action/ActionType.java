@@ -26,6 +26,7 @@ public enum ActionType {
     COPY_SOURCE("Copied", "source"),
     COPY_STATIC("Copied", "static"),
     DELETE_TARGET("Deleted", "target"),
+    MOVE_TARGET("Moved", "target"),
     CONVERT_SOURCE("Converted", "source");
 
     private final String pastTenseVerb;
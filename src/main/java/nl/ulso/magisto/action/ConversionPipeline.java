@@ -0,0 +1,325 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto.action;
+
+import nl.ulso.magisto.converter.Conversion;
+import nl.ulso.magisto.converter.ConversionSkippedException;
+import nl.ulso.magisto.io.FileSystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Performs conversions in three stages - read, render and write - that run concurrently, each on its own threads:
+ * <ul>
+ * <li>The read and write stages mostly wait for the disk, so they each get as many threads as there are workers.</li>
+ * <li>The render stage keeps the processor busy, so it never gets more threads than there are processors.</li>
+ * </ul>
+ * <p>
+ * The stages are connected by bounded queues. If a stage can't keep up, the stages before it block until it does,
+ * so that the number of documents held in memory stays limited, however large the site.
+ * </p>
+ * <p>
+ * Actions that aren't conversions are performed as a whole in the render stage. The callback is never called
+ * concurrently, so it doesn't need to be thread-safe itself. Once the stop signal is given, no new actions are read,
+ * but the ones already read are rendered and written.
+ * </p>
+ * <p>
+ * The pipeline keeps its threads from one {@link #performAll} to the next, until it's closed.
+ * </p>
+ */
+class ConversionPipeline implements Closeable {
+
+    private static final Item END_OF_STAGE = new Item(null, null, 0);
+
+    private final int ioThreads;
+    private final int renderThreads;
+    private final int queueCapacity;
+    private ExecutorService executor;
+
+    ConversionPipeline(int workers) {
+        this(workers, Math.min(workers, Runtime.getRuntime().availableProcessors()));
+    }
+
+    ConversionPipeline(int workers, int renderThreads) {
+        if (workers < 1 || renderThreads < 1) {
+            throw new IllegalArgumentException("At least one worker is required, not " + workers);
+        }
+        this.ioThreads = workers;
+        this.renderThreads = renderThreads;
+        this.queueCapacity = workers;
+    }
+
+    /**
+     * @param actions Actions to perform; none of them may depend on any other.
+     */
+    void performAll(Collection<Action> actions, FileSystem fileSystem, Path sourceRoot, Path targetRoot,
+                    ActionCallback callback, StopSignal stopSignal) throws IOException {
+        if (actions.isEmpty()) {
+            return;
+        }
+        new Run(getExecutor(), fileSystem, sourceRoot, targetRoot, callback, stopSignal, actions.iterator())
+                .perform();
+    }
+
+    /*
+    The threads are started when they're first needed. Every run waits for all of its threads to finish, so the next
+    run has them all to itself.
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(2 * ioThreads + renderThreads);
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /*
+    The duration is the time spent in the stages, not the time spent waiting in between. It's only ever touched by one
+    thread at a time; the queues take care of the rest.
+     */
+    private static final class Item {
+        private final Action action;
+        private final Conversion conversion;
+        private long durationInNanos;
+
+        private Item(Action action, Conversion conversion, long durationInNanos) {
+            this.action = action;
+            this.conversion = conversion;
+            this.durationInNanos = durationInNanos;
+        }
+    }
+
+    /*
+    A single pass over all actions. Each stage knows how many threads it runs on; the last thread of a stage to run
+    out of work tells every thread of the next stage that it's done, by putting END_OF_STAGE on its queue once for
+    each of them.
+
+    If anything fails, the readers stop taking new actions, and the other stages drain their queues without doing
+    any work, so that no thread ends up blocked on a full queue. The first failure is rethrown once all threads are
+    done.
+     */
+    private final class Run {
+        private final ExecutorService executor;
+        private final FileSystem fileSystem;
+        private final Path sourceRoot;
+        private final Path targetRoot;
+        private final ActionCallback callback;
+        private final StopSignal stopSignal;
+        private final Iterator<Action> actions;
+        private final BlockingQueue<Item> renderQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<Item> writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicInteger activeReaders = new AtomicInteger(ioThreads);
+        private final AtomicInteger activeRenderers = new AtomicInteger(renderThreads);
+        private final CountDownLatch done = new CountDownLatch(2 * ioThreads + renderThreads);
+        private volatile Throwable failure;
+
+        private Run(ExecutorService executor, FileSystem fileSystem, Path sourceRoot, Path targetRoot,
+                    ActionCallback callback, StopSignal stopSignal, Iterator<Action> actions) {
+            this.executor = executor;
+            this.fileSystem = fileSystem;
+            this.sourceRoot = sourceRoot;
+            this.targetRoot = targetRoot;
+            this.callback = callback;
+            this.stopSignal = stopSignal;
+            this.actions = actions;
+        }
+
+        private void perform() throws IOException {
+            for (int i = 0; i < ioThreads; i++) {
+                start(new Stage() {
+                    @Override
+                    public void run() throws Exception {
+                        read();
+                    }
+                });
+                start(new Stage() {
+                    @Override
+                    public void run() throws Exception {
+                        write();
+                    }
+                });
+            }
+            for (int i = 0; i < renderThreads; i++) {
+                start(new Stage() {
+                    @Override
+                    public void run() throws Exception {
+                        render();
+                    }
+                });
+            }
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for conversions to complete", e);
+            }
+            rethrowFailure();
+        }
+
+        private void start(final Stage stage) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stage.run();
+                    } catch (InterruptedException e) {
+                        registerFailure(new IOException("Interrupted while converting", e));
+                    } catch (Throwable t) {
+                        registerFailure(t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        private void read() throws InterruptedException {
+            try {
+                Action action;
+                while ((action = nextAction()) != null) {
+                    final long start = System.nanoTime();
+                    Conversion conversion = null;
+                    try {
+                        if (action instanceof ConvertSourceAction) {
+                            conversion = ((ConvertSourceAction) action).createConversion(fileSystem, sourceRoot,
+                                    targetRoot);
+                            conversion.read();
+                        }
+                    } catch (Throwable t) {
+                        registerFailure(t);
+                        break;
+                    }
+                    renderQueue.put(new Item(action, conversion, System.nanoTime() - start));
+                }
+            } finally {
+                if (activeReaders.decrementAndGet() == 0) {
+                    endStage(renderQueue, renderThreads);
+                }
+            }
+        }
+
+        private void render() throws InterruptedException {
+            try {
+                Item item;
+                while ((item = renderQueue.take()) != END_OF_STAGE) {
+                    if (failure != null) {
+                        continue;
+                    }
+                    final long start = System.nanoTime();
+                    try {
+                        if (item.conversion != null) {
+                            item.conversion.render();
+                        } else {
+                            item.action.perform(fileSystem, sourceRoot, targetRoot);
+                        }
+                        item.durationInNanos += System.nanoTime() - start;
+                    } catch (Throwable t) {
+                        registerFailure(t);
+                        continue;
+                    }
+                    writeQueue.put(item);
+                }
+            } finally {
+                if (activeRenderers.decrementAndGet() == 0) {
+                    endStage(writeQueue, ioThreads);
+                }
+            }
+        }
+
+        private void write() throws InterruptedException {
+            Item item;
+            while ((item = writeQueue.take()) != END_OF_STAGE) {
+                if (failure != null) {
+                    continue;
+                }
+                try {
+                    final long start = System.nanoTime();
+                    if (item.conversion != null) {
+                        item.conversion.write();
+                    }
+                    item.durationInNanos += System.nanoTime() - start;
+                    synchronized (callback) {
+                        callback.actionPerformed(item.action, item.durationInNanos);
+                    }
+                } catch (ConversionSkippedException e) {
+                    synchronized (callback) {
+                        callback.actionSkipped(item.action);
+                    }
+                } catch (Throwable t) {
+                    registerFailure(t);
+                }
+            }
+        }
+
+        private void endStage(BlockingQueue<Item> queue, int threads) throws InterruptedException {
+            for (int i = 0; i < threads; i++) {
+                queue.put(END_OF_STAGE);
+            }
+        }
+
+        private Action nextAction() {
+            synchronized (actions) {
+                if (failure != null || stopSignal.isStopped() || !actions.hasNext()) {
+                    return null;
+                }
+                return actions.next();
+            }
+        }
+
+        private synchronized void registerFailure(Throwable t) {
+            if (failure == null) {
+                failure = t;
+            }
+        }
+
+        private void rethrowFailure() throws IOException {
+            if (failure == null) {
+                return;
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw new IOException(failure);
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+}
@@ -16,6 +16,7 @@
 
 package nl.ulso.magisto.action;
 
+import nl.ulso.magisto.converter.Conversion;
 import nl.ulso.magisto.converter.FileConverter;
 import nl.ulso.magisto.io.FileSystem;
 
@@ -45,4 +46,8 @@ class ConvertSourceAction extends AbstractAction {
     public void perform(FileSystem fileSystem, Path sourceRoot, Path targetRoot) throws IOException {
         fileConverter.convert(fileSystem, sourceRoot, targetRoot, getPath());
     }
+
+    Conversion createConversion(FileSystem fileSystem, Path sourceRoot, Path targetRoot) {
+        return fileConverter.createConversion(fileSystem, sourceRoot, targetRoot, getPath());
+    }
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto.action;
+
+import java.nio.file.Path;
+
+/**
+ * Estimates how expensive it is to perform the action on a path, so that the most expensive actions can be started
+ * first.
+ *
+ * @see ActionSet
+ */
+public interface CostEstimator {
+
+    /**
+     * @return The estimated cost of the action on the path, in any unit, as long as it's the same for all paths; 0 if
+     * there's no estimate.
+     */
+    long estimateCost(Path path);
+}
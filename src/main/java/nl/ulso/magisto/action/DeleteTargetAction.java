@@ -25,12 +25,23 @@ import static nl.ulso.magisto.action.ActionCategory.SOURCE;
 import static nl.ulso.magisto.action.ActionType.DELETE_TARGET;
 
 /**
- * Deletes a file or directory from the target root
+ * Deletes a file or directory from the target root. A whole subtree is deleted in one go, which is a lot faster than
+ * deleting everything in it one action at a time.
  */
 class DeleteTargetAction extends AbstractAction {
 
+    private final boolean tree;
+
     DeleteTargetAction(Path path) {
+        this(path, false);
+    }
+
+    /**
+     * @param tree Whether to delete everything inside the directory at the path too.
+     */
+    DeleteTargetAction(Path path, boolean tree) {
         super(path, SOURCE);
+        this.tree = tree;
     }
 
     @Override
@@ -40,6 +51,10 @@ class DeleteTargetAction extends AbstractAction {
 
     @Override
     public void perform(FileSystem fileSystem, Path sourceRoot, Path targetRoot) throws IOException {
-        fileSystem.delete(targetRoot, getPath());
+        if (tree) {
+            fileSystem.deleteTree(targetRoot, getPath());
+        } else {
+            fileSystem.delete(targetRoot, getPath());
+        }
     }
 }
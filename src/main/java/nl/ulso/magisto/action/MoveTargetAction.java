@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.action;
+
+import nl.ulso.magisto.io.FileSystem;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static nl.ulso.magisto.action.ActionCategory.SOURCE;
+import static nl.ulso.magisto.action.ActionType.MOVE_TARGET;
+import static nl.ulso.magisto.io.Paths.requireAbsolutePath;
+import static nl.ulso.magisto.io.Paths.requireRelativePath;
+
+/**
+ * Moves a file within the target root to the path of a source file with the same content, instead of deleting it and
+ * copying the source file.
+ */
+class MoveTargetAction extends AbstractAction {
+
+    private final Path fromPath;
+
+    MoveTargetAction(Path fromPath, Path path) {
+        super(path, SOURCE);
+        this.fromPath = requireRelativePath(fromPath);
+    }
+
+    @Override
+    public ActionType getActionType() {
+        return MOVE_TARGET;
+    }
+
+    @Override
+    public void perform(FileSystem fileSystem, Path sourceRoot, Path targetRoot) throws IOException {
+        fileSystem.move(requireAbsolutePath(targetRoot), fromPath, getPath());
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.action;
+
+import nl.ulso.magisto.converter.ConversionSkippedException;
+import nl.ulso.magisto.io.FileSystem;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static nl.ulso.magisto.action.ActionType.DELETE_TARGET;
+import static nl.ulso.magisto.action.ActionType.MOVE_TARGET;
+
+/**
+ * Performs actions on a pool of worker threads, while keeping the ordering constraints that the
+ * {@link ActionComparator} encodes for sequential execution:
+ * <ul>
+ * <li>All moves are performed before anything else, and all deletions right after.</li>
+ * <li>A directory is deleted only after everything inside it has been deleted.</li>
+ * <li>Any other action on a path is performed only after the action on its parent directory, if there is one.</li>
+ * </ul>
+ * <p>
+ * Actions that don't depend on each other run concurrently. The callback is never called concurrently, so it doesn't
+ * need to be thread-safe itself. Once the stop signal is given, no new actions are started, but the actions in
+ * progress are finished.
+ * </p>
+ * <p>
+ * The worker threads can be shared with other executors. No task ever waits for another, so how the tasks of
+ * different executors take turns on the threads is up to the shared executor, like a {@link RoundRobinExecutor}.
+ * </p>
+ */
+class ParallelActionExecutor {
+
+    private final int workers;
+    private final Executor sharedExecutor;
+
+    ParallelActionExecutor(int workers) {
+        this(workers, null);
+    }
+
+    /**
+     * @param sharedExecutor Worker threads to share with others; if {@code null} the executor has its own.
+     */
+    ParallelActionExecutor(int workers, Executor sharedExecutor) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required, not " + workers);
+        }
+        this.workers = workers;
+        this.sharedExecutor = sharedExecutor;
+    }
+
+    /**
+     * @param actions Actions to perform, in the order defined by the {@link ActionComparator}.
+     */
+    void performAll(Collection<Action> actions, FileSystem fileSystem, Path sourceRoot, Path targetRoot,
+                    ActionCallback callback, StopSignal stopSignal) throws IOException {
+        final List<Action> moves = new ArrayList<>();
+        final List<Action> deletions = new ArrayList<>();
+        final List<Action> others = new ArrayList<>();
+        for (Action action : actions) {
+            if (action.getActionType() == MOVE_TARGET) {
+                moves.add(action);
+            } else if (action.getActionType() == DELETE_TARGET) {
+                deletions.add(action);
+            } else {
+                others.add(action);
+            }
+        }
+        final ExecutorService ownExecutor = sharedExecutor == null ? Executors.newFixedThreadPool(workers) : null;
+        final Executor executor = sharedExecutor != null ? sharedExecutor : ownExecutor;
+        try {
+            new Run(executor, fileSystem, sourceRoot, targetRoot, callback, stopSignal, moves, false).perform();
+            new Run(executor, fileSystem, sourceRoot, targetRoot, callback, stopSignal, deletions, true).perform();
+            new Run(executor, fileSystem, sourceRoot, targetRoot, callback, stopSignal, others, false).perform();
+        } finally {
+            if (ownExecutor != null) {
+                ownExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /*
+    A single run over a set of actions that are ordered by their paths only. Each action keeps track of the number
+    of actions it's still waiting for. Whenever an action is done, the actions that wait for it are updated, and
+    those that are no longer waiting for anything are handed to the executor.
+
+    If an action fails, or if the stop signal is given, the remaining actions are drained without being performed.
+    The first failure is rethrown once all workers are done with this run.
+     */
+    private static final class Run {
+        private final Executor executor;
+        private final FileSystem fileSystem;
+        private final Path sourceRoot;
+        private final Path targetRoot;
+        private final ActionCallback callback;
+        private final StopSignal stopSignal;
+        private final Collection<Action> actions;
+        private final Map<Action, List<Action>> dependents = new HashMap<>();
+        private final Map<Action, AtomicInteger> waitingFor = new HashMap<>();
+        private final CountDownLatch done;
+        private volatile Throwable failure;
+
+        private Run(Executor executor, FileSystem fileSystem, Path sourceRoot, Path targetRoot,
+                    ActionCallback callback, StopSignal stopSignal, Collection<Action> actions, boolean childrenFirst) {
+            this.executor = executor;
+            this.fileSystem = fileSystem;
+            this.sourceRoot = sourceRoot;
+            this.targetRoot = targetRoot;
+            this.callback = callback;
+            this.stopSignal = stopSignal;
+            this.actions = actions;
+            this.done = new CountDownLatch(actions.size());
+            final Map<Path, Action> actionsByPath = new HashMap<>(actions.size());
+            for (Action action : actions) {
+                actionsByPath.put(action.getPath(), action);
+                waitingFor.put(action, new AtomicInteger());
+            }
+            for (Action action : actions) {
+                final Path parentPath = action.getPath().getParent();
+                final Action parent = parentPath != null ? actionsByPath.get(parentPath) : null;
+                if (parent != null) {
+                    if (childrenFirst) {
+                        addDependency(action, parent);
+                    } else {
+                        addDependency(parent, action);
+                    }
+                }
+            }
+        }
+
+        private void addDependency(Action first, Action then) {
+            List<Action> list = dependents.get(first);
+            if (list == null) {
+                list = new ArrayList<>();
+                dependents.put(first, list);
+            }
+            list.add(then);
+            waitingFor.get(then).incrementAndGet();
+        }
+
+        /*
+        The actions that are ready to go are collected before any of them is submitted. Otherwise an action that's
+        released by one that already finished could be submitted twice.
+         */
+        private void perform() throws IOException {
+            final List<Action> ready = new ArrayList<>();
+            for (Action action : actions) {
+                if (waitingFor.get(action).get() == 0) {
+                    ready.add(action);
+                }
+            }
+            for (Action action : ready) {
+                submit(action);
+            }
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for actions to complete", e);
+            }
+            rethrowFailure();
+        }
+
+        private void submit(final Action action) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (failure == null && !stopSignal.isStopped()) {
+                            final long start = System.nanoTime();
+                            action.perform(fileSystem, sourceRoot, targetRoot);
+                            actionPerformed(action, System.nanoTime() - start);
+                        }
+                    } catch (ConversionSkippedException e) {
+                        synchronized (callback) {
+                            callback.actionSkipped(action);
+                        }
+                    } catch (Throwable t) {
+                        registerFailure(t);
+                    } finally {
+                        release(action);
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        private void actionPerformed(Action action, long durationInNanos) {
+            synchronized (callback) {
+                callback.actionPerformed(action, durationInNanos);
+            }
+        }
+
+        private synchronized void registerFailure(Throwable t) {
+            if (failure == null) {
+                failure = t;
+            }
+        }
+
+        private void release(Action action) {
+            final List<Action> list = dependents.get(action);
+            if (list == null) {
+                return;
+            }
+            for (Action dependent : list) {
+                if (waitingFor.get(dependent).decrementAndGet() == 0) {
+                    submit(dependent);
+                }
+            }
+        }
+
+        private void rethrowFailure() throws IOException {
+            if (failure == null) {
+                return;
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw new IOException(failure);
+        }
+    }
+}
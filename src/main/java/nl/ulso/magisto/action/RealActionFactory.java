@@ -51,6 +51,16 @@ public class RealActionFactory implements ActionFactory {
 
     @Override
     public Action deleteTarget(Path path) {
-        return new DeleteTargetAction(path);
+        return new DeleteTargetAction(path, false);
+    }
+
+    @Override
+    public Action deleteTargetTree(Path path) {
+        return new DeleteTargetAction(path, true);
+    }
+
+    @Override
+    public Action moveTarget(Path fromPath, Path toPath) {
+        return new MoveTargetAction(fromPath, toPath);
     }
 }
\ No newline at end of file
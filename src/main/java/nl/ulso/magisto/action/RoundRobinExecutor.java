@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.action;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of worker threads that is shared fairly between lanes. Each lane has a queue of its own, and the workers
+ * take a task from each lane that has one in turn. A lane with many tasks therefore never keeps a lane with few tasks
+ * waiting for more than one task per other lane.
+ * <p>
+ * Tasks in a single lane are started in the order in which they were handed to it.
+ * </p>
+ */
+public final class RoundRobinExecutor implements Closeable {
+
+    private final ExecutorService threads;
+    private final Object lock = new Object();
+    private final Deque<Lane> turns = new ArrayDeque<>();
+    private boolean closed;
+
+    public RoundRobinExecutor(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required, not " + workers);
+        }
+        threads = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++) {
+            threads.execute(new Worker());
+        }
+    }
+
+    /**
+     * @return A new lane, with an empty queue, to hand tasks to.
+     */
+    public Executor newLane() {
+        return new Lane();
+    }
+
+    /**
+     * Stops the worker threads. Tasks that are still queued are never started.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            turns.clear();
+            lock.notifyAll();
+        }
+        threads.shutdownNow();
+    }
+
+    /*
+    A lane is in the turns as long as it has tasks queued, exactly once. After handing out a task it goes to the back.
+     */
+    private Runnable take() throws InterruptedException {
+        synchronized (lock) {
+            while (turns.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                lock.wait();
+            }
+            final Lane lane = turns.removeFirst();
+            final Runnable task = lane.tasks.remove();
+            if (!lane.tasks.isEmpty()) {
+                turns.addLast(lane);
+            }
+            return task;
+        }
+    }
+
+    private final class Lane implements Executor {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (lock) {
+                if (closed) {
+                    throw new RejectedExecutionException("The worker threads are stopped");
+                }
+                if (tasks.isEmpty()) {
+                    turns.addLast(this);
+                }
+                tasks.add(task);
+                lock.notify();
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                while ((task = take()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        Logger.getGlobal().log(Level.SEVERE, "A task on a shared worker thread failed", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto.converter;
+
+import java.io.IOException;
+
+/**
+ * Conversion of a single file, split into stages: reading the file, rendering the result, and writing it.
+ * <p>
+ * The stages are called exactly once each, in order, but not necessarily on the same thread. That allows reading
+ * and writing, which mostly wait for the disk, to overlap with rendering, which mostly keeps the processor busy. If a
+ * stage fails, the next stages are not called.
+ * </p>
+ */
+public interface Conversion {
+
+    void read() throws IOException;
+
+    void render() throws IOException;
+
+    /**
+     * @throws ConversionSkippedException If the file isn't converted after all. There's no target for it then.
+     */
+    void write() throws IOException;
+}
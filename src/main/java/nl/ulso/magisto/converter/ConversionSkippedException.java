@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package nl.ulso.magisto.converter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Thrown when a file turns out not to be converted after all, like a Markdown document that exceeds its budget. It
+ * doesn't fail the export; it only tells that nothing was written for the file. A target left over from an earlier
+ * conversion is deleted, so that it's not taken for an up-to-date conversion of the file.
+ */
+public class ConversionSkippedException extends IOException {
+
+    public ConversionSkippedException(Path path, String reason) {
+        super(String.format("Skipped '%s', because %s.", path, reason));
+    }
+}
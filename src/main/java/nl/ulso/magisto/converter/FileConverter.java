@@ -40,7 +40,21 @@ public interface FileConverter {
 
     Path getConvertedFileName(Path path);
 
+    /**
+     * @throws ConversionSkippedException If the file isn't converted after all. There's no target for it then.
+     */
     void convert(FileSystem fileSystem, Path sourceRoot, Path targetRoot, Path path) throws IOException;
 
+    /**
+     * @return The same conversion as {@link #convert(FileSystem, Path, Path, Path)} performs, but split into stages.
+     */
+    Conversion createConversion(FileSystem fileSystem, Path sourceRoot, Path targetRoot, Path path);
+
     boolean isCustomTemplateChanged(FileSystem fileSystem, Path sourceRoot, Path targetRoot) throws IOException;
+
+    /**
+     * @return A fingerprint of everything that affects the output of this converter other than the file being
+     * converted itself, like the template in use. If the fingerprint changes, all files need to be converted again.
+     */
+    String getFingerprint();
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.converter.markdown;
+
+import org.pegdown.PegDownProcessor;
+
+import java.nio.CharBuffer;
+
+/**
+ * Limits the resources spent on converting a single Markdown document.
+ * <p>
+ * The Markdown parser backtracks, and on some inputs, like deeply nested emphasis, it takes exponential time. A
+ * budget caps the time spent on parsing a document, as well as the size of the documents to parse. A document that
+ * exceeds its budget, or that's nested so deeply that the parser runs out of stack, isn't converted, so that one
+ * bad document can't hold up the whole export. Optionally it's converted to preformatted text instead.
+ * </p>
+ */
+public final class DocumentBudget {
+
+    /**
+     * The parser's own time limit, no limit on the size, and no plain text for documents that exceed the budget.
+     */
+    public static final DocumentBudget DEFAULT = new DocumentBudget(PegDownProcessor.DEFAULT_MAX_PARSING_TIME, 0,
+            false);
+
+    private final long maxParsingTimeInMillis;
+    private final long maxSizeInKilobytes;
+    private final boolean fallbackToText;
+
+    /**
+     * @param maxParsingTimeInMillis Maximum time to parse a document in; 0 means no limit.
+     * @param maxSizeInKilobytes     Maximum size of a document; 0 means no limit.
+     * @param fallbackToText         Whether to convert documents that exceed the budget to preformatted text.
+     */
+    public DocumentBudget(long maxParsingTimeInMillis, long maxSizeInKilobytes, boolean fallbackToText) {
+        this.maxParsingTimeInMillis = maxParsingTimeInMillis > 0 ? maxParsingTimeInMillis : Long.MAX_VALUE;
+        this.maxSizeInKilobytes = maxSizeInKilobytes;
+        this.fallbackToText = fallbackToText;
+    }
+
+    long getMaxParsingTimeInMillis() {
+        return maxParsingTimeInMillis;
+    }
+
+    boolean isFallbackToText() {
+        return fallbackToText;
+    }
+
+    /*
+    Describes the budget for the fingerprint of the converter.
+     */
+    @Override
+    public String toString() {
+        return String.format("DocumentBudget(%d ms, %d KB, %s)", maxParsingTimeInMillis, maxSizeInKilobytes,
+                fallbackToText ? "text" : "skip");
+    }
+
+    /*
+    The document is measured in characters. A character takes at least one byte in UTF-8, so a document that isn't
+    too large in bytes isn't too large in characters either.
+     */
+    void requireWithinSize(CharBuffer markdownText) throws BudgetExceededException {
+        if (maxSizeInKilobytes > 0 && markdownText.remaining() > maxSizeInKilobytes * 1024) {
+            throw new BudgetExceededException(String.format("it's larger than %d KB", maxSizeInKilobytes));
+        }
+    }
+}
@@ -17,26 +17,102 @@
 package nl.ulso.magisto.converter.markdown;
 
 import org.pegdown.Extensions;
+import org.pegdown.ParsingTimeoutException;
 import org.pegdown.PegDownProcessor;
 import org.pegdown.ToHtmlSerializer;
 import org.pegdown.ast.RootNode;
 
+import java.nio.CharBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Represents a Markdown document.
  */
 public class MarkdownDocument {
 
-    private static final ThreadLocal<PegDownProcessor> PROCESSOR = new ThreadLocal<PegDownProcessor>() {
-        @Override
-        protected PegDownProcessor initialValue() {
-            return new PegDownProcessor(Extensions.ALL - Extensions.HARDWRAPS - Extensions.EXTANCHORLINKS);
-        }
-    };
+    private static final int EXTENSIONS = Extensions.ALL - Extensions.HARDWRAPS - Extensions.EXTANCHORLINKS;
+
+    /*
+    A processor is bound to a maximum parsing time. In practice each thread only ever uses one.
+     */
+    private static final ThreadLocal<Map<Long, PegDownProcessor>> PROCESSORS =
+            new ThreadLocal<Map<Long, PegDownProcessor>>() {
+                @Override
+                protected Map<Long, PegDownProcessor> initialValue() {
+                    return new HashMap<>();
+                }
+            };
 
     private final RootNode rootNode;
 
     public MarkdownDocument(char[] markdownText) {
-        rootNode = PROCESSOR.get().parseMarkdown(markdownText);
+        this(CharBuffer.wrap(markdownText));
+    }
+
+    public MarkdownDocument(CharBuffer markdownText) {
+        this(parseMarkdown(getProcessor(PegDownProcessor.DEFAULT_MAX_PARSING_TIME), markdownText));
+    }
+
+    private MarkdownDocument(RootNode rootNode) {
+        this.rootNode = rootNode;
+    }
+
+    /*
+    The parser checks the time as it goes, and gives up by throwing an exception. The parser framework wraps it into
+    an exception of its own. It does the same with a stack overflow, which happens on deeply nested input. That's
+    exceeding the budget as well.
+     */
+    static MarkdownDocument parse(char[] markdownText, DocumentBudget budget) throws BudgetExceededException {
+        return parse(CharBuffer.wrap(markdownText), budget);
+    }
+
+    static MarkdownDocument parse(CharBuffer markdownText, DocumentBudget budget) throws BudgetExceededException {
+        budget.requireWithinSize(markdownText);
+        try {
+            return new MarkdownDocument(parseMarkdown(getProcessor(budget.getMaxParsingTimeInMillis()), markdownText));
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ParsingTimeoutException) {
+                    throw new BudgetExceededException(String.format("it took longer than %d ms to parse",
+                            budget.getMaxParsingTimeInMillis()));
+                }
+                if (cause instanceof StackOverflowError) {
+                    throw new BudgetExceededException("it's nested too deeply to parse");
+                }
+            }
+            throw e;
+        }
+    }
+
+    /*
+    The parser wants an array with just the text in it, followed by two line breaks. If the array behind the buffer
+    holds the text and exactly two chars more, as the file system reserves them, the line breaks are put there and the
+    array is parsed as is. Otherwise the text is copied into a new array, straight from the buffer.
+     */
+    private static RootNode parseMarkdown(PegDownProcessor processor, CharBuffer markdownText) {
+        final int length = markdownText.remaining();
+        final char[] source;
+        if (markdownText.hasArray() && markdownText.arrayOffset() + markdownText.position() == 0
+                && markdownText.array().length == length + 2) {
+            source = markdownText.array();
+        } else {
+            source = new char[length + 2];
+            markdownText.duplicate().get(source, 0, length);
+        }
+        source[length] = '\n';
+        source[length + 1] = '\n';
+        return processor.parser.parse(source);
+    }
+
+    private static PegDownProcessor getProcessor(long maxParsingTimeInMillis) {
+        final Map<Long, PegDownProcessor> processors = PROCESSORS.get();
+        PegDownProcessor processor = processors.get(maxParsingTimeInMillis);
+        if (processor == null) {
+            processor = new PegDownProcessor(EXTENSIONS, maxParsingTimeInMillis);
+            processors.put(maxParsingTimeInMillis, processor);
+        }
+        return processor;
     }
 
     public String extractTitle() {
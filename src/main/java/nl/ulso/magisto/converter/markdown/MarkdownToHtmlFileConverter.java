@@ -19,14 +19,18 @@ package nl.ulso.magisto.converter.markdown;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
+import nl.ulso.magisto.converter.Conversion;
+import nl.ulso.magisto.converter.ConversionSkippedException;
 import nl.ulso.magisto.converter.FileConverter;
 import nl.ulso.magisto.git.GitClient;
+import nl.ulso.magisto.io.ContentHashes;
 import nl.ulso.magisto.io.FileSystem;
 import nl.ulso.magisto.io.Paths;
 
-import java.io.BufferedReader;
+import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.CharBuffer;
 import java.nio.file.Path;
 import java.util.Date;
 import java.util.HashMap;
@@ -37,6 +41,15 @@ import java.util.logging.Logger;
 
 /**
  * Converts Markdown files to HTML using a FreeMarker template.
+ * <p>
+ * Instances are safe for use by multiple threads at once: the template is loaded once up front and never changes
+ * afterwards (FreeMarker templates are thread-safe once loaded), each thread gets its own Markdown processor, and
+ * everything else is created per conversion.
+ * </p>
+ * <p>
+ * Each document is converted within a {@link DocumentBudget}. A document that exceeds it is skipped, or converted to
+ * a page with the Markdown text as is, in a preformatted block.
+ * </p>
  */
 class MarkdownToHtmlFileConverter implements FileConverter {
 
@@ -45,11 +58,19 @@ class MarkdownToHtmlFileConverter implements FileConverter {
     private static final String CUSTOM_PAGE_TEMPLATE = ".page.ftl";
 
     private final GitClient gitClient;
+    private final DocumentBudget budget;
     private final Template template;
+    private final String fingerprint;
 
     MarkdownToHtmlFileConverter(FileSystem fileSystem, Path sourceRoot, GitClient gitClient)
             throws IOException {
+        this(fileSystem, sourceRoot, gitClient, DocumentBudget.DEFAULT);
+    }
+
+    MarkdownToHtmlFileConverter(FileSystem fileSystem, Path sourceRoot, GitClient gitClient, DocumentBudget budget)
+            throws IOException {
         this.gitClient = gitClient;
+        this.budget = budget;
         try {
             if (isCustomTemplateAvailable(fileSystem, sourceRoot)) {
                 template = loadCustomTemplate(fileSystem, sourceRoot);
@@ -59,6 +80,8 @@ class MarkdownToHtmlFileConverter implements FileConverter {
         } catch (IOException e) {
             throw new RuntimeException("Could not load built-in template", e);
         }
+        fingerprint = ContentHashes.hash(getClass().getName() + System.lineSeparator() + budget
+                + System.lineSeparator() + template.toString());
     }
 
     boolean isCustomTemplateAvailable(FileSystem fileSystem, Path sourceRoot) {
@@ -98,6 +121,16 @@ class MarkdownToHtmlFileConverter implements FileConverter {
         return false;
     }
 
+    /*
+    The template's canonical form covers both the built-in and the custom template, so upgrading Magisto to a version
+    with a different built-in template triggers a full conversion too. The budget is part of it as well: documents
+    that were skipped or converted to text are converted again once the limits change.
+     */
+    @Override
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
     @Override
     public Set<String> getSourceExtensions() {
         return MarkdownLinkResolver.SOURCE_EXTENSIONS;
@@ -122,40 +155,173 @@ class MarkdownToHtmlFileConverter implements FileConverter {
     @Override
     public void convert(FileSystem fileSystem, Path sourceRoot, Path targetRoot, Path path)
             throws IOException {
-        Logger.getGlobal().log(Level.FINE, String.format("Converting '%s' from Markdown to HTML.", path));
-        final Path targetFile = targetRoot.resolve(getConvertedFileName(path));
-        try (final Writer writer = fileSystem.newBufferedWriterForTextFile(targetFile)) {
-            final MarkdownDocument document = readMarkdownDocument(fileSystem, sourceRoot.resolve(path));
-            final Map<String, Object> model = createPageModel(path, document);
-            template.process(model, writer);
-        } catch (TemplateException e) {
-            Logger.getGlobal().log(Level.SEVERE, String.format("There was a problem in your custom page template. " +
-                    "All converted pages are probably broken! The cause: %s", e.getMessage()), e);
-        }
+        new MarkdownConversion(fileSystem, sourceRoot, targetRoot, path).convert();
+    }
+
+    @Override
+    public Conversion createConversion(FileSystem fileSystem, Path sourceRoot, Path targetRoot, Path path) {
+        return new MarkdownConversion(fileSystem, sourceRoot, targetRoot, path);
     }
 
     Map<String, Object> createPageModel(Path path, MarkdownDocument document) throws IOException {
+        return createPageModel(path, document.extractTitle(), document.toHtml());
+    }
+
+    /*
+    A document that exceeded its budget still gets a page, with its file name for a title.
+     */
+    Map<String, Object> createTextPageModel(Path path, CharBuffer markdown) throws IOException {
+        return createPageModel(path, path.getFileName().toString(), "<pre>" + escapeHtml(markdown) + "</pre>");
+    }
+
+    private Map<String, Object> createPageModel(Path path, String title, String content) throws IOException {
         final Map<String, Object> model = new HashMap<>();
         model.put("timestamp", new Date());
         model.put("path", path);
-        model.put("title", document.extractTitle());
-        model.put("content", document.toHtml());
+        model.put("title", title);
+        model.put("content", content);
         model.put("history", gitClient.getHistory(path));
         return model;
     }
 
-    MarkdownDocument readMarkdownDocument(FileSystem fileSystem, Path path) throws IOException {
-        try (final BufferedReader reader = fileSystem.newBufferedReaderForTextFile(path)) {
-            final StringBuilder builder = new StringBuilder();
-            while (reader.ready()) {
-                final String line = reader.readLine();
-                if (line == null) {
+    static String escapeHtml(CharBuffer text) {
+        final StringBuilder builder = new StringBuilder(text.remaining() + text.remaining() / 16);
+        for (int i = text.position(); i < text.limit(); i++) {
+            final char c = text.get(i);
+            switch (c) {
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '>':
+                    builder.append("&gt;");
                     break;
+                case '"':
+                    builder.append("&quot;");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /*
+    The parser takes a char array, so the file is read into one directly, and handed over without trimming it. The
+    parser handles any kind of line ending, so there's no need to normalize them first.
+     */
+    MarkdownDocument readMarkdownDocument(FileSystem fileSystem, Path path) throws IOException {
+        return new MarkdownDocument(fileSystem.readTextFile(path));
+    }
+
+    /*
+    Performed as a whole, the page is rendered straight into the target file. In a pipeline, where the stages run
+    apart, it's rendered in memory first, so that the target file is only opened in the write stage. Either way the
+    Markdown text is let go of as soon as it's parsed. If the document exceeds its budget and isn't converted to text,
+    nothing is written at all, and the page of an earlier conversion is deleted. Since there's no target, the next
+    export tries again.
+     */
+    private final class MarkdownConversion implements Conversion {
+        private final FileSystem fileSystem;
+        private final Path sourceRoot;
+        private final Path targetRoot;
+        private final Path path;
+        private CharBuffer markdown;
+        private CharArrayWriter page;
+        private String skipReason;
+
+        private MarkdownConversion(FileSystem fileSystem, Path sourceRoot, Path targetRoot, Path path) {
+            this.fileSystem = fileSystem;
+            this.sourceRoot = sourceRoot;
+            this.targetRoot = targetRoot;
+            this.path = path;
+        }
+
+        private void convert() throws IOException {
+            read();
+            final Map<String, Object> model = createModel();
+            if (model == null) {
+                skip();
+            }
+            try (final Writer writer = newTargetWriter()) {
+                processTemplate(model, writer);
+            }
+        }
+
+        @Override
+        public void read() throws IOException {
+            Logger.getGlobal().log(Level.FINE, String.format("Converting '%s' from Markdown to HTML.", path));
+            markdown = fileSystem.readTextFile(sourceRoot.resolve(path));
+        }
+
+        @Override
+        public void render() throws IOException {
+            final Map<String, Object> model = createModel();
+            if (model == null) {
+                return;
+            }
+            page = new CharArrayWriter();
+            processTemplate(model, page);
+        }
+
+        @Override
+        public void write() throws IOException {
+            if (page == null) {
+                skip();
+            }
+            try (final Writer writer = newTargetWriter()) {
+                page.writeTo(writer);
+            }
+            page = null;
+        }
+
+        private Map<String, Object> createModel() throws IOException {
+            try {
+                return createModel(markdown);
+            } finally {
+                markdown = null;
+            }
+        }
+
+        private Map<String, Object> createModel(CharBuffer markdown) throws IOException {
+            final MarkdownDocument document;
+            try {
+                document = MarkdownDocument.parse(markdown, budget);
+            } catch (BudgetExceededException e) {
+                if (!budget.isFallbackToText()) {
+                    Logger.getGlobal().log(Level.WARNING, String.format(
+                            "Skipped '%s', because %s.", path, e.getMessage()));
+                    skipReason = e.getMessage();
+                    return null;
                 }
-                builder.append(line);
-                builder.append(System.lineSeparator());
+                Logger.getGlobal().log(Level.WARNING, String.format(
+                        "Converted '%s' to plain text, because %s.", path, e.getMessage()));
+                return createTextPageModel(path, markdown);
+            }
+            return createPageModel(path, document);
+        }
+
+        private void processTemplate(Map<String, Object> model, Writer writer) throws IOException {
+            try {
+                template.process(model, writer);
+            } catch (TemplateException e) {
+                Logger.getGlobal().log(Level.SEVERE, String.format("There was a problem in your custom page " +
+                        "template. All converted pages are probably broken! The cause: %s", e.getMessage()), e);
+            }
+        }
+
+        private Writer newTargetWriter() throws IOException {
+            return fileSystem.newBufferedWriterForTextFile(targetRoot.resolve(getConvertedFileName(path)));
+        }
+
+        private void skip() throws IOException {
+            final Path targetPath = getConvertedFileName(path);
+            if (fileSystem.exists(targetRoot.resolve(targetPath))) {
+                fileSystem.delete(targetRoot, targetPath);
             }
-            return new MarkdownDocument(builder.toString().toCharArray());
+            throw new ConversionSkippedException(path, skipReason);
         }
     }
 }
@@ -29,13 +29,19 @@ import java.nio.file.Path;
  */
 public class MarkdownToHtmlFileConverterFactory implements FileConverterFactory {
     private final GitClient gitClient;
+    private final DocumentBudget budget;
 
     public MarkdownToHtmlFileConverterFactory(GitClient gitClient) {
+        this(gitClient, DocumentBudget.DEFAULT);
+    }
+
+    public MarkdownToHtmlFileConverterFactory(GitClient gitClient, DocumentBudget budget) {
         this.gitClient = gitClient;
+        this.budget = budget;
     }
 
     @Override
     public FileConverter create(FileSystem fileSystem, Path sourceRoot) throws IOException {
-        return new MarkdownToHtmlFileConverter(fileSystem, sourceRoot, gitClient);
+        return new MarkdownToHtmlFileConverter(fileSystem, sourceRoot, gitClient, budget);
     }
 }
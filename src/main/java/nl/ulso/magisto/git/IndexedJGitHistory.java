@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.git;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * {@link History} served from the {@link JGitHistoryIndex} of the {@link JGitClient}.
+ */
+class IndexedJGitHistory implements History {
+
+    private final JGitClient gitClient;
+    private final Path path;
+
+    IndexedJGitHistory(JGitClient gitClient, Path path) {
+        this.gitClient = gitClient;
+        this.path = path;
+    }
+
+    @Override
+    public List<Commit> getCommits() throws IOException {
+        return gitClient.getHistoryIndex().getCommits(path);
+    }
+
+    @Override
+    public Commit getLastCommit() throws IOException {
+        final List<Commit> commits = getCommits();
+        if (commits.isEmpty()) {
+            return Commit.DEFAULT_COMMIT;
+        }
+        return commits.get(0);
+    }
+}
@@ -17,6 +17,8 @@
 package nl.ulso.magisto.git;
 
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 
 import java.io.File;
 import java.io.IOException;
@@ -24,13 +26,26 @@ import java.nio.file.Path;
 
 /**
  * {@link GitClient} implementation based on JGit.
+ * <p>
+ * By default every history runs its own {@code git log} on the path it's for. With the history index enabled the
+ * commit graph is walked only once instead, the first time any history is accessed, after which all histories are
+ * served from the resulting {@link JGitHistoryIndex}. That is a lot faster for repositories with many pages.
+ * </p>
  */
 public class JGitClient implements GitClient {
 
     private final Git git;
+    private final boolean indexHistory;
+    private volatile JGitHistoryIndex historyIndex;
 
     public JGitClient(String sourceDirectory) throws IOException {
-        git = Git.open(new File(sourceDirectory));
+        this(sourceDirectory, false);
+    }
+
+    public JGitClient(String sourceDirectory, boolean indexHistory) throws IOException {
+        this.git = Git.open(new File(sourceDirectory));
+        this.indexHistory = indexHistory;
+        this.historyIndex = null;
     }
 
     @Override
@@ -39,6 +54,28 @@ public class JGitClient implements GitClient {
      * template is actually accessing it.
      */
     public History getHistory(Path path) {
+        if (indexHistory) {
+            return new IndexedJGitHistory(this, path);
+        }
         return new JGitHistory(git, path);
     }
+
+    /*
+    A client can live longer than a single export, for example when watching for changes. The index is therefore
+    rebuilt whenever HEAD has moved since it was built. Resolving HEAD is cheap compared to walking the history.
+     */
+    JGitHistoryIndex getHistoryIndex() throws IOException {
+        final ObjectId head = git.getRepository().resolve(Constants.HEAD);
+        JGitHistoryIndex index = historyIndex;
+        if (index == null || !index.isBuiltFrom(head)) {
+            synchronized (this) {
+                index = historyIndex;
+                if (index == null || !index.isBuiltFrom(head)) {
+                    index = JGitHistoryIndex.build(git.getRepository());
+                    historyIndex = index;
+                }
+            }
+        }
+        return index;
+    }
 }
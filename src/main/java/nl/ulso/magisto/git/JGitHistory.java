@@ -79,7 +79,7 @@ class JGitHistory implements History {
         return commits;
     }
 
-    private Commit createCommit(RevCommit revCommit) {
+    static Commit createCommit(RevCommit revCommit) {
         return new Commit(
                 revCommit.getId().name(),
                 new Date((long) revCommit.getCommitTime() * 1000l),
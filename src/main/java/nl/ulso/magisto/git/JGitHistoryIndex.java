@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.git;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Index from paths to the commits that touched them, built by walking the commit graph only once.
+ * <p>
+ * A commit touches a path if the path differs from each of the commit's parents. That's what {@code git log -- path}
+ * does as well, except for the more exotic history simplifications on merges, which this index doesn't bother with.
+ * </p>
+ * <p>
+ * Every commit in the repository is represented by a single {@link Commit} instance, shared by all paths it touched.
+ * </p>
+ */
+class JGitHistoryIndex {
+
+    private final ObjectId head;
+    private final Map<String, List<Commit>> commitsByPath;
+
+    private JGitHistoryIndex(ObjectId head, Map<String, List<Commit>> commitsByPath) {
+        this.head = head;
+        this.commitsByPath = commitsByPath;
+    }
+
+    static JGitHistoryIndex build(Repository repository) throws IOException {
+        final Map<String, List<Commit>> commitsByPath = new HashMap<>();
+        final ObjectId head = repository.resolve("HEAD");
+        if (head == null) {
+            return new JGitHistoryIndex(head, commitsByPath);
+        }
+        try (final RevWalk revWalk = new RevWalk(repository);
+             final TreeWalk treeWalk = new TreeWalk(repository)) {
+            revWalk.sort(RevSort.COMMIT_TIME_DESC);
+            revWalk.markStart(revWalk.parseCommit(head));
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            for (RevCommit revCommit : revWalk) {
+                final Commit commit = JGitHistory.createCommit(revCommit);
+                final int parentCount = revCommit.getParentCount();
+                final ObjectId[] trees = new ObjectId[parentCount + 1];
+                trees[0] = revCommit.getTree();
+                for (int i = 0; i < parentCount; i++) {
+                    trees[i + 1] = revWalk.parseCommit(revCommit.getParent(i)).getTree();
+                }
+                treeWalk.reset(trees);
+                while (treeWalk.next()) {
+                    if (isDifferentFromAllParents(treeWalk, parentCount)) {
+                        addCommit(commitsByPath, treeWalk.getPathString(), commit);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, List<Commit>> entry : commitsByPath.entrySet()) {
+            entry.setValue(unmodifiableList(entry.getValue()));
+        }
+        return new JGitHistoryIndex(head, commitsByPath);
+    }
+
+    private static boolean isDifferentFromAllParents(TreeWalk treeWalk, int parentCount) {
+        for (int i = 1; i <= parentCount; i++) {
+            if (treeWalk.idEqual(0, i) && treeWalk.getRawMode(0) == treeWalk.getRawMode(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addCommit(Map<String, List<Commit>> commitsByPath, String path, Commit commit) {
+        List<Commit> commits = commitsByPath.get(path);
+        if (commits == null) {
+            commits = new ArrayList<>(1);
+            commitsByPath.put(path, commits);
+        }
+        commits.add(commit);
+    }
+
+    /**
+     * @param head Commit that HEAD currently points to, or {@code null} if there is none.
+     * @return {@code true} if this index was built from the same HEAD.
+     */
+    boolean isBuiltFrom(ObjectId head) {
+        return this.head == null ? head == null : this.head.equals(head);
+    }
+
+    /**
+     * @param path Path relative to the root of the repository.
+     * @return All commits that touched the path, newest first.
+     */
+    List<Commit> getCommits(Path path) {
+        final List<Commit> commits = commitsByPath.get(toGitPath(path));
+        return commits != null ? commits : Collections.<Commit>emptyList();
+    }
+
+    private static String toGitPath(Path path) {
+        final StringBuilder builder = new StringBuilder();
+        for (Path name : path) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(name.toString());
+        }
+        return builder.toString();
+    }
+}
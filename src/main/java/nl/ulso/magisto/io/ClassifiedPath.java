@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto.io;
+
+import java.nio.file.Path;
+
+/**
+ * A path together with everything a {@link PrioritizedByExtensionPathComparator} needs to compare it: the path
+ * without its extension, the extension itself, and whether that extension has priority.
+ * <p>
+ * Splitting a path takes a couple of string operations and a new path. Done on every comparison, that adds up to
+ * tens of millions of short-lived objects when sorting a large directory tree. Done once per path, it doesn't.
+ * </p>
+ */
+final class ClassifiedPath {
+
+    private final Path pathWithoutExtension;
+    private final String extension;
+    private final boolean prioritized;
+
+    ClassifiedPath(Path pathWithoutExtension, String extension, boolean prioritized) {
+        this.pathWithoutExtension = pathWithoutExtension;
+        this.extension = extension;
+        this.prioritized = prioritized;
+    }
+
+    Path getPathWithoutExtension() {
+        return pathWithoutExtension;
+    }
+
+    String getExtension() {
+        return extension;
+    }
+
+    boolean isPrioritized() {
+        return prioritized;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package nl.ulso.magisto.io;
+
+/**
+ * How files are copied from the source directory to the target directory.
+ * <p>
+ * Each strategy falls back to the next one in line, down to a full copy, whenever it turns out not to work, for
+ * example because the target directory is on another device, or on a file system that doesn't support it. Small
+ * files are always copied in full; that's quicker than anything else.
+ * </p>
+ */
+public enum CopyStrategy {
+
+    /**
+     * Reads every file and writes it out again.
+     */
+    FULL(null),
+
+    /**
+     * Hands large files from channel to channel, so that the operating system can copy them without passing the
+     * bytes through Magisto.
+     */
+    TRANSFER(FULL),
+
+    /**
+     * Clones large files, on file systems with copy-on-write support like Btrfs, XFS or APFS. A clone shares its
+     * blocks with the source file, until either one changes.
+     */
+    REFLINK(TRANSFER),
+
+    /**
+     * Links all files into the target directory, instead of copying them. Nothing is copied at all, but the target
+     * file <em>is</em> the source file: changing one changes the other.
+     */
+    HARDLINK(REFLINK);
+
+    private final CopyStrategy fallback;
+
+    CopyStrategy(CopyStrategy fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * @return The strategy to fall back to, or {@code null} for a full copy, which always works.
+     */
+    public CopyStrategy getFallback() {
+        return fallback;
+    }
+
+    /**
+     * @param name Name of the copy strategy, in any case.
+     * @throws IllegalArgumentException If there's no copy strategy by that name.
+     */
+    public static CopyStrategy parse(String name) {
+        for (CopyStrategy strategy : values()) {
+            if (strategy.name().equalsIgnoreCase(name)) {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException(String.format(
+                "Unknown copy strategy '%s'; use full, transfer, reflink or hardlink", name));
+    }
+}
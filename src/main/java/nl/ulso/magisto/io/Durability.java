@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.io;
+
+/**
+ * How hard the file system tries to make sure that what's written survives a crash of the host.
+ */
+public enum Durability {
+
+    /**
+     * Leaves it to the operating system when to write to disk. This is the fastest, but after a crash files may be
+     * truncated, even though their timestamps say they're up to date.
+     */
+    NONE,
+
+    /**
+     * Syncs files and directories to disk in groups, and everything that's left at the end of the export, before the
+     * export is marked as complete. After a crash the export is either complete, or it's not marked as such.
+     */
+    BATCHED,
+
+    /**
+     * Syncs every file and directory to disk as soon as it's written. This is the slowest, but it also keeps the
+     * journal of an interrupted export accurate.
+     */
+    STRICT;
+
+    /**
+     * @param name Name of the durability, in any case.
+     * @throws IllegalArgumentException If there's no durability by that name.
+     */
+    public static Durability parse(String name) {
+        for (Durability durability : values()) {
+            if (durability.name().equalsIgnoreCase(name)) {
+                return durability;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown durability '%s'; use none, batched or strict",
+                name));
+    }
+}
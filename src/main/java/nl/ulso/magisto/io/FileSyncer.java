@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.io;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Syncs files and directories to disk, according to a {@link Durability}.
+ * <p>
+ * A file that's written is synced, as is the directory it's in, so that its entry survives as well. A file that's
+ * deleted, or a directory that's created, only changes the directory it's in. When batching, files and directories
+ * are kept until there are enough of them, or until everything is synced explicitly. Syncing a file from a fresh
+ * handle writes all of its data, no matter which handle it was written through.
+ * </p>
+ * <p>
+ * Not all platforms support syncing directories. There, directories are silently skipped.
+ * </p>
+ * <p>
+ * Instances are safe for use by multiple threads at once. The total time spent on syncing is kept.
+ * </p>
+ */
+final class FileSyncer {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final Durability durability;
+    private final AtomicLong syncTimeInNanos = new AtomicLong();
+    private Set<Path> pendingFiles = new LinkedHashSet<>();
+    private Set<Path> pendingDirectories = new LinkedHashSet<>();
+
+    FileSyncer(Durability durability) {
+        this.durability = durability;
+    }
+
+    void fileWritten(Path file) throws IOException {
+        switch (durability) {
+            case STRICT:
+                final long start = System.nanoTime();
+                syncFile(file);
+                syncDirectory(file.getParent());
+                syncTimeInNanos.addAndGet(System.nanoTime() - start);
+                break;
+            case BATCHED:
+                final boolean full;
+                synchronized (this) {
+                    pendingFiles.add(file);
+                    pendingDirectories.add(file.getParent());
+                    full = pendingFiles.size() >= BATCH_SIZE;
+                }
+                if (full) {
+                    sync();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    void entryChanged(Path path) throws IOException {
+        switch (durability) {
+            case STRICT:
+                final long start = System.nanoTime();
+                syncDirectory(path.getParent());
+                syncTimeInNanos.addAndGet(System.nanoTime() - start);
+                break;
+            case BATCHED:
+                synchronized (this) {
+                    pendingDirectories.add(path.getParent());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /*
+    The pending files and directories are taken over, so that other threads can go on while they're synced.
+     */
+    void sync() throws IOException {
+        final Set<Path> files;
+        final Set<Path> directories;
+        synchronized (this) {
+            if (pendingFiles.isEmpty() && pendingDirectories.isEmpty()) {
+                return;
+            }
+            files = pendingFiles;
+            directories = pendingDirectories;
+            pendingFiles = new LinkedHashSet<>();
+            pendingDirectories = new LinkedHashSet<>();
+        }
+        final long start = System.nanoTime();
+        for (Path file : files) {
+            syncFile(file);
+        }
+        for (Path directory : directories) {
+            syncDirectory(directory);
+        }
+        syncTimeInNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    long getSyncTimeInNanos() {
+        return syncTimeInNanos.get();
+    }
+
+    /*
+    A file that's gone by the time it's synced was deleted or moved; there's nothing left of it to sync. A copy of a
+    read-only file is read-only as well. It can't be opened for writing, but on most platforms syncing it through a
+    handle for reading works just as well.
+     */
+    private static void syncFile(Path file) throws IOException {
+        try {
+            try {
+                force(file, WRITE);
+            } catch (AccessDeniedException e) {
+                force(file, READ);
+            }
+        } catch (NoSuchFileException e) {
+            Logger.getGlobal().log(Level.FINEST, String.format("Not syncing file '%s'; it's gone.", file));
+        }
+    }
+
+    private static void force(Path file, OpenOption option) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, option)) {
+            channel.force(true);
+        }
+    }
+
+    private static void syncDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (final FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            Logger.getGlobal().log(Level.FINEST, String.format("Could not sync directory '%s': %s", directory, e));
+        }
+    }
+}
@@ -19,8 +19,10 @@ package nl.ulso.magisto.io;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.CharBuffer;
 import java.nio.file.Path;
 import java.util.Comparator;
+import java.util.List;
 import java.util.SortedSet;
 
 /**
@@ -85,6 +87,29 @@ public interface FileSystem {
      */
     Path prepareTargetDirectory(String directoryName) throws IOException;
 
+    /**
+     * Prepares a staging directory to export to, instead of the target directory itself. It starts out as a copy of
+     * the target directory, which must be according to the same rules as in {@link #prepareTargetDirectory(String)}.
+     * Once the export is done, {@link #publishTargetDirectory(String, Path, int)} replaces the target directory with
+     * it, in one go.
+     *
+     * @param directoryName Name of the target directory.
+     * @return Existing, valid, real path to the staging directory.
+     * @throws IOException If an exception occurs while accessing the file system.
+     */
+    Path stageTargetDirectory(String directoryName) throws IOException;
+
+    /**
+     * Atomically replaces the target directory with a staging directory, keeping a number of previous versions of it
+     * around.
+     *
+     * @param directoryName Name of the target directory.
+     * @param stagingRoot   Staging directory, as returned by {@link #stageTargetDirectory(String)}.
+     * @param generations   Number of previous versions of the target directory to keep.
+     * @throws IOException If an exception occurs while accessing the file system.
+     */
+    void publishTargetDirectory(String directoryName, Path stagingRoot, int generations) throws IOException;
+
     /**
      * Ensures that the source and target directories do not overlap
      *
@@ -123,12 +148,49 @@ public interface FileSystem {
      */
     SortedSet<Path> findAllPaths(Path root, Comparator<? super Path> comparator) throws IOException;
 
+    /**
+     * Finds all paths in a directory, like {@link #findAllPaths(Path)}, but keeps the type, size and last modified
+     * timestamp of each path, as found while walking the directory.
+     *
+     * @param root Directory to find all entries in.
+     * @return All entries in a directory, with paths relative to the directory itself.
+     * @throws IOException If an exception occurs while finding all entries.
+     */
+    List<PathEntry> findAllEntries(Path root) throws IOException;
+
+    /**
+     * Finds all paths in a directory, like {@link #findAllPaths(Path, Comparator)}, but keeps the type, size and last
+     * modified timestamp of each path, as found while walking the directory.
+     *
+     * @param root       Directory to find all entries in.
+     * @param comparator Comparator to order the entries on their paths with.
+     * @return All entries in a directory, with paths relative to the directory itself.
+     * @throws IOException If an exception occurs while finding all entries.
+     */
+    List<PathEntry> findAllEntries(Path root, Comparator<? super Path> comparator) throws IOException;
+
     /**
      * @param path Absolute path to get the last modified timestamp of.
      * @return Last modified timestamp of {@code path}
      */
     long getLastModifiedInMillis(Path path) throws IOException;
 
+    /**
+     * @param path Absolute path to get the size of.
+     * @return Size of the file at {@code path} in bytes.
+     */
+    long getSize(Path path) throws IOException;
+
+    /**
+     * Computes a hash over the content of a file. The result says nothing about the file's name or timestamps; two
+     * files with the same content have the same hash. Directories have no content, so all directories share the same
+     * hash.
+     *
+     * @param path Absolute path to the file to compute the content hash of.
+     * @return The content hash, as computed by {@link ContentHashes}.
+     */
+    String computeContentHash(Path path) throws IOException;
+
     /**
      * Copies {@code path} in {@code sourceRoot} to {@code targetRoot}, overwriting the same path in the target
      * directory if it already exists.
@@ -147,6 +209,23 @@ public interface FileSystem {
      */
     void delete(Path root, Path path) throws IOException;
 
+    /**
+     * Deletes a path from the root, and if it's a directory, everything inside it, hidden files included.
+     *
+     * @param root Absolute path to the directory.
+     * @param path Relative path to the file or directory to delete within the root directory.
+     */
+    void deleteTree(Path root, Path path) throws IOException;
+
+    /**
+     * Moves a file within the root to another path, creating the directories it goes into if they don't exist yet.
+     *
+     * @param root     Absolute path to the directory.
+     * @param fromPath Relative path to the file to move within the root directory.
+     * @param toPath   Relative path to move the file to within the root directory; it must not exist yet.
+     */
+    void move(Path root, Path fromPath, Path toPath) throws IOException;
+
     /**
      * @return A new reader for a text file in UTF-8.
      * @throws IOException If an exception accessing occurs while accessing the file system.
@@ -154,11 +233,38 @@ public interface FileSystem {
     BufferedReader newBufferedReaderForTextFile(Path path) throws IOException;
 
     /**
-     * @return A new writer for a text file in UTF-8; if a file already exists it is overwritten.
+     * Reads a complete text file in UTF-8 in one go, without changing its line endings.
+     *
+     * @param path Absolute path to the file to read.
+     * @return The content of the file, from the position of the buffer up to its limit. The array behind the buffer
+     * may be longer than the content.
+     * @throws IOException If an exception occurs while accessing the file system, or if the file isn't valid UTF-8.
+     */
+    CharBuffer readTextFile(Path path) throws IOException;
+
+    /**
+     * @return A new writer for a text file in UTF-8; if a file already exists it is replaced.
      * @throws IOException If an exception accessing occurs while accessing the file system.
      */
     BufferedWriter newBufferedWriterForTextFile(Path path) throws IOException;
 
+    /**
+     * @return Total time spent waiting to copy, delete or write, so far, because access was throttled.
+     */
+    long getThrottledTimeInNanos();
+
+    /**
+     * Syncs everything that was copied, deleted or written so far to disk, as far as the durability asks for it.
+     *
+     * @throws IOException If an exception accessing occurs while accessing the file system.
+     */
+    void sync() throws IOException;
+
+    /**
+     * @return Total time spent syncing to disk, so far.
+     */
+    long getSyncTimeInNanos();
+
     /**
      * @param path Absolute path to check for existence.
      * @return {@code true} if the file exists, {@code false} if it doesn't.
@@ -170,4 +276,10 @@ public interface FileSystem {
      * @return {@code true} if the file does not exist, {@code false} if it does.
      */
     boolean notExists(Path path);
+
+    /**
+     * @param path Absolute path to check.
+     * @return {@code true} if the path exists and is a directory, {@code false} otherwise.
+     */
+    boolean isDirectory(Path path);
 }
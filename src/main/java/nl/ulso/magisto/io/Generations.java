@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.io;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+
+/**
+ * Keeps the generations of a staged export in a hidden directory next to the target directory. The target directory
+ * itself is a symbolic link to the current generation.
+ * <p>
+ * An export is staged in a copy of the current generation. Files aren't really copied though: they're hard linked,
+ * which is cheap. Only if the file system doesn't support hard links are they copied. That's safe, because Magisto
+ * never changes a file in place; it always replaces it with a new one. Once the export is done, the staging directory
+ * becomes the next generation, and the link is swapped to point to it. Swapping the link is done by renaming a new
+ * link over the old one, which is atomic. Visitors of the site never see a half-done export.
+ * </p>
+ * <p>
+ * Generations are numbered. Older generations are kept around for rollbacks, up to a maximum; rolling back is a
+ * matter of pointing the link to another one. If an export fails or is interrupted, its staging directory is kept,
+ * and the next export continues in it.
+ * </p>
+ * <p>
+ * The first time a target directory that's not a link yet is published, the directory itself becomes a generation.
+ * For a brief moment then the target directory doesn't exist.
+ * </p>
+ */
+final class Generations {
+
+    private static final String STAGING_DIRECTORY = "staging";
+    private static final String PARTIAL_STAGING_DIRECTORY = "staging.partial";
+
+    private final Path target;
+    private final Path directory;
+
+    Generations(Path target) {
+        this.target = target.toAbsolutePath().normalize();
+        this.directory = this.target.resolveSibling("." + this.target.getFileName() + ".generations");
+    }
+
+    /**
+     * @return The real path to the staging directory.
+     */
+    Path stage() throws IOException {
+        Files.createDirectories(directory);
+        final Path staging = directory.resolve(STAGING_DIRECTORY);
+        if (Files.isDirectory(staging)) {
+            Logger.getGlobal().log(Level.FINE, String.format("Continuing in staging directory '%s'.", staging));
+            return staging.toRealPath();
+        }
+        final Path partial = directory.resolve(PARTIAL_STAGING_DIRECTORY);
+        deleteTree(partial);
+        if (Files.exists(target)) {
+            cloneTree(target.toRealPath(), partial);
+        } else {
+            Files.createDirectory(partial);
+        }
+        Files.move(partial, staging, ATOMIC_MOVE);
+        return staging.toRealPath();
+    }
+
+    /**
+     * @param staging     Staging directory, as returned by {@link #stage()}.
+     * @param generations Number of previous generations to keep.
+     * @return The generation that was published.
+     */
+    Path publish(Path staging, int generations) throws IOException {
+        if (Files.isDirectory(target, NOFOLLOW_LINKS)) {
+            Files.move(target, directory.resolve(Long.toString(nextNumber())), ATOMIC_MOVE);
+        }
+        final Path generation = directory.resolve(Long.toString(nextNumber()));
+        Files.move(staging, generation, ATOMIC_MOVE);
+        final Path link = target.resolveSibling("." + target.getFileName() + ".link");
+        Files.deleteIfExists(link);
+        Files.createSymbolicLink(link, target.getParent().relativize(generation));
+        Files.move(link, target, ATOMIC_MOVE);
+        Logger.getGlobal().log(Level.FINE, String.format("Published '%s' as '%s'.", generation, target));
+        prune(generations);
+        return generation;
+    }
+
+    private long nextNumber() throws IOException {
+        final List<Long> numbers = findNumbers();
+        return numbers.isEmpty() ? 1 : numbers.get(0) + 1;
+    }
+
+    /*
+    The current generation always has the highest number, so it's never pruned.
+     */
+    private void prune(int generations) throws IOException {
+        final List<Long> numbers = findNumbers();
+        for (int i = generations + 1; i < numbers.size(); i++) {
+            final Path generation = directory.resolve(Long.toString(numbers.get(i)));
+            Logger.getGlobal().log(Level.FINE, String.format("Deleting old generation '%s'.", generation));
+            deleteTree(generation);
+        }
+    }
+
+    /*
+    Returns the numbers of all generations, highest first.
+     */
+    private List<Long> findNumbers() throws IOException {
+        final List<Long> numbers = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                try {
+                    numbers.add(Long.parseLong(path.getFileName().toString()));
+                } catch (NumberFormatException e) {
+                    // Not a generation
+                }
+            }
+        }
+        Collections.sort(numbers, Collections.reverseOrder());
+        return numbers;
+    }
+
+    private static void cloneTree(final Path source, final Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            private boolean linking = true;
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attributes) throws IOException {
+                Files.createDirectory(target.resolve(source.relativize(path)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+                final Path clone = target.resolve(source.relativize(path));
+                if (linking) {
+                    try {
+                        Files.createLink(clone, path);
+                        return FileVisitResult.CONTINUE;
+                    } catch (UnsupportedOperationException | IOException e) {
+                        Logger.getGlobal().log(Level.FINE, String.format(
+                                "Could not link '%s', copying files instead: %s", path, e));
+                        linking = false;
+                    }
+                }
+                Files.copy(path, clone, COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (Files.notExists(root, NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+                Files.delete(path);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path path, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(path);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
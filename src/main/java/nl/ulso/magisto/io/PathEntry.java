@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto.io;
+
+import java.nio.file.Path;
+
+/**
+ * A path found in a directory, together with the attributes the directory scan got for free.
+ * <p>
+ * Keeping the attributes around saves asking the file system for them again, one file at a time.
+ * </p>
+ */
+public final class PathEntry {
+
+    private final Path path;
+    private final boolean isDirectory;
+    private final long size;
+    private final long lastModifiedInMillis;
+
+    public PathEntry(Path path, boolean isDirectory, long size, long lastModifiedInMillis) {
+        this.path = path;
+        this.isDirectory = isDirectory;
+        this.size = size;
+        this.lastModifiedInMillis = lastModifiedInMillis;
+    }
+
+    /**
+     * @return Path relative to the directory that was scanned.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean isDirectory() {
+        return isDirectory;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModifiedInMillis() {
+        return lastModifiedInMillis;
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
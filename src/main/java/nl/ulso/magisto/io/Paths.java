@@ -18,7 +18,9 @@ package nl.ulso.magisto.io;
 
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -59,4 +61,21 @@ public final class Paths {
         return new PrioritizedByExtensionPathComparator(extensions);
     }
 
+    /**
+     * Sorts entries on their paths. With a comparator from {@link #prioritizeOnExtension(Set)} each path is split
+     * only once, instead of on every comparison.
+     */
+    public static void sortEntries(List<PathEntry> entries, final Comparator<? super Path> comparator) {
+        if (comparator instanceof PrioritizedByExtensionPathComparator) {
+            ((PrioritizedByExtensionPathComparator) comparator).sort(entries);
+            return;
+        }
+        Collections.sort(entries, new Comparator<PathEntry>() {
+            @Override
+            public int compare(PathEntry entry1, PathEntry entry2) {
+                return comparator.compare(entry1.getPath(), entry2.getPath());
+            }
+        });
+    }
+
 }
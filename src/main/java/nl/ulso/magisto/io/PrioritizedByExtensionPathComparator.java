@@ -48,24 +48,58 @@ class PrioritizedByExtensionPathComparator implements Comparator<Path> {
 
     @Override
     public int compare(Path first, Path second) {
-        final ExtensionLessPath firstPath = splitOnExtension(first);
-        final ExtensionLessPath secondPath = splitOnExtension(second);
+        return compare(classify(first), classify(second));
+    }
+
+    ClassifiedPath classify(Path path) {
+        final ExtensionLessPath extensionLessPath = splitOnExtension(path);
+        final String extension = extensionLessPath.getOriginalExtension();
+        return new ClassifiedPath(extensionLessPath.getPathWithoutExtension(), extension,
+                extensions.contains(extension.toLowerCase()));
+    }
 
-        final int pathComparison = firstPath.getPathWithoutExtension().compareTo(secondPath.getPathWithoutExtension());
+    int compare(ClassifiedPath first, ClassifiedPath second) {
+        final int pathComparison = first.getPathWithoutExtension().compareTo(second.getPathWithoutExtension());
         if (pathComparison != 0) {
             return pathComparison;
         }
-
-        final String firstExtension = firstPath.getOriginalExtension();
-        if (extensions.contains(firstExtension.toLowerCase())) {
+        if (first.isPrioritized()) {
             return -1;
         }
-
-        final String secondExtension = secondPath.getOriginalExtension();
-        if (extensions.contains(secondExtension.toLowerCase())) {
+        if (second.isPrioritized()) {
             return 1;
         }
+        return first.getExtension().compareTo(second.getExtension());
+    }
+
+    /*
+    Sorts entries on their paths, classifying each path only once instead of on every comparison.
+     */
+    void sort(List<PathEntry> entries) {
+        final ClassifiedEntry[] classifiedEntries = new ClassifiedEntry[entries.size()];
+        for (int i = 0; i < classifiedEntries.length; i++) {
+            final PathEntry entry = entries.get(i);
+            classifiedEntries[i] = new ClassifiedEntry(entry, classify(entry.getPath()));
+        }
+        Arrays.sort(classifiedEntries, new Comparator<ClassifiedEntry>() {
+            @Override
+            public int compare(ClassifiedEntry first, ClassifiedEntry second) {
+                return PrioritizedByExtensionPathComparator.this.compare(first.classifiedPath,
+                        second.classifiedPath);
+            }
+        });
+        for (int i = 0; i < classifiedEntries.length; i++) {
+            entries.set(i, classifiedEntries[i].entry);
+        }
+    }
+
+    private static final class ClassifiedEntry {
+        private final PathEntry entry;
+        private final ClassifiedPath classifiedPath;
 
-        return firstExtension.compareTo(secondExtension);
+        private ClassifiedEntry(PathEntry entry, ClassifiedPath classifiedPath) {
+            this.entry = entry;
+            this.classifiedPath = classifiedPath;
+        }
     }
 }
@@ -18,14 +18,25 @@ package nl.ulso.magisto.io;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.security.MessageDigest;
+import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,10 +45,35 @@ import static nl.ulso.magisto.io.Paths.*;
 
 /**
  * Default implementation of the {@link FileSystem} that actually accesses the file system.
+ * <p>
+ * Apart from an optional pool of threads to walk directories with, this class keeps no state of its own, and it's
+ * safe for use by multiple threads at once. Operations that check before they act are written so that they don't
+ * break when another thread gets in between.
+ * </p>
+ * <p>
+ * With more than one worker, directories are walked, and whole subtrees deleted, by a {@link ParallelDirectoryWalker}.
+ * Its threads are kept until the file system is closed.
+ * </p>
+ * <p>
+ * Copies, deletions and writes can be slowed down by a {@link Throttle}. Reads aren't.
+ * </p>
+ * <p>
+ * Whether and when copies, deletions and writes are synced to disk depends on the {@link Durability}. Whatever the
+ * durability, the touch file and a published generation are synced right away, so that they never point to anything
+ * that's not on disk yet.
+ * </p>
+ * <p>
+ * Files are copied according to the {@link CopyStrategy}. Once linking or cloning fails, it's not tried again; the
+ * reason is nearly always one that doesn't go away, like a target directory on another device.
+ * </p>
  */
-public class RealFileSystem implements FileSystem {
+public class RealFileSystem implements FileSystem, Closeable {
 
     private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final long MAPPED_READ_THRESHOLD = 1024 * 1024;
+    private static final long THROTTLED_COPY_CHUNK_SIZE = 256 * 1024;
+    private static final long LARGE_FILE_THRESHOLD = 1024 * 1024;
     private static final Comparator<? super Path> DEFAULT_PATH_COMPARATOR = new Comparator<Path>() {
         @Override
         public int compare(Path path1, Path path2) {
@@ -45,6 +81,64 @@ public class RealFileSystem implements FileSystem {
         }
     };
 
+    private final ParallelDirectoryWalker parallelWalker;
+    private final Throttle throttle;
+    private final FileSyncer syncer;
+    private final CopyStrategy copyStrategy;
+    private volatile boolean linking = true;
+    private volatile boolean cloning = true;
+
+    public RealFileSystem() {
+        this(1);
+    }
+
+    /**
+     * @param workers Number of threads to walk directories with.
+     */
+    public RealFileSystem(int workers) {
+        this(workers, Throttle.UNLIMITED);
+    }
+
+    /**
+     * @param workers  Number of threads to walk directories with.
+     * @param throttle Throttle for copies, deletions and writes.
+     */
+    public RealFileSystem(int workers, Throttle throttle) {
+        this(workers, throttle, Durability.NONE);
+    }
+
+    /**
+     * @param workers    Number of threads to walk directories with.
+     * @param throttle   Throttle for copies, deletions and writes.
+     * @param durability When to sync copies, deletions and writes to disk.
+     */
+    public RealFileSystem(int workers, Throttle throttle, Durability durability) {
+        this(workers, throttle, durability, CopyStrategy.FULL);
+    }
+
+    /**
+     * @param workers      Number of threads to walk directories with.
+     * @param throttle     Throttle for copies, deletions and writes.
+     * @param durability   When to sync copies, deletions and writes to disk.
+     * @param copyStrategy How to copy files.
+     */
+    public RealFileSystem(int workers, Throttle throttle, Durability durability, CopyStrategy copyStrategy) {
+        this.parallelWalker = workers > 1 ? new ParallelDirectoryWalker(workers) : null;
+        this.throttle = throttle;
+        this.syncer = new FileSyncer(durability);
+        this.copyStrategy = copyStrategy;
+    }
+
+    /**
+     * Stops the threads to walk directories with, if there are any. After that the file system can't be used anymore.
+     */
+    @Override
+    public void close() {
+        if (parallelWalker != null) {
+            parallelWalker.close();
+        }
+    }
+
     @Override
     public Path resolveSourceDirectory(String directoryName) throws IOException {
         final Path path = createPath(directoryName);
@@ -72,8 +166,9 @@ public class RealFileSystem implements FileSystem {
         if (!Files.isWritable(path)) {
             throw new IOException("Directory not writable: " + path);
         }
+        final Path realPath = path.toRealPath();
         final TargetStatus status = new TargetStatus();
-        Files.walkFileTree(path, Collections.<FileVisitOption>emptySet(), 1, new SimpleFileVisitor<Path>() {
+        Files.walkFileTree(realPath, Collections.<FileVisitOption>emptySet(), 1, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
                 if (MAGISTO_EXPORT_MARKER_FILE.equals(file.getFileName().toString())) {
@@ -87,7 +182,26 @@ public class RealFileSystem implements FileSystem {
         if (status.hasFiles && !status.isExport) {
             throw new IOException("Directory not empty and not an export: " + path);
         }
-        return path.toRealPath();
+        return realPath;
+    }
+
+    @Override
+    public Path stageTargetDirectory(String directoryName) throws IOException {
+        final Path path = createPath(directoryName);
+        if (Files.exists(path)) {
+            prepareTargetDirectory(directoryName);
+        }
+        return new Generations(path).stage();
+    }
+
+    @Override
+    public void publishTargetDirectory(String directoryName, Path stagingRoot, int generations) throws IOException {
+        final Path target = createPath(directoryName);
+        syncer.sync();
+        final Path generation = new Generations(target).publish(requireAbsolutePath(stagingRoot), generations);
+        syncer.entryChanged(generation);
+        syncer.entryChanged(target.toAbsolutePath());
+        syncer.sync();
     }
 
     @Override
@@ -105,10 +219,10 @@ public class RealFileSystem implements FileSystem {
     @Override
     public void writeTouchFile(Path targetRoot) throws IOException {
         final Path touchFile = requireAbsolutePath(targetRoot).resolve(MAGISTO_EXPORT_MARKER_FILE);
-        if (Files.exists(touchFile)) {
-            Files.delete(touchFile);
-        }
+        Files.deleteIfExists(touchFile);
         Files.createFile(touchFile);
+        syncer.fileWritten(touchFile);
+        syncer.sync();
     }
 
     @Override
@@ -126,29 +240,68 @@ public class RealFileSystem implements FileSystem {
     }
 
     @Override
-    public SortedSet<Path> findAllPaths(final Path root, Comparator<? super Path> comparator) throws IOException {
+    public SortedSet<Path> findAllPaths(Path root, Comparator<? super Path> comparator) throws IOException {
         final SortedSet<Path> paths = new TreeSet<>(comparator);
+        for (PathEntry entry : walk(root)) {
+            paths.add(entry.getPath());
+        }
+        return paths;
+    }
+
+    @Override
+    public List<PathEntry> findAllEntries(Path root) throws IOException {
+        return findAllEntries(root, DEFAULT_PATH_COMPARATOR);
+    }
+
+    @Override
+    public List<PathEntry> findAllEntries(Path root, final Comparator<? super Path> comparator) throws IOException {
+        final List<PathEntry> entries = walk(root);
+        sortEntries(entries, comparator);
+        return entries;
+    }
+
+    /*
+    Walks a directory, keeping the attributes the walk provides anyway. Hidden files and directories are skipped. To
+    decide whether a path is hidden the attributes are used as well, instead of asking the file system again.
+     */
+    private List<PathEntry> walk(final Path root) throws IOException {
+        if (parallelWalker != null) {
+            return parallelWalker.walk(requireAbsolutePath(root));
+        }
+        final List<PathEntry> entries = new ArrayList<>();
         Files.walkFileTree(requireAbsolutePath(root), new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attributes) throws IOException {
-                if (root != path && Files.isHidden(path)) {
-                    return FileVisitResult.SKIP_SUBTREE;
-                }
                 if (root != path) {
-                    paths.add(root.relativize(path));
+                    if (isHidden(path, attributes)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    entries.add(createEntry(root, path, attributes));
                 }
                 return FileVisitResult.CONTINUE;
             }
 
             @Override
             public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
-                if (!Files.isHidden(path)) {
-                    paths.add(root.relativize(path));
+                if (!isHidden(path, attributes)) {
+                    entries.add(createEntry(root, path, attributes));
                 }
                 return FileVisitResult.CONTINUE;
             }
         });
-        return paths;
+        return entries;
+    }
+
+    static boolean isHidden(Path path, BasicFileAttributes attributes) {
+        if (path.getFileName().toString().startsWith(".")) {
+            return true;
+        }
+        return attributes instanceof DosFileAttributes && ((DosFileAttributes) attributes).isHidden();
+    }
+
+    static PathEntry createEntry(Path root, Path path, BasicFileAttributes attributes) {
+        return new PathEntry(root.relativize(path), attributes.isDirectory(), attributes.size(),
+                attributes.lastModifiedTime().toMillis());
     }
 
     @Override
@@ -157,6 +310,29 @@ public class RealFileSystem implements FileSystem {
         return Files.getLastModifiedTime(path).toMillis();
     }
 
+    @Override
+    public long getSize(Path path) throws IOException {
+        requireAbsolutePath(path);
+        return Files.size(path);
+    }
+
+    @Override
+    public String computeContentHash(Path path) throws IOException {
+        requireAbsolutePath(path);
+        final MessageDigest digest = ContentHashes.newDigest();
+        if (!Files.isDirectory(path)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+            try (final FileChannel channel = FileChannel.open(path, READ)) {
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        return ContentHashes.toHex(digest.digest());
+    }
+
     @Override
     public void copy(Path sourceRoot, Path targetRoot, Path path) throws IOException {
         requireAbsolutePath(sourceRoot);
@@ -166,12 +342,149 @@ public class RealFileSystem implements FileSystem {
                 String.format("Copying '%s' from '%s' to '%s'.", path, sourceRoot, targetRoot));
         final Path source = sourceRoot.resolve(path);
         final Path target = targetRoot.resolve(path);
+        throttle.acquireOperation();
         if (Files.isDirectory(source)) {
             if (Files.notExists(target)) {
-                Files.createDirectory(target);
+                createDirectoryIfAbsent(target);
+                syncer.entryChanged(target);
             }
+            return;
+        }
+        if (copyFile(source, target)) {
+            syncer.entryChanged(target);
         } else {
+            syncer.fileWritten(target);
+        }
+    }
+
+    /*
+    Every strategy replaces an existing target instead of overwriting it. That target may well be a link to a source
+    file, or to a file in a previous generation, and those must be left alone. A link shares its data with the source,
+    which isn't written at all; only the directory it's in changes. That's why linking is reported back.
+     */
+    private boolean copyFile(Path source, Path target) throws IOException {
+        final boolean large = Files.size(source) >= LARGE_FILE_THRESHOLD;
+        for (CopyStrategy strategy = copyStrategy; strategy != null; strategy = strategy.getFallback()) {
+            if (strategy == CopyStrategy.HARDLINK && link(source, target)) {
+                return true;
+            }
+            if (strategy == CopyStrategy.REFLINK && large && cloneFile(source, target)) {
+                return false;
+            }
+            if (strategy == CopyStrategy.TRANSFER && large) {
+                transfer(source, target);
+                return false;
+            }
+        }
+        if (throttle.isUnlimited()) {
             Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        } else {
+            transfer(source, target);
+        }
+        return false;
+    }
+
+    private boolean link(Path source, Path target) throws IOException {
+        if (!linking) {
+            return false;
+        }
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            Logger.getGlobal().log(Level.FINE, String.format("Could not link '%s', copying files instead: %s",
+                    source, e));
+            linking = false;
+            return false;
+        }
+    }
+
+    /*
+    There's no way to clone a file in Java, so it's left to the cp command. It clones, or it fails; it never falls
+    back to a copy of its own. That's left to the caller, which can do it faster.
+     */
+    private boolean cloneFile(Path source, Path target) throws IOException {
+        if (!cloning) {
+            return false;
+        }
+        Files.deleteIfExists(target);
+        final List<String> command = System.getProperty("os.name").toLowerCase().contains("mac")
+                ? Arrays.asList("cp", "-c", "-p", source.toString(), target.toString())
+                : Arrays.asList("cp", "--reflink=always", "--preserve=mode,timestamps", source.toString(),
+                target.toString());
+        final StringBuilder output = new StringBuilder();
+        int exitCode;
+        try {
+            final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                    CHARSET_UTF8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    output.append(line);
+                }
+            }
+            exitCode = process.waitFor();
+        } catch (IOException e) {
+            output.append(e);
+            exitCode = -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cloning " + source);
+        }
+        if (exitCode == 0) {
+            return true;
+        }
+        Logger.getGlobal().log(Level.FINE, String.format("Could not clone '%s', copying files instead: %s",
+                source, output));
+        cloning = false;
+        Files.deleteIfExists(target);
+        return false;
+    }
+
+    /*
+    A transfer goes from channel to channel. When throttled, it goes in chunks, so that a large file doesn't first go
+    at full speed, after which everything else has to wait. Like a regular copy it keeps the timestamp and, if there
+    are any, the permissions. If the source turns out shorter than it was, the copy fails instead of leaving a
+    truncated target behind; with the timestamp of the source, the next export would take that for up to date.
+     */
+    private void transfer(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try (final FileChannel in = FileChannel.open(source, READ);
+             final FileChannel out = FileChannel.open(target, CREATE_NEW, WRITE)) {
+            final long size = in.size();
+            final long chunkSize = throttle.isUnlimited() ? size : THROTTLED_COPY_CHUNK_SIZE;
+            long position = 0;
+            while (position < size) {
+                final long count = Math.min(chunkSize, size - position);
+                throttle.acquireBytes(count);
+                final long transferred = in.transferTo(position, count, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            if (position < size) {
+                out.close();
+                Files.delete(target);
+                throw new IOException(String.format("Could not copy '%s'; only %d of its %d bytes were copied. " +
+                        "Was it changed during the copy?", source, position, size));
+            }
+        }
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        final PosixFileAttributeView permissions = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (permissions != null) {
+            permissions.setPermissions(Files.getPosixFilePermissions(source));
+        }
+    }
+
+    private void createDirectoryIfAbsent(Path directory) throws IOException {
+        try {
+            Files.createDirectory(directory);
+        } catch (FileAlreadyExistsException e) {
+            if (!Files.isDirectory(directory)) {
+                throw e;
+            }
         }
     }
 
@@ -180,7 +493,73 @@ public class RealFileSystem implements FileSystem {
         requireAbsolutePath(root);
         requireRelativePath(path);
         Logger.getGlobal().log(Level.FINE, String.format("Deleting '%s' from '%s'.", path, root));
-        Files.delete(root.resolve(path));
+        throttle.acquireOperation();
+        final Path target = root.resolve(path);
+        Files.delete(target);
+        syncer.entryChanged(target);
+    }
+
+    /*
+    Every file and directory in the tree is a throttled operation of its own, but there's only a single log line, and
+    only the directory that held the tree needs to be synced.
+     */
+    @Override
+    public void deleteTree(Path root, Path path) throws IOException {
+        requireAbsolutePath(root);
+        requireRelativePath(path);
+        Logger.getGlobal().log(Level.FINE, String.format("Deleting '%s' and everything in it from '%s'.", path, root));
+        final Path target = root.resolve(path);
+        if (parallelWalker != null) {
+            parallelWalker.delete(target, throttle);
+        } else {
+            Files.walkFileTree(target, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+                    throttle.acquireOperation();
+                    Files.delete(path);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path path, IOException exception) throws IOException {
+                    if (exception != null) {
+                        throw exception;
+                    }
+                    throttle.acquireOperation();
+                    Files.delete(path);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        syncer.entryChanged(target);
+    }
+
+    /*
+    A move within the target directory is a rename, so it keeps the timestamp of the file.
+     */
+    @Override
+    public void move(Path root, Path fromPath, Path toPath) throws IOException {
+        requireAbsolutePath(root);
+        requireRelativePath(fromPath);
+        requireRelativePath(toPath);
+        Logger.getGlobal().log(Level.FINE, String.format("Moving '%s' to '%s' in '%s'.", fromPath, toPath, root));
+        throttle.acquireOperation();
+        final Path source = root.resolve(fromPath);
+        final Path target = root.resolve(toPath);
+        createParentDirectories(target);
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        syncer.entryChanged(source);
+        syncer.entryChanged(target);
+    }
+
+    private void createParentDirectories(Path path) throws IOException {
+        final Path parent = path.getParent();
+        if (parent == null || Files.isDirectory(parent)) {
+            return;
+        }
+        createParentDirectories(parent);
+        createDirectoryIfAbsent(parent);
+        syncer.entryChanged(parent);
     }
 
     @Override
@@ -188,9 +567,78 @@ public class RealFileSystem implements FileSystem {
         return Files.newBufferedReader(path, CHARSET_UTF8);
     }
 
+    /*
+    The file is decoded straight from a byte buffer into a char array. In UTF-8 a character never takes less than a
+    byte, so an array as long as the file fits all characters. If the file contains multi-byte characters, part of the
+    array is left unused; the buffer's limit tells where the characters end. Two more chars are reserved at the end,
+    since the Markdown parser wants the text followed by two line breaks: for a file without multi-byte characters it
+    can then add those in place and parse the array as is. Large files are mapped into memory instead of copied onto
+    the heap first.
+     */
+    @Override
+    public CharBuffer readTextFile(Path path) throws IOException {
+        requireAbsolutePath(path);
+        try (final FileChannel channel = FileChannel.open(path, READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to read as text: " + path);
+            }
+            final ByteBuffer bytes;
+            if (size >= MAPPED_READ_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining()) {
+                    if (channel.read(bytes) == -1) {
+                        break;
+                    }
+                }
+                bytes.flip();
+            }
+            final CharBuffer charBuffer = CharBuffer.allocate(bytes.remaining() + 2);
+            final CharsetDecoder decoder = CHARSET_UTF8.newDecoder();
+            requireComplete(decoder.decode(bytes, charBuffer, true), path);
+            requireComplete(decoder.flush(charBuffer), path);
+            charBuffer.flip();
+            return charBuffer;
+        }
+    }
+
+    private void requireComplete(CoderResult result, Path path) throws IOException {
+        if (result.isError()) {
+            result.throwException();
+        }
+        if (result.isOverflow()) {
+            throw new IOException("Could not decode text file: " + path);
+        }
+    }
+
+    /*
+    An existing file is deleted first, instead of truncated. If it's hard linked from a staging directory, the file in
+    the previous generation is left alone. The file is synced, if at all, only once the writer is closed.
+     */
     @Override
     public BufferedWriter newBufferedWriterForTextFile(Path path) throws IOException {
-        return Files.newBufferedWriter(path, CHARSET_UTF8, CREATE, WRITE, TRUNCATE_EXISTING);
+        throttle.acquireOperation();
+        Files.deleteIfExists(path);
+        final OutputStream out = Files.newOutputStream(path, CREATE, WRITE, TRUNCATE_EXISTING);
+        return new BufferedWriter(new OutputStreamWriter(new TargetOutputStream(out, path),
+                CHARSET_UTF8.newEncoder()));
+    }
+
+    @Override
+    public void sync() throws IOException {
+        syncer.sync();
+    }
+
+    @Override
+    public long getThrottledTimeInNanos() {
+        return throttle.getThrottledTimeInNanos();
+    }
+
+    @Override
+    public long getSyncTimeInNanos() {
+        return syncer.getSyncTimeInNanos();
     }
 
     @Override
@@ -203,6 +651,47 @@ public class RealFileSystem implements FileSystem {
         return Files.notExists(path);
     }
 
+    @Override
+    public boolean isDirectory(Path path) {
+        return Files.isDirectory(path);
+    }
+
+    /*
+    Output stream to a file in the target directory, which is throttled while it's written, and synced once it's
+    closed. Writes go to the underlying stream as a whole, instead of byte by byte.
+     */
+    private final class TargetOutputStream extends FilterOutputStream {
+        private final Path path;
+        private boolean closed = false;
+
+        private TargetOutputStream(OutputStream out, Path path) {
+            super(out);
+            this.path = path;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throttle.acquireBytes(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            throttle.acquireBytes(length);
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            super.close();
+            syncer.fileWritten(path);
+        }
+    }
+
     private static class TargetStatus {
         boolean isExport = false;
         boolean hasFiles = false;
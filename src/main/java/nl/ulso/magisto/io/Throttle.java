@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.io;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of file system access, in bytes and in operations per second, so that an export doesn't hog a disk
+ * that's shared with others.
+ * <p>
+ * Each limit is a token bucket that holds up to a second's worth of tokens, so short bursts go at full speed. Taking
+ * more tokens than there are is allowed, but the bucket then goes into debt, and the caller waits until it's paid
+ * off. That way a single large request doesn't have to be split up to get through, and callers are served in the
+ * order in which they ask.
+ * </p>
+ * <p>
+ * Instances are safe for use by multiple threads at once. The total time that callers waited is kept.
+ * </p>
+ */
+public final class Throttle {
+
+    /**
+     * A throttle that never waits.
+     */
+    public static final Throttle UNLIMITED = new Throttle(0, 0);
+
+    private final Bucket bytes;
+    private final Bucket operations;
+    private final AtomicLong throttledTimeInNanos = new AtomicLong();
+
+    /**
+     * @param bytesPerSecond      Maximum number of bytes per second; 0 means no limit.
+     * @param operationsPerSecond Maximum number of operations per second; 0 means no limit.
+     */
+    public Throttle(long bytesPerSecond, long operationsPerSecond) {
+        this.bytes = bytesPerSecond > 0 ? new Bucket(bytesPerSecond) : null;
+        this.operations = operationsPerSecond > 0 ? new Bucket(operationsPerSecond) : null;
+    }
+
+    boolean isUnlimited() {
+        return bytes == null && operations == null;
+    }
+
+    /**
+     * Waits until a single operation may be performed.
+     */
+    void acquireOperation() throws InterruptedIOException {
+        if (operations != null) {
+            await(operations.take(1));
+        }
+    }
+
+    /**
+     * Waits until a number of bytes may be transferred.
+     */
+    void acquireBytes(long count) throws InterruptedIOException {
+        if (bytes != null && count > 0) {
+            await(bytes.take(count));
+        }
+    }
+
+    long getThrottledTimeInNanos() {
+        return throttledTimeInNanos.get();
+    }
+
+    private void await(long waitTimeInNanos) throws InterruptedIOException {
+        if (waitTimeInNanos <= 0) {
+            return;
+        }
+        throttledTimeInNanos.addAndGet(waitTimeInNanos);
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitTimeInNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+
+    /*
+    Tokens are added lazily, based on the time passed since the last time any were taken.
+     */
+    private static final class Bucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        private Bucket(long tokensPerSecond) {
+            this.tokensPerNano = tokensPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+            this.capacity = tokensPerSecond;
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        /*
+        Returns the time to wait before the tokens taken are actually available.
+         */
+        private synchronized long take(long count) {
+            final long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+            tokens -= count;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+        }
+    }
+}
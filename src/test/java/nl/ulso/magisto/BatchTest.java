@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.Batch.Export;
+import nl.ulso.magisto.Batch.Result;
+import nl.ulso.magisto.action.DummyActionFactory;
+import nl.ulso.magisto.converter.DummyFileConverterFactory;
+import nl.ulso.magisto.io.DummyFileSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static nl.ulso.magisto.action.ActionType.CONVERT_SOURCE;
+import static nl.ulso.magisto.action.ActionType.COPY_SOURCE;
+import static nl.ulso.magisto.io.DummyPathEntry.createPathEntry;
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.*;
+
+public class BatchTest {
+
+    @Before
+    public void setUp() throws Exception {
+        DummyLogHandler.install();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DummyLogHandler.uninstall();
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        final List<Export> exports = Batch.parse(Arrays.asList("# Sites", "", "docs -> site/docs",
+                "  /src/blog->/var/www/blog  "), createPath("/base"));
+        assertEquals(2, exports.size());
+        assertEquals(createPath("/base", "docs").toString(), exports.get(0).getSourceDirectory());
+        assertEquals(createPath("/base", "site", "docs").toString(), exports.get(0).getTargetDirectory());
+        assertEquals("/src/blog", exports.get(1).getSourceDirectory());
+        assertEquals("/var/www/blog", exports.get(1).getTargetDirectory());
+    }
+
+    @Test
+    public void testParseInvalidLine() throws Exception {
+        try {
+            Batch.parse(Arrays.asList("docs -> site", "blog ->"), createPath(""));
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("Line 2"));
+        }
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        fileSystem.registerTextFileForBufferedReader("sites.batch", "docs -> site");
+        final List<Export> exports = Batch.read(fileSystem, createPath("/etc", "sites.batch"));
+        assertEquals(1, exports.size());
+        assertEquals(createPath("/etc", "docs").toString(), exports.get(0).getSourceDirectory());
+    }
+
+    @Test
+    public void testRunSequentially() throws Exception {
+        final List<Result> results = createBatch(1, "one -> target", "two -> target").run();
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(1, results.get(0).getStatistics().countFor(CONVERT_SOURCE));
+        assertEquals(1, results.get(1).getStatistics().countFor(COPY_SOURCE));
+    }
+
+    @Test
+    public void testRunOnSharedWorkers() throws Exception {
+        final List<Result> results = createBatch(2, "one -> target", "two -> target", "one -> other").run();
+        assertEquals(3, results.size());
+        for (Result result : results) {
+            assertTrue(result.isSuccess());
+        }
+        assertEquals(1, results.get(2).getStatistics().countFor(CONVERT_SOURCE));
+    }
+
+    @Test
+    public void testFailureDoesNotAbortOtherExports() throws Exception {
+        final List<Result> results = createBatch(2, "fail -> target", "two -> target").run();
+        assertFalse(results.get(0).isSuccess());
+        assertThat(results.get(0).getFailure().getMessage(), containsString("--expected--"));
+        assertTrue(results.get(1).isSuccess());
+        assertEquals(1, results.get(1).getStatistics().countFor(COPY_SOURCE));
+    }
+
+    @Test
+    public void testStoppedBatchStartsNothing() throws Exception {
+        final Batch batch = createBatch(1, "one -> target");
+        assertTrue(batch.stop(0, TimeUnit.SECONDS));
+        final List<Result> results = batch.run();
+        assertFalse(results.get(0).isSuccess());
+        assertTrue(results.get(0).getFailure() instanceof InterruptedIOException);
+    }
+
+    /*
+    Each export gets a file system of its own, since the dummy isn't thread-safe. Source directory "one" holds a file
+    to convert, "two" a file to copy, and "fail" fails.
+     */
+    private Batch createBatch(final int workers, String... lines) throws IOException {
+        return new Batch(Batch.parse(Arrays.asList(lines), createPath("")), new ExportOptions().workers(workers)) {
+            @Override
+            Magisto createMagisto(final Export export, Executor lane) {
+                final DummyFileSystem fileSystem = new DummyFileSystem();
+                if (export.getSourceDirectory().equals("one")) {
+                    fileSystem.addSourcePaths(createPathEntry("foo.convert"));
+                } else {
+                    fileSystem.addSourcePaths(createPathEntry("bar.txt"));
+                }
+                return new Magisto(new Magisto.Builder(fileSystem, new DummyActionFactory(),
+                        new DummyFileConverterFactory()).workers(workers).sharedExecutor(lane)) {
+                    @Override
+                    public Statistics run(String sourceDirectory, String targetDirectory) throws IOException {
+                        if (sourceDirectory.equals("fail")) {
+                            throw new IOException("--expected--");
+                        }
+                        return super.run(sourceDirectory, targetDirectory);
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.DummyFileSystem;
+import nl.ulso.magisto.io.PathEntry;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BuildManifestTest {
+
+    @Test
+    public void testNoManifest() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        assertNull(BuildManifest.read(fileSystem, fileSystem.prepareTargetDirectory("target")));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        final BuildManifest manifest = new BuildManifest("fingerprint");
+        manifest.putSourceHash(createPath("dir", "file with spaces.md"), "hash1");
+        manifest.putStaticHash(createPath("favicon.ico"), "hash2");
+        manifest.write(fileSystem, targetRoot);
+        fileSystem.registerTextFileForBufferedReader(BuildManifest.MANIFEST_FILE,
+                fileSystem.getTextFileFromBufferedWriter(BuildManifest.MANIFEST_FILE));
+
+        final BuildManifest copy = BuildManifest.read(fileSystem, targetRoot);
+        assertEquals("fingerprint", copy.getFingerprint());
+        assertEquals("hash1", copy.getSourceHash(createPath("dir", "file with spaces.md")));
+        assertEquals("hash2", copy.getStaticHash(createPath("favicon.ico")));
+        assertNull(copy.getSourceHash(createPath("favicon.ico")));
+    }
+
+    @Test
+    public void testPathsWithTabsAndLineBreaks() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        final BuildManifest manifest = new BuildManifest("fingerprint");
+        manifest.putSourceHash(createPath("dir\twith tab", "file\nwith\\break.md"), "hash1");
+        manifest.putStaticHash(createPath("file\r.css"), "hash2");
+        manifest.write(fileSystem, targetRoot);
+        final String text = fileSystem.getTextFileFromBufferedWriter(BuildManifest.MANIFEST_FILE);
+        assertEquals(3, text.split("\n").length);
+        fileSystem.registerTextFileForBufferedReader(BuildManifest.MANIFEST_FILE, text);
+
+        final BuildManifest copy = BuildManifest.read(fileSystem, targetRoot);
+        assertEquals("hash1", copy.getSourceHash(createPath("dir\twith tab", "file\nwith\\break.md")));
+        assertEquals("hash2", copy.getStaticHash(createPath("file\r.css")));
+    }
+
+    @Test
+    public void testUnchangedHash() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        final long timestamp = System.currentTimeMillis() - 60000;
+        final BuildManifest manifest = new BuildManifest("fingerprint");
+        manifest.putSourceHash(new PathEntry(createPath("old.md"), false, 42, timestamp), "hash1");
+        manifest.putSourceHash(new PathEntry(createPath("new.md"), false, 42, System.currentTimeMillis()), "hash2");
+        manifest.putStaticHash(new PathEntry(createPath("favicon.ico"), false, 42, timestamp), "hash3");
+        manifest.write(fileSystem, targetRoot);
+        fileSystem.registerTextFileForBufferedReader(BuildManifest.MANIFEST_FILE,
+                fileSystem.getTextFileFromBufferedWriter(BuildManifest.MANIFEST_FILE));
+
+        final BuildManifest copy = BuildManifest.read(fileSystem, targetRoot);
+        assertEquals("hash1", copy.getUnchangedSourceHash(new PathEntry(createPath("old.md"), false, 42, timestamp)));
+        assertNull(copy.getUnchangedSourceHash(new PathEntry(createPath("old.md"), false, 43, timestamp)));
+        assertNull(copy.getUnchangedSourceHash(new PathEntry(createPath("old.md"), false, 42, timestamp + 1)));
+        assertEquals("hash3", copy.getUnchangedStaticHash(
+                new PathEntry(createPath("favicon.ico"), false, 42, timestamp)));
+        final PathEntry newEntry = new PathEntry(createPath("new.md"), false, 42, System.currentTimeMillis());
+        assertNull(copy.getUnchangedSourceHash(newEntry)); // Modified too recently to trust
+        assertEquals("hash2", copy.getSourceHash(createPath("new.md")));
+    }
+
+    @Test
+    public void testInvalidManifestIsIgnored() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        fileSystem.registerTextFileForBufferedReader(BuildManifest.MANIFEST_FILE,
+                String.format("fingerprint\tfoo%nsomething else%n"));
+        assertNull(BuildManifest.read(fileSystem, fileSystem.prepareTargetDirectory("target")));
+    }
+
+    @Test
+    public void testManifestWithInvalidSizeIsIgnored() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        fileSystem.registerTextFileForBufferedReader(BuildManifest.MANIFEST_FILE,
+                String.format("fingerprint\tfoo%nsource\thash\tlarge\t42\tindex.md%n"));
+        assertNull(BuildManifest.read(fileSystem, fileSystem.prepareTargetDirectory("target")));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.ContentHashes;
+import nl.ulso.magisto.io.DummyFileSystem;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static nl.ulso.magisto.io.DummyPathEntry.createPathEntry;
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.junit.Assert.assertEquals;
+
+public class ChangeFeedTest {
+
+    @Test
+    public void testWrite() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        fileSystem.addTargetPaths(createPathEntry("new.html").withContent("new"),
+                createPathEntry("old.txt").withContent("old content"));
+        final ChangeFeed changeFeed = new ChangeFeed();
+        changeFeed.written(createPath("old.txt"), false);
+        changeFeed.written(createPath("new.html"), true);
+        changeFeed.deleted(createPath("gone.html"));
+        changeFeed.copied(createPath("old.txt"), ContentHashes.hash("old content"));
+        changeFeed.converted(createPath("new.html"));
+        changeFeed.write(fileSystem, targetRoot);
+        assertEquals(String.format("deleted\t-\t-\tgone.html%n" +
+                        "created\t3\t%s\tnew.html%n" +
+                        "overwritten\t11\t%s\told.txt%n",
+                ContentHashes.hash("new"), ContentHashes.hash("old content")),
+                fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE));
+    }
+
+    @Test
+    public void testOnlyConvertedFilesAreHashed() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        fileSystem.addTargetPaths(createPathEntry("page.html").withContent("page"),
+                createPathEntry("image.png").withContent("image"));
+        final ChangeFeed changeFeed = new ChangeFeed();
+        changeFeed.written(createPath("page.html"), true);
+        changeFeed.written(createPath("image.png"), true);
+        changeFeed.converted(createPath("page.html"));
+        changeFeed.copied(createPath("image.png"), "source-hash");
+        changeFeed.write(fileSystem, targetRoot);
+        assertEquals(1, fileSystem.getContentHashCount());
+        assertEquals(String.format("created\t5\tsource-hash\timage.png%n" +
+                        "created\t4\t%s\tpage.html%n", ContentHashes.hash("page")),
+                fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE));
+    }
+
+    @Test
+    public void testSkippedFileIsDeletedUnlessItWasNew() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        final ChangeFeed changeFeed = new ChangeFeed();
+        changeFeed.written(createPath("new.html"), true);
+        changeFeed.written(createPath("old.html"), false);
+        changeFeed.skipped(createPath("new.html"));
+        changeFeed.skipped(createPath("old.html"));
+        changeFeed.write(fileSystem, targetRoot);
+        assertEquals(String.format("deleted\t-\t-\told.html%n"),
+                fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE));
+    }
+
+    @Test
+    public void testPathThatIsDeletedToMakeWayIsWritten() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        fileSystem.addTargetPaths(createPathEntry("page.html").withContent("page"));
+        final ChangeFeed changeFeed = new ChangeFeed();
+        changeFeed.written(createPath("page.html"), true);
+        changeFeed.deleted(createPath("page.html"));
+        changeFeed.converted(createPath("page.html"));
+        changeFeed.write(fileSystem, targetRoot);
+        assertEquals(String.format("created\t4\t%s\tpage.html%n", ContentHashes.hash("page")),
+                fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE));
+    }
+
+    @Test
+    public void testFileThatWasNotPerformedIsLeftOut() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        final ChangeFeed changeFeed = new ChangeFeed();
+        changeFeed.written(createPath("too-large.html"), true);
+        changeFeed.write(fileSystem, targetRoot);
+        assertEquals("", fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE));
+    }
+
+    @Test
+    public void testPathDeletedAlongWithAnotherIsListedOnceThatIsPerformed() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        fileSystem.addTargetPaths(createPathEntry("new.txt").withContent("moved"));
+        final ChangeFeed changeFeed = new ChangeFeed();
+        changeFeed.written(createPath("new.txt"), true);
+        changeFeed.deletedWith(createPath("old.txt"), createPath("new.txt"));
+        changeFeed.deletedWith(createPath("dir", "file.txt"), createPath("dir"));
+        changeFeed.deletedWith(createPath("other", "file.txt"), createPath("other"));
+        changeFeed.moved(createPath("new.txt"), "moved-hash");
+        changeFeed.deleted(createPath("dir"));
+        changeFeed.write(fileSystem, targetRoot);
+        assertEquals(String.format("deleted\t-\t-\tdir%n" +
+                        "deleted\t-\t-\tdir/file.txt%n" +
+                        "created\t5\tmoved-hash\tnew.txt%n" +
+                        "deleted\t-\t-\told.txt%n"),
+                fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE));
+    }
+}
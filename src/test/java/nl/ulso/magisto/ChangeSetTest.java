@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.junit.Assert.*;
+
+public class ChangeSetTest {
+
+    private Path sourceRoot;
+    private ChangeSet changes;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceRoot = createPath("source").toAbsolutePath();
+        changes = new ChangeSet(sourceRoot, ".static");
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertTrue(changes.isEmpty());
+        assertFalse(changes.isComplete());
+    }
+
+    @Test
+    public void testSourcePath() throws Exception {
+        changes.add(sourceRoot.resolve("foo.md"));
+        assertFalse(changes.isEmpty());
+        assertEquals(1, changes.getSourcePaths().size());
+        assertEquals(createPath("foo.md"), changes.getSourcePaths().first());
+        assertTrue(changes.getStaticPaths().isEmpty());
+    }
+
+    @Test
+    public void testStaticPath() throws Exception {
+        changes.add(sourceRoot.resolve(".static").resolve("favicon.ico"));
+        assertEquals(createPath("favicon.ico"), changes.getStaticPaths().first());
+        assertTrue(changes.getSourcePaths().isEmpty());
+    }
+
+    @Test
+    public void testStaticRootIsComplete() throws Exception {
+        changes.add(sourceRoot.resolve(".static"));
+        assertTrue(changes.isComplete());
+    }
+
+    @Test
+    public void testHiddenPathsAreIgnored() throws Exception {
+        changes.add(sourceRoot.resolve(".git").resolve("index"));
+        changes.add(sourceRoot.resolve("directory").resolve(".hidden"));
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testHiddenFileInRootIsOtherChange() throws Exception {
+        changes.add(sourceRoot.resolve(".page.ftl"));
+        assertFalse(changes.isEmpty());
+        assertTrue(changes.getSourcePaths().isEmpty());
+    }
+
+    @Test
+    public void testDescendantsAreRemoved() throws Exception {
+        changes.add(sourceRoot.resolve("directory").resolve("foo.md"));
+        changes.add(sourceRoot.resolve("directory"));
+        changes.add(sourceRoot.resolve("directory2"));
+        assertEquals(2, changes.getSourcePaths().size());
+        assertTrue(changes.getSourcePaths().contains(createPath("directory")));
+        assertTrue(changes.getSourcePaths().contains(createPath("directory2")));
+    }
+
+    @Test
+    public void testPathsOutsideSourceAreIgnored() throws Exception {
+        changes.add(createPath("elsewhere").toAbsolutePath().resolve("foo.md"));
+        assertTrue(changes.isEmpty());
+    }
+}
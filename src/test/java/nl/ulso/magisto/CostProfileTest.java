@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.DummyFileSystem;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.junit.Assert.assertEquals;
+
+public class CostProfileTest {
+
+    @Test
+    public void testNoProfile() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final CostProfile profile = CostProfile.read(fileSystem, fileSystem.prepareTargetDirectory("target"));
+        assertEquals(0, profile.estimateCost(createPath("page.md")));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        final BuildManifest manifest = new BuildManifest("fingerprint");
+        manifest.putSourceHash(createPath("dir", "slow page.md"), "hash1");
+        manifest.putSourceHash(createPath("fast.md"), "hash2");
+        final CostProfile profile = CostProfile.read(fileSystem, targetRoot);
+        profile.record(createPath("dir", "slow page.md"), 30000000000L, 1024);
+        profile.record(createPath("fast.md"), 2000000, -1);
+        profile.record(createPath("deleted.md"), 1000000, 42);
+        profile.write(fileSystem, targetRoot, manifest);
+        fileSystem.registerTextFileForBufferedReader(CostProfile.PROFILE_FILE,
+                fileSystem.getTextFileFromBufferedWriter(CostProfile.PROFILE_FILE));
+
+        final CostProfile copy = CostProfile.read(fileSystem, targetRoot);
+        assertEquals(30000000, copy.estimateCost(createPath("dir", "slow page.md")));
+        assertEquals(2000, copy.estimateCost(createPath("fast.md")));
+        assertEquals(0, copy.estimateCost(createPath("deleted.md"))); // No longer in the manifest
+    }
+
+    @Test
+    public void testInvalidProfileIsIgnored() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        fileSystem.registerTextFileForBufferedReader(CostProfile.PROFILE_FILE,
+                String.format("1000\t42\tpage.md%nsomething else%n"));
+        final CostProfile profile = CostProfile.read(fileSystem, fileSystem.prepareTargetDirectory("target"));
+        assertEquals(0, profile.estimateCost(createPath("page.md")));
+    }
+}
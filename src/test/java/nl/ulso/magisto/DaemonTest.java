@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.DaemonProtocol.Request;
+import nl.ulso.magisto.action.DummyActionFactory;
+import nl.ulso.magisto.converter.DummyFileConverterFactory;
+import nl.ulso.magisto.io.DummyFileSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static nl.ulso.magisto.action.ActionType.CONVERT_SOURCE;
+import static nl.ulso.magisto.action.ActionType.COPY_SOURCE;
+import static nl.ulso.magisto.io.DummyPathEntry.createPathEntry;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.*;
+
+public class DaemonTest {
+
+    private DummyFileSystem fileSystem;
+    private Path secretDirectory;
+    private Daemon daemon;
+    private Thread thread;
+    private volatile boolean failRun;
+
+    @Before
+    public void setUp() throws Exception {
+        DummyLogHandler.install();
+        fileSystem = new DummyFileSystem();
+        secretDirectory = Files.createTempDirectory("magisto-daemon");
+        daemon = new Daemon(0, new ExportOptions(), secretDirectory) {
+            @Override
+            Magisto createMagisto(Request request) {
+                return new Magisto(new Magisto.Builder(fileSystem, new DummyActionFactory(),
+                        new DummyFileConverterFactory()).forceOverwrite(request.isForceOverwrite())) {
+                    @Override
+                    public Statistics run(String sourceDirectory, String targetDirectory) throws IOException {
+                        if (failRun) {
+                            throw new IOException("--expected--");
+                        }
+                        return super.run(sourceDirectory, targetDirectory);
+                    }
+                };
+            }
+        };
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    daemon.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        daemon.close();
+        thread.join();
+        Files.delete(secretDirectory);
+        DummyLogHandler.uninstall();
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("foo.convert"), createPathEntry("bar.txt"));
+        final Statistics statistics = new DaemonClient(daemon.getPort(), secretDirectory).export("source", "target",
+                false);
+        assertEquals(1, statistics.countFor(CONVERT_SOURCE));
+        assertEquals(1, statistics.countFor(COPY_SOURCE));
+        assertTrue(statistics.getDurationInMillis() >= 0);
+    }
+
+    @Test
+    public void testMultipleExports() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("bar.txt"));
+        final DaemonClient client = new DaemonClient(daemon.getPort(), secretDirectory);
+        assertEquals(1, client.export("source", "target", false).countFor(COPY_SOURCE));
+        assertEquals(1, client.export("source", "target", true).countFor(COPY_SOURCE));
+    }
+
+    @Test
+    public void testFailedExport() throws Exception {
+        failRun = true;
+        try {
+            new DaemonClient(daemon.getPort(), secretDirectory).export("source", "target", false);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("--expected--"));
+        }
+    }
+
+    @Test
+    public void testSecretIsReadableByOwnerOnly() throws Exception {
+        final Path file = secretDirectory.resolve(".magisto-daemon-" + daemon.getPort());
+        assertEquals(64, Files.readAllBytes(file).length);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+        }
+    }
+
+    @Test
+    public void testRequestWithoutSecretIsRefused() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("bar.txt"));
+        Files.write(secretDirectory.resolve(".magisto-daemon-" + daemon.getPort()), "wrong".getBytes("UTF-8"));
+        try {
+            new DaemonClient(daemon.getPort(), secretDirectory).export("source", "target", false);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("secret"));
+        }
+        assertEquals("", fileSystem.getLoggedCopies());
+    }
+
+    @Test
+    public void testSecretIsRemovedOnClose() throws Exception {
+        final Path file = secretDirectory.resolve(".magisto-daemon-" + daemon.getPort());
+        assertTrue(Files.exists(file));
+        daemon.close();
+        assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.DummyFileSystem;
+import org.junit.Test;
+
+import static nl.ulso.magisto.Explanation.Reason.CHANGED;
+import static nl.ulso.magisto.Explanation.Reason.FORCED;
+import static nl.ulso.magisto.Explanation.Reason.REMOVED;
+import static nl.ulso.magisto.action.ActionType.CONVERT_SOURCE;
+import static nl.ulso.magisto.action.ActionType.DELETE_TARGET;
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class ExplanationTest {
+
+    @Test
+    public void testExplain() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Explanation explanation = Explanation.open(fileSystem, fileSystem.prepareTargetDirectory("target"));
+        explanation.explain(CONVERT_SOURCE, createPath("dir", "page one.md"), CHANGED);
+        explanation.explain(CONVERT_SOURCE, createPath("page two.md"), CHANGED);
+        explanation.explain(DELETE_TARGET, createPath("old.html"), REMOVED);
+        explanation.close();
+        assertEquals(2, explanation.countFor(CHANGED));
+        assertEquals(1, explanation.countFor(REMOVED));
+        assertEquals(0, explanation.countFor(FORCED));
+        assertEquals(String.format("changed\tCONVERT_SOURCE\tdir/page one.md%n" +
+                        "changed\tCONVERT_SOURCE\tpage two.md%n" +
+                        "removed\tDELETE_TARGET\told.html%n"),
+                fileSystem.getTextFileFromBufferedWriter(Explanation.EXPLANATION_FILE));
+    }
+
+    @Test
+    public void testLogGroupsByReason() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Explanation explanation = Explanation.open(fileSystem, fileSystem.prepareTargetDirectory("target"));
+        for (int i = 0; i < 5; i++) {
+            explanation.explain(CONVERT_SOURCE, createPath("page" + i + ".md"), FORCED);
+        }
+        DummyLogHandler.install();
+        try {
+            explanation.log();
+            assertThat(DummyLogHandler.getLog(), containsString(
+                    "- 5 file(s), because you forced me to. For example: [page0.md, page1.md, page2.md]"));
+        } finally {
+            DummyLogHandler.uninstall();
+        }
+    }
+}
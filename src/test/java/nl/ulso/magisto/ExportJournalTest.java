@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.DummyFileSystem;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExportJournalTest {
+
+    @Test
+    public void testNoJournal() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final ExportJournal journal = ExportJournal.open(fileSystem, fileSystem.prepareTargetDirectory("target"),
+                "fingerprint");
+        assertFalse(journal.isSourceCompleted(createPath("page.md"), "hash"));
+        assertEquals(0, journal.getResumedCount());
+    }
+
+    @Test
+    public void testWriteAndResume() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        final ExportJournal journal = ExportJournal.open(fileSystem, targetRoot, "fingerprint");
+        journal.recordSource(createPath("dir", "page one.md"), "hash1");
+        journal.recordStatic(createPath("favicon.ico"), "hash2");
+        journal.close();
+        fileSystem.registerTextFileForBufferedReader(ExportJournal.JOURNAL_FILE,
+                fileSystem.getTextFileFromBufferedWriter(ExportJournal.JOURNAL_FILE));
+
+        final ExportJournal resumed = ExportJournal.open(fileSystem, targetRoot, "fingerprint");
+        assertTrue(resumed.isSourceCompleted(createPath("dir", "page one.md"), "hash1"));
+        assertFalse(resumed.isSourceCompleted(createPath("dir", "page one.md"), "changed"));
+        assertTrue(resumed.isStaticCompleted(createPath("favicon.ico"), "hash2"));
+        assertFalse(resumed.isSourceCompleted(createPath("favicon.ico"), "hash2"));
+        assertEquals(2, resumed.getResumedCount());
+        resumed.close();
+        assertEquals(String.format("fingerprint\tfingerprint%nsource\thash1\tdir/page one.md%n" +
+                        "static\thash2\tfavicon.ico%n"),
+                fileSystem.getTextFileFromBufferedWriter(ExportJournal.JOURNAL_FILE));
+    }
+
+    @Test
+    public void testJournalWithDifferentFingerprintIsIgnored() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        fileSystem.registerTextFileForBufferedReader(ExportJournal.JOURNAL_FILE,
+                String.format("fingerprint\told%nsource\thash\tpage.md%n"));
+        final ExportJournal journal = ExportJournal.open(fileSystem, fileSystem.prepareTargetDirectory("target"),
+                "new");
+        assertFalse(journal.isSourceCompleted(createPath("page.md"), "hash"));
+    }
+
+    @Test
+    public void testInvalidJournalIsIgnored() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        fileSystem.registerTextFileForBufferedReader(ExportJournal.JOURNAL_FILE,
+                String.format("fingerprint\tfingerprint%nsource\thash\tpage.md%nsomething else%n"));
+        final ExportJournal journal = ExportJournal.open(fileSystem, fileSystem.prepareTargetDirectory("target"),
+                "fingerprint");
+        assertFalse(journal.isSourceCompleted(createPath("page.md"), "hash"));
+    }
+}
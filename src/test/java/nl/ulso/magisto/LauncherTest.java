@@ -18,7 +18,9 @@ package nl.ulso.magisto;
 
 import nl.ulso.magisto.action.DummyActionFactory;
 import nl.ulso.magisto.converter.DummyFileConverterFactory;
+import nl.ulso.magisto.io.CopyStrategy;
 import nl.ulso.magisto.io.DummyFileSystem;
+import nl.ulso.magisto.io.Durability;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -63,6 +65,41 @@ public class LauncherTest {
         assertThat(outputLog.getLog(), is(""));
     }
 
+    @Test
+    public void testInvalidDurability() throws Exception {
+        systemExit.expectSystemExitWithStatus(-1);
+        Launcher.setDummyMagistoForTesting(new DummyMagisto());
+        Launcher.main(new String[]{"-t", "foo", "--durability", "sometimes"});
+        assertThat(errorLog.getLog(), containsString("Unknown durability 'sometimes'"));
+    }
+
+    @Test
+    public void testDurabilityInAnyCase() throws Exception {
+        final Options options = Launcher.parseProgramOptions(new String[]{"-t", "foo", "--durability", "Batched"});
+        assertThat(Launcher.resolveDurability(options), is(Durability.BATCHED));
+    }
+
+    @Test
+    public void testInvalidCopyStrategy() throws Exception {
+        systemExit.expectSystemExitWithStatus(-1);
+        Launcher.setDummyMagistoForTesting(new DummyMagisto());
+        Launcher.main(new String[]{"-t", "foo", "--copy-strategy", "teleport"});
+        assertThat(errorLog.getLog(), containsString("Unknown copy strategy 'teleport'"));
+    }
+
+    @Test
+    public void testCopyStrategyInAnyCase() throws Exception {
+        final Options options = Launcher.parseProgramOptions(new String[]{"-t", "foo", "--copy-strategy", "HardLink"});
+        assertThat(Launcher.resolveCopyStrategy(options), is(CopyStrategy.HARDLINK));
+    }
+
+    @Test
+    public void testBatchWithIncludes() throws Exception {
+        systemExit.expectSystemExitWithStatus(-1);
+        Launcher.main(new String[]{"--batch", "sites.txt", "--include", "*.md"});
+        assertThat(errorLog.getLog(), containsString("--include and --include-from-stdin can't be used with it"));
+    }
+
     @Test
     public void testValidProgramArguments() throws Exception {
         Launcher.setDummyMagistoForTesting(new DummyMagisto());
@@ -99,7 +136,7 @@ public class LauncherTest {
     @Test
     public void testDefaultMagistoCreation() throws Exception {
         Launcher.setDummyMagistoForTesting(null);
-        final Magisto magisto = Launcher.createMagisto(false, null);
+        final Magisto magisto = Launcher.createMagisto(new ExportOptions(), Selection.EVERYTHING, null);
         assertNotNull(magisto);
     }
 
@@ -125,7 +162,8 @@ public class LauncherTest {
 
     private static final class DummyMagisto extends Magisto {
         private DummyMagisto() {
-            super(false, new DummyFileSystem(), new DummyActionFactory(), new DummyFileConverterFactory());
+            super(new Magisto.Builder(new DummyFileSystem(), new DummyActionFactory(),
+                    new DummyFileConverterFactory()));
         }
 
         @Override
@@ -136,7 +174,8 @@ public class LauncherTest {
 
     private static final class DummyMagistoWithIOException extends Magisto {
         private DummyMagistoWithIOException() {
-            super(false, new DummyFileSystem(), new DummyActionFactory(), new DummyFileConverterFactory());
+            super(new Magisto.Builder(new DummyFileSystem(), new DummyActionFactory(),
+                    new DummyFileConverterFactory()));
         }
 
         @Override
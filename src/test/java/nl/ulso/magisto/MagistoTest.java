@@ -18,16 +18,25 @@ package nl.ulso.magisto;
 
 import nl.ulso.magisto.action.DummyActionFactory;
 import nl.ulso.magisto.converter.DummyFileConverterFactory;
+import nl.ulso.magisto.io.ContentHashes;
 import nl.ulso.magisto.io.DummyFileSystem;
 import nl.ulso.magisto.io.DummyPathEntry;
+import nl.ulso.magisto.io.PathEntry;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
 import static nl.ulso.magisto.action.ActionType.*;
 import static nl.ulso.magisto.io.DummyPathEntry.createPathEntry;
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class MagistoTest {
 
@@ -41,7 +50,7 @@ public class MagistoTest {
         fileSystem = new DummyFileSystem();
         actionFactory = new DummyActionFactory();
         fileConverterFactory = new DummyFileConverterFactory();
-        magisto = new Magisto(false, fileSystem, actionFactory, fileConverterFactory);
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).build();
     }
 
     @Test
@@ -108,7 +117,7 @@ public class MagistoTest {
     public void testMultipleSourceAndTargetFilesWithDetectedOverwrite() throws Exception {
         prepareMultipleSourceAndTargetFiles();
         fileConverterFactory.setCustomTemplateChanged();
-        magisto = new Magisto(false, fileSystem, actionFactory, fileConverterFactory);
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).build();
         runTest(
                 2, // sameFile1, sameFile2
                 1, // baz.txt
@@ -119,9 +128,172 @@ public class MagistoTest {
         );
     }
 
+    @Test
+    public void testExplainDetectedOverwrite() throws Exception {
+        prepareMultipleSourceAndTargetFiles();
+        fileConverterFactory.setCustomTemplateChanged();
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).explain(true).build();
+        runTest(2, 1, 2, 1, 1, 1);
+        final String explanation = fileSystem.getTextFileFromBufferedWriter(".magisto-explanation");
+        assertTrue(explanation.contains(String.format("newer\tCOPY_SOURCE\tbaz.txt%n")));
+        assertTrue(explanation.contains(String.format("converter-changed\tCONVERT_SOURCE\tfoo.convert%n")));
+        assertTrue(explanation.contains(String.format("new\tCONVERT_SOURCE\tbar.convert%n")));
+        assertTrue(explanation.contains(String.format("removed\tDELETE_TARGET\tdelete.me%n")));
+        assertTrue(explanation.contains(String.format("new\tCOPY_STATIC\timage.jpg%n")));
+        assertEquals(5, explanation.split(String.format("%n")).length);
+    }
+
+    @Test
+    public void testPartialExport() throws Exception {
+        prepareMultipleSourceAndTargetFiles();
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory)
+                .selection(Selection.of(Collections.singletonList("ba*"))).build();
+        runTest(
+                1, // bar.jpg
+                1, // baz.txt
+                1, // bar.convert
+                0, // delete.me is outside the selection
+                0,
+                0  // .static/favicon.ico and .static/image.jpg are outside the selection
+        );
+    }
+
+    @Test
+    public void testPartialExportDeletesConvertedFileOfRemovedSource() throws Exception {
+        fileSystem.addTargetPaths(createPathEntry("foo.converted"), createPathEntry("foo.txt"));
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory)
+                .selection(Selection.of(Collections.singletonList("*.convert"))).build();
+        runTest(0, 0, 0, 1, 0, 0); // foo.converted, but not foo.txt
+    }
+
+    @Test
+    public void testPartialExportOfRemovedSourceLeavesTheRestOfItsDirectoryAlone() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("docs"), createPathEntry("docs", "keep.convert"));
+        fileSystem.addTargetPaths(createPathEntry("docs"), createPathEntry("docs", "a.converted"),
+                createPathEntry("docs", "keep.converted"));
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory)
+                .selection(Selection.of(Collections.singletonList("docs/a.convert"))).build();
+        runTest(0, 0, 0, 1, 0, 0); // docs/a.converted, but neither docs nor docs/keep.converted
+        final String changeFeed = fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE);
+        assertThat(changeFeed, containsString(String.format("deleted\t-\t-\tdocs/a.converted%n")));
+        assertThat(changeFeed, not(containsString(String.format("\tdocs%n"))));
+    }
+
+    @Test
+    public void testStagedExportIsPublished() throws Exception {
+        prepareMultipleSourceAndTargetFiles();
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).generations(3).build();
+        runTest(3, 1, 1, 1, 1, 1);
+        assertEquals("target:target:3", fileSystem.getLoggedPublications());
+    }
+
+    @Test
+    public void testUnstagedExportIsNotPublished() throws Exception {
+        prepareMultipleSourceAndTargetFiles();
+        runTest(3, 1, 1, 1, 1, 1);
+        assertEquals("", fileSystem.getLoggedPublications());
+    }
+
+    @Test
+    public void testMovedFileIsMovedInsteadOfCopied() throws Exception {
+        fileSystem.addTargetPaths(createPathEntry("old", "image.jpg").withContent("image"));
+        fileSystem.addSourcePaths(createPathEntry("new", "image.jpg").withContent("image"));
+        runTest(0, 0, 0, 0, 0, 0);
+        assertEquals(1, actionFactory.countFor(MOVE_TARGET));
+        final String changeFeed = fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE);
+        assertThat(changeFeed, containsString(String.format("deleted\t-\t-\told/image.jpg%n")));
+    }
+
+    @Test
+    public void testExplainMovedFile() throws Exception {
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).explain(true).build();
+        fileSystem.addTargetPaths(createPathEntry("old", "image.jpg").withContent("image"));
+        fileSystem.addSourcePaths(createPathEntry("new", "image.jpg").withContent("image"));
+        runTest(0, 0, 0, 0, 0, 0);
+        final String explanation = fileSystem.getTextFileFromBufferedWriter(".magisto-explanation");
+        assertThat(explanation, containsString(String.format("moved\tMOVE_TARGET\tnew/image.jpg%n")));
+        assertThat(explanation, not(containsString("COPY_SOURCE\tnew/image.jpg")));
+        assertThat(explanation, not(containsString("DELETE_TARGET\told/image.jpg")));
+    }
+
+    @Test
+    public void testFileWithDifferentContentIsNotMoved() throws Exception {
+        fileSystem.addTargetPaths(createPathEntry("old", "image.jpg").withContent("image"));
+        fileSystem.addSourcePaths(createPathEntry("new", "image.jpg").withContent("photo"));
+        runTest(0, 1, 0, 1, 0, 0);
+        assertEquals(0, actionFactory.countFor(MOVE_TARGET));
+    }
+
+    @Test
+    public void testNothingIsMovedWhenOverwritingIsForced() throws Exception {
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).forceOverwrite(true).build();
+        fileSystem.addTargetPaths(createPathEntry("old", "image.jpg").withContent("image"));
+        fileSystem.addSourcePaths(createPathEntry("new", "image.jpg").withContent("image"));
+        runTest(0, 1, 0, 1, 0, 0);
+        assertEquals(0, actionFactory.countFor(MOVE_TARGET));
+    }
+
+    @Test
+    public void testRemovedDirectoryIsDeletedAsAWhole() throws Exception {
+        prepareRemovedDirectory();
+        runTest(0, 0, 0, 1, 0, 0);
+        final String changeFeed = fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE);
+        assertThat(changeFeed, containsString(String.format("deleted\t-\t-\told%n")));
+        assertThat(changeFeed, containsString(String.format("deleted\t-\t-\told/sub/image.jpg%n")));
+    }
+
+    @Test
+    public void testRemovedDirectoryIsDeletedAsAWholeStreaming() throws Exception {
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).streaming(true).build();
+        prepareRemovedDirectory();
+        runStreamingTest(0, 0, 0, 1, 0, 0);
+        final String changeFeed = fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE);
+        assertThat(changeFeed, containsString(String.format("deleted\t-\t-\told/sub/image.jpg%n")));
+    }
+
+    @Test
+    public void testRemovedDirectoryIsNotDeletedAsAWholeInPartialExport() throws Exception {
+        prepareRemovedDirectory();
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory)
+                .selection(Selection.of(Collections.singletonList("ol*"))).build();
+        runTest(0, 0, 0, 4, 0, 0);
+        assertThat(fileSystem.getLoggedDeletions(), not(containsString("**")));
+    }
+
+    @Test
+    public void testFileIsMovedOutOfRemovedDirectory() throws Exception {
+        prepareRemovedDirectory();
+        fileSystem.addSourcePaths(createPathEntry("new", "image.jpg").withContent("image"));
+        runTest(0, 0, 0, 1, 0, 0);
+        assertEquals(1, actionFactory.countFor(MOVE_TARGET));
+    }
+
+    private void prepareRemovedDirectory() {
+        fileSystem.addTargetPaths(createPathEntry("old"), createPathEntry("old", "page.html"),
+                createPathEntry("old", "sub"), createPathEntry("old", "sub", "image.jpg").withContent("image"));
+    }
+
+    @Test
+    public void testChangeFeedIsWritten() throws Exception {
+        prepareMultipleSourceAndTargetFiles();
+        runTest(3, 1, 1, 1, 1, 1);
+        final String changeFeed = fileSystem.getTextFileFromBufferedWriter(ChangeFeed.CHANGE_FEED_FILE);
+        assertThat(changeFeed, containsString(String.format("overwritten\t7\t%s\tbaz.txt%n",
+                ContentHashes.hash("baz.txt"))));
+        assertThat(changeFeed, containsString(String.format("deleted\t-\t-\tdelete.me%n")));
+    }
+
+    @Test
+    public void testEverythingIsSyncedBeforeTheExportIsMarkedComplete() throws Exception {
+        prepareMultipleSourceAndTargetFiles();
+        runTest(3, 1, 1, 1, 1, 1);
+        assertEquals(2, fileSystem.getSyncCount());
+        assertEquals(2, fileSystem.getSyncCountAtTouchFile());
+    }
+
     @Test
     public void testMultipleSourceAndTargetFilesWithForcedOverwrite() throws Exception {
-        magisto = new Magisto(true, fileSystem, actionFactory, fileConverterFactory);
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).forceOverwrite(true).build();
         prepareMultipleSourceAndTargetFiles();
         runTest(
                 0, // no skips: forced overwrite
@@ -133,6 +305,40 @@ public class MagistoTest {
         );
     }
 
+    @Test
+    public void testMultipleSourceAndTargetFilesWithMultipleWorkers() throws Exception {
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).workers(4).build();
+        prepareMultipleSourceAndTargetFiles();
+        runTest(3, 1, 1, 1, 1, 1);
+    }
+
+    @Test
+    public void testMultipleSourceAndTargetFilesStreaming() throws Exception {
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).streaming(true).build();
+        prepareMultipleSourceAndTargetFiles();
+        runStreamingTest(3, 1, 1, 1, 1, 1);
+    }
+
+    @Test
+    public void testMultipleSourceAndTargetFilesStreamingWithMultipleWorkers() throws Exception {
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).workers(4).streaming(true)
+                .build();
+        prepareMultipleSourceAndTargetFiles();
+        runStreamingTest(3, 1, 1, 1, 1, 1);
+    }
+
+    @Test
+    public void testStreamingInMultipleBatches() throws Exception {
+        magisto = new Magisto.Builder(fileSystem, actionFactory, fileConverterFactory).streaming(true).build();
+        for (int i = 0; i < 1500; i++) {
+            fileSystem.addTargetPaths(createPathEntry("old" + i + ".txt"));
+        }
+        for (int i = 0; i < 1200; i++) {
+            fileSystem.addSourcePaths(createPathEntry("new" + i + ".txt"), createPathEntry("new" + i + ".convert"));
+        }
+        runStreamingTest(0, 1200, 1200, 1500, 0, 0);
+    }
+
     private void prepareMultipleSourceAndTargetFiles() throws InterruptedException {
         final DummyPathEntry sameSourceFile1 = createPathEntry("foo.txt");
         final DummyPathEntry sameSourceFile2 = createPathEntry("bar.jpg");
@@ -161,6 +367,150 @@ public class MagistoTest {
 
     }
 
+    @Test
+    public void testBuildManifestSkipsUnchangedContent() throws Exception {
+        prepareMultipleSourceAndTargetFiles();
+        registerManifest("unchanged", "foo.txt", "bar.jpg", "baz.txt", "foo.convert");
+        runTest(
+                4, // sameFile1, sameFile2, foo.convert/foo.convert.converted, baz.txt: newer, but same content
+                0,
+                1, // bar.convert
+                1, // deleteTarget.me
+                1, // .static/favicon.ico
+                1  // .static/image.jpg: not in the manifest
+        );
+    }
+
+    @Test
+    public void testBuildManifestDetectsChangedContent() throws Exception {
+        final DummyPathEntry file = createPathEntry("foo.convert");
+        fileSystem.addTargetPaths(createPathEntry("foo.converted"));
+        fileSystem.addSourcePaths(file.withContent("changed"));
+        registerManifest("unchanged", "foo.convert");
+        runTest(0, 0, 1, 0, 0, 0);
+    }
+
+    @Test
+    public void testBuildManifestDetectsChangedFingerprint() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("foo.convert"), createPathEntry("foo.txt"));
+        fileSystem.addTargetPaths(createPathEntry("foo.converted"), createPathEntry("foo.txt"));
+        registerManifest("something else", "foo.convert", "foo.txt");
+        runTest(1, 0, 1, 0, 0, 0);
+    }
+
+    @Test
+    public void testBuildManifestReusesHashOfUntouchedFile() throws Exception {
+        final DummyPathEntry file = createPathEntry("foo.txt").withTimestamp(System.currentTimeMillis() - 60000);
+        fileSystem.addSourcePaths(file);
+        fileSystem.addTargetPaths(createPathEntry("foo.txt"));
+        registerManifestRecord(file, file.getTimestamp());
+        runTest(1, 0, 0, 0, 0, 0);
+        assertEquals(0, fileSystem.getContentHashCount());
+    }
+
+    @Test
+    public void testBuildManifestHashesTouchedFile() throws Exception {
+        final DummyPathEntry file = createPathEntry("foo.txt").withTimestamp(System.currentTimeMillis() - 60000);
+        fileSystem.addSourcePaths(file);
+        fileSystem.addTargetPaths(createPathEntry("foo.txt"));
+        registerManifestRecord(file, file.getTimestamp() - 1000);
+        runTest(1, 0, 0, 0, 0, 0);
+        assertEquals(1, fileSystem.getContentHashCount());
+    }
+
+    private void registerManifestRecord(DummyPathEntry file, long timestamp) {
+        final PathEntry entry = file.toPathEntry();
+        fileSystem.registerTextFileForBufferedReader(".magisto-manifest", String.format(
+                "fingerprint\tunchanged%nsource\t%s\t%d\t%d\t%s%n",
+                file.getContentHash(), entry.getSize(), timestamp, entry.getPath()));
+    }
+
+    @Test
+    public void testIncrementalRunConvertsChangedFile() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("foo.convert").withContent("changed"), createPathEntry("bar.txt"));
+        fileSystem.addTargetPaths(createPathEntry("foo.converted"), createPathEntry("bar.txt"));
+        registerManifest("unchanged", "foo.convert", "bar.txt");
+        runTest(createChangeSet("foo.convert"), 0, 0, 1, 0, 0, 0);
+    }
+
+    @Test
+    public void testIncrementalRunSkipsUnchangedFile() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("foo.convert"), createPathEntry("bar.txt"));
+        fileSystem.addTargetPaths(createPathEntry("foo.converted"), createPathEntry("bar.txt"));
+        registerManifest("unchanged", "foo.convert", "bar.txt");
+        runTest(createChangeSet("foo.convert"), 1, 0, 0, 0, 0, 0);
+    }
+
+    @Test
+    public void testIncrementalRunDeletesRemovedFile() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("bar.txt"));
+        fileSystem.addTargetPaths(createPathEntry("foo.converted"), createPathEntry("bar.txt"));
+        registerManifest("unchanged", "foo.convert", "bar.txt");
+        runTest(createChangeSet("foo.convert"), 0, 0, 0, 1, 0, 0);
+    }
+
+    @Test
+    public void testIncrementalRunWithoutManifestRunsFully() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("foo.convert"), createPathEntry("bar.txt"));
+        runTest(createChangeSet("foo.convert"), 0, 1, 1, 0, 0, 0);
+    }
+
+    @Test
+    public void testIncrementalRunWithChangedFingerprintRunsFully() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("foo.convert"), createPathEntry("bar.txt"));
+        fileSystem.addTargetPaths(createPathEntry("foo.converted"), createPathEntry("bar.txt"));
+        registerManifest("something else", "foo.convert", "bar.txt");
+        runTest(createChangeSet("bar.txt"), 1, 0, 1, 0, 0, 0);
+    }
+
+    private ChangeSet createChangeSet(String... paths) {
+        final Path sourceRoot = createPath("source").toAbsolutePath();
+        final ChangeSet changes = new ChangeSet(sourceRoot, ".static");
+        for (String path : paths) {
+            changes.add(sourceRoot.resolve(path));
+        }
+        return changes;
+    }
+
+    private void registerManifest(String fingerprint, String... sourcePaths) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format("fingerprint\t%s%n", fingerprint));
+        for (String sourcePath : sourcePaths) {
+            builder.append(String.format("source\t%s\t-1\t-1\t%s%n",
+                    createPathEntry(sourcePath).getContentHash(), sourcePath));
+        }
+        builder.append(String.format("static\t%s\t-1\t-1\tfavicon.ico%n",
+                createPathEntry("favicon.ico").getContentHash()));
+        fileSystem.registerTextFileForBufferedReader(".magisto-manifest", builder.toString());
+    }
+
+    @Test
+    public void testResumeInterruptedExport() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("foo.convert"), createPathEntry("bar.txt"));
+        fileSystem.addStaticPaths(createPathEntry("favicon.ico"));
+        registerJournal("unchanged", "foo.convert");
+        runTest(1, 1, 0, 0, 1, 0);
+    }
+
+    @Test
+    public void testJournalOfDifferentConverterIsIgnored() throws Exception {
+        fileSystem.addSourcePaths(createPathEntry("foo.convert"), createPathEntry("bar.txt"));
+        fileSystem.addStaticPaths(createPathEntry("favicon.ico"));
+        registerJournal("changed", "foo.convert");
+        runTest(0, 1, 1, 0, 0, 1);
+    }
+
+    private void registerJournal(String fingerprint, String... sourcePaths) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format("fingerprint\t%s%n", fingerprint));
+        for (String sourcePath : sourcePaths) {
+            builder.append(String.format("source\t%s\t%s%n", createPathEntry(sourcePath).getContentHash(),
+                    sourcePath));
+        }
+        builder.append(String.format("static\t%s\tfavicon.ico%n", createPathEntry("favicon.ico").getContentHash()));
+        fileSystem.registerTextFileForBufferedReader(".magisto-journal", builder.toString());
+    }
+
     @Test
     public void testSameFileNameDifferentExtensions() throws Exception {
         fileSystem.addTargetPaths(
@@ -178,7 +528,35 @@ public class MagistoTest {
     private void runTest(int expectedSourceSkips, int expectedSourceCopies, int expectedSourceConversions,
                          int expectedTargetDeletions, int expectedStaticSkips, int expectedStaticCopies)
             throws Exception {
+        runTest(null, expectedSourceSkips, expectedSourceCopies, expectedSourceConversions, expectedTargetDeletions,
+                expectedStaticSkips, expectedStaticCopies);
+    }
+
+    /*
+    When streaming, skips are counted instead of performed.
+     */
+    private void runStreamingTest(int expectedSourceSkips, int expectedSourceCopies, int expectedSourceConversions,
+                                  int expectedTargetDeletions, int expectedStaticSkips, int expectedStaticCopies)
+            throws Exception {
         final Statistics statistics = magisto.run("source", "target");
+        assertEquals(0, actionFactory.countFor(SKIP_SOURCE));
+        assertEquals(expectedSourceCopies, actionFactory.countFor(COPY_SOURCE));
+        assertEquals(expectedSourceConversions, actionFactory.countFor(CONVERT_SOURCE));
+        assertEquals(expectedTargetDeletions, actionFactory.countFor(DELETE_TARGET));
+        assertEquals(0, actionFactory.countFor(SKIP_STATIC));
+        assertEquals(expectedStaticCopies, actionFactory.countFor(COPY_STATIC));
+        assertEquals(expectedSourceSkips, statistics.countFor(SKIP_SOURCE));
+        assertEquals(expectedSourceCopies, statistics.countFor(COPY_SOURCE));
+        assertEquals(expectedSourceConversions, statistics.countFor(CONVERT_SOURCE));
+        assertEquals(expectedTargetDeletions, statistics.countFor(DELETE_TARGET));
+        assertEquals(expectedStaticSkips, statistics.countFor(SKIP_STATIC));
+        assertEquals(expectedStaticCopies, statistics.countFor(COPY_STATIC));
+    }
+
+    private void runTest(ChangeSet changes, int expectedSourceSkips, int expectedSourceCopies,
+                         int expectedSourceConversions, int expectedTargetDeletions, int expectedStaticSkips,
+                         int expectedStaticCopies) throws Exception {
+        final Statistics statistics = magisto.run("source", "target", changes);
         System.out.println(statistics);
         // Number of actions performed must match up:
         assertEquals(expectedSourceSkips, actionFactory.countFor(SKIP_SOURCE));
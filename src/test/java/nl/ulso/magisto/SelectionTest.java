@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.converter.DummyFileConverter;
+import nl.ulso.magisto.io.PathEntry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.junit.Assert.*;
+
+public class SelectionTest {
+
+    @Test
+    public void testEverything() throws Exception {
+        assertFalse(Selection.EVERYTHING.isPartial());
+        assertSame(Selection.EVERYTHING, Selection.of(null));
+        assertTrue(Selection.EVERYTHING.includes(createPath("any", "path.md")));
+    }
+
+    @Test
+    public void testNothing() throws Exception {
+        final Selection selection = Selection.of(Arrays.asList("", "  "));
+        assertTrue(selection.isPartial());
+        assertTrue(selection.getRoots().isEmpty());
+        assertFalse(selection.includes(createPath("page.md")));
+    }
+
+    @Test
+    public void testRoots() throws Exception {
+        final Selection selection = Selection.of(Arrays.asList("docs/guide", "docs/guide/intro.md", "blog/2014/*.md",
+                "blog/*/index.md"));
+        assertEquals(Arrays.asList(createPath("blog"), createPath("docs", "guide")),
+                new ArrayList<>(selection.getRoots()));
+    }
+
+    @Test
+    public void testLeadingWildcardWalksEverything() throws Exception {
+        final Selection selection = Selection.of(Arrays.asList("docs", "**.png"));
+        assertEquals(Collections.singletonList(createPath("")), new ArrayList<>(selection.getRoots()));
+    }
+
+    @Test
+    public void testIncludesPath() throws Exception {
+        final Selection selection = Selection.of(Collections.singletonList("docs/guide"));
+        assertTrue(selection.includes(createPath("docs", "guide")));
+        assertTrue(selection.includes(createPath("docs", "guide", "intro.md")));
+        assertFalse(selection.includes(createPath("docs")));
+        assertFalse(selection.includes(createPath("docs", "guidelines.md")));
+    }
+
+    @Test
+    public void testIncludesGlob() throws Exception {
+        final Selection selection = Selection.of(Collections.singletonList("blog/*/index.md"));
+        assertTrue(selection.includes(createPath("blog", "2014", "index.md")));
+        assertFalse(selection.includes(createPath("blog", "2014", "other.md")));
+        assertFalse(selection.includes(createPath("blog", "index.md")));
+    }
+
+    @Test
+    public void testGlobIncludesEverythingInsideMatchingDirectories() throws Exception {
+        final Selection selection = Selection.of(Collections.singletonList("blog/201?"));
+        assertTrue(selection.includes(createPath("blog", "2014", "images", "photo.jpg")));
+        assertFalse(selection.includes(createPath("blog", "2004", "index.md")));
+    }
+
+    @Test
+    public void testSelectKeepsDirectoriesLeadingUpToSelectedEntries() throws Exception {
+        final Selection selection = Selection.of(Collections.singletonList("docs/*/*.md"));
+        final List<PathEntry> entries = Arrays.asList(
+                entry("docs", true),
+                entry("docs/guide", true),
+                entry("docs/guide/intro.md", false),
+                entry("docs/guide/image.png", false),
+                entry("docs/empty", true),
+                entry("other.md", false)
+        );
+        assertEquals(Arrays.asList(entries.get(0), entries.get(1), entries.get(2)), selection.select(entries));
+    }
+
+    @Test
+    public void testSelectTargetsOfConvertedFiles() throws Exception {
+        final Selection selection = Selection.of(Collections.singletonList("docs/*.convert"));
+        final List<PathEntry> entries = Arrays.asList(
+                entry("docs", true),
+                entry("docs/page.converted", false),
+                entry("docs/page.txt", false)
+        );
+        assertEquals(Arrays.asList(entries.get(0), entries.get(1)),
+                selection.selectTargets(entries, new DummyFileConverter()));
+    }
+
+    private static PathEntry entry(String path, boolean isDirectory) {
+        return new PathEntry(createPath(path), isDirectory, 0, 0);
+    }
+}
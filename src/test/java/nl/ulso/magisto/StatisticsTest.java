@@ -23,10 +23,15 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static nl.ulso.magisto.action.ActionCategory.SOURCE;
 import static nl.ulso.magisto.action.ActionCategory.STATIC;
 import static nl.ulso.magisto.action.ActionType.*;
+import static nl.ulso.magisto.io.Paths.createPath;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 public class StatisticsTest {
@@ -95,6 +100,44 @@ public class StatisticsTest {
         assertThat(log, containsString("Skipped 1 static"));
     }
 
+    @Test
+    public void testSlowestFiles() throws Exception {
+        final Statistics statistics = new Statistics().begin();
+        for (int i = 1; i <= 10; i++) {
+            statistics.registerDuration(createPath("page" + i + ".md"), (i % 7) * 1000000000L);
+        }
+        statistics.end().log();
+        assertEquals(Arrays.asList(createPath("page6.md"), createPath("page5.md"), createPath("page4.md"),
+                createPath("page3.md"), createPath("page10.md")), statistics.getSlowestFiles());
+        assertThat(DummyLogHandler.getLog(), containsString("page6.md (6000 milliseconds)"));
+    }
+
+    @Test
+    public void testThrottledTime() throws Exception {
+        final Statistics statistics = new Statistics().begin()
+                .registerThrottledTime(1500000000L)
+                .registerThrottledTime(500000000L);
+        statistics.end().log();
+        assertEquals(2000, statistics.getThrottledTimeInMillis());
+        assertThat(DummyLogHandler.getLog(), containsString("for 2000 milliseconds, as throttled"));
+    }
+
+    @Test
+    public void testSyncTime() throws Exception {
+        final Statistics statistics = new Statistics().begin()
+                .registerSyncTime(250000000L)
+                .registerSyncTime(750000000L);
+        statistics.end().log();
+        assertEquals(1000, statistics.getSyncTimeInMillis());
+        assertThat(DummyLogHandler.getLog(), containsString("I spent 1000 milliseconds making sure"));
+    }
+
+    @Test
+    public void testNoSyncTimeIsNotLogged() throws Exception {
+        new Statistics().begin().end().log();
+        assertThat(DummyLogHandler.getLog(), not(containsString("safely on disk")));
+    }
+
     private DummyAction createAction(ActionCategory category, ActionType type) {
         return new DummyAction(null, null, category, type);
     }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto;
+
+import nl.ulso.magisto.io.DummyFileSystem;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TabSeparatedFileTest {
+
+    @Test
+    public void testFormatPath() throws Exception {
+        assertEquals("dir/file.md", TabSeparatedFile.formatPath(createPath("dir", "file.md")));
+        assertEquals("a\\tb/c\\nd\\re\\\\f", TabSeparatedFile.formatPath(createPath("a\tb", "c\nd\re\\f")));
+    }
+
+    @Test
+    public void testParsePath() throws Exception {
+        assertEquals(createPath("dir", "file.md"), TabSeparatedFile.parsePath("dir/file.md"));
+        assertEquals(createPath("a\tb", "c\nd\re\\f"), TabSeparatedFile.parsePath("a\\tb/c\\nd\\re\\\\f"));
+    }
+
+    @Test(expected = TabSeparatedFile.InvalidLineException.class)
+    public void testUnknownEscape() throws Exception {
+        TabSeparatedFile.parsePath("a\\b");
+    }
+
+    @Test(expected = TabSeparatedFile.InvalidLineException.class)
+    public void testTrailingEscape() throws Exception {
+        TabSeparatedFile.parsePath("a\\");
+    }
+
+    @Test
+    public void testReadAllLines() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        fileSystem.registerTextFileForBufferedReader("file", "a\tb\n\tc\t\n");
+        final List<String> fields = new ArrayList<>();
+        assertTrue(TabSeparatedFile.read(fileSystem, targetRoot.resolve("file"), "the file",
+                new TabSeparatedFile.LineReader() {
+                    @Override
+                    public boolean readLine(String[] line) {
+                        for (String field : line) {
+                            fields.add(field);
+                        }
+                        return true;
+                    }
+                }));
+        assertEquals(5, fields.size());
+        assertEquals("", fields.get(2));
+        assertEquals("", fields.get(4));
+    }
+
+    @Test
+    public void testInvalidLineIgnoresFile() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        fileSystem.registerTextFileForBufferedReader("file", "1\n2\nx\n");
+        final List<Long> numbers = new ArrayList<>();
+        assertFalse(TabSeparatedFile.read(fileSystem, targetRoot.resolve("file"), "the file",
+                new TabSeparatedFile.LineReader() {
+                    @Override
+                    public boolean readLine(String[] fields) {
+                        numbers.add(Long.parseLong(fields[0]));
+                        return true;
+                    }
+                }));
+        assertEquals(2, numbers.size());
+    }
+}
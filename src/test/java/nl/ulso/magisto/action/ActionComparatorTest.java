@@ -49,6 +49,14 @@ public class ActionComparatorTest {
         assertEquals(1, comparator.compare(convert, skip));
     }
 
+    @Test
+    public void testMoveBeforeDelete() throws Exception {
+        final MoveTargetAction move = new MoveTargetAction(createPath("a"), createPath("b"));
+        final DeleteTargetAction delete = new DeleteTargetAction(createPath("a"));
+        assertEquals(-1, comparator.compare(move, delete));
+        assertEquals(1, comparator.compare(delete, move));
+    }
+
     @Test
     public void testDeleteBeforeCopy() throws Exception {
         final DeleteTargetAction delete = new DeleteTargetAction(createPath("a"));
@@ -16,15 +16,24 @@
 
 package nl.ulso.magisto.action;
 
+import nl.ulso.magisto.converter.ConversionSkippedException;
+import nl.ulso.magisto.converter.DummyFileConverter;
 import nl.ulso.magisto.io.DummyFileSystem;
+import nl.ulso.magisto.io.FileSystem;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import static nl.ulso.magisto.io.Paths.createPath;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class ActionSetTest {
 
@@ -37,6 +46,17 @@ public class ActionSetTest {
         assertEquals(2, performed.size());
     }
 
+    @Test
+    public void testActionsArePerformedOnlyOnce() throws Exception {
+        final ActionSet actions = new ActionSet(new DummyActionFactory(), 4);
+        actions.addCopySourceAction(createPath("source1"));
+        assertEquals(1, performActions(actions).size());
+        actions.addCopySourceAction(createPath("source2"));
+        final List<Action> performed = performActions(actions);
+        assertEquals(1, performed.size());
+        assertEquals(createPath("source2"), performed.get(0).getPath());
+    }
+
     @Test
     public void testStaticCopyReplacesSourceDelete() throws Exception {
         final ActionSet actions = new ActionSet(new DummyActionFactory());
@@ -85,14 +105,132 @@ public class ActionSetTest {
         performed.get(0).perform(null, null, null);
     }
 
-    private List<Action> performActions(ActionSet actions) throws IOException {
-        final List<Action> performed = new ArrayList<>();
-        actions.performAll(new DummyFileSystem(), createPath("."), createPath("."), new ActionCallback() {
+    @Test
+    public void testParallelDeletionsRemoveChildrenBeforeParents() throws Exception {
+        final ActionSet actions = new ActionSet(new DummyActionFactory(), 4);
+        actions.addDeleteTargetAction(createPath("dir"));
+        actions.addDeleteTargetAction(createPath("dir", "sub"));
+        for (int i = 0; i < 20; i++) {
+            actions.addDeleteTargetAction(createPath("dir", "file" + i));
+            actions.addDeleteTargetAction(createPath("dir", "sub", "file" + i));
+        }
+        final List<Action> performed = performActions(actions);
+        assertEquals(42, performed.size());
+        assertEquals(createPath("dir"), performed.get(41).getPath());
+        final Path subdirectory = createPath("dir", "sub");
+        assertTrue(indexOf(performed, subdirectory) > indexOf(performed, subdirectory.resolve("file0")));
+    }
+
+    @Test
+    public void testParallelCopiesCreateParentsBeforeChildren() throws Exception {
+        final ActionSet actions = new ActionSet(new DummyActionFactory(), 4);
+        for (int i = 0; i < 20; i++) {
+            actions.addCopySourceAction(createPath("dir", "sub", "file" + i));
+            actions.addConvertSourceAction(createPath("dir", "page" + i), null);
+        }
+        actions.addCopySourceAction(createPath("dir", "sub"));
+        actions.addCopyStaticAction(createPath("dir"), ".");
+        final List<Action> performed = performActions(actions);
+        assertEquals(42, performed.size());
+        assertEquals(createPath("dir"), performed.get(0).getPath());
+        final Path subdirectory = createPath("dir", "sub");
+        assertTrue(indexOf(performed, subdirectory) < indexOf(performed, subdirectory.resolve("file0")));
+    }
+
+    @Test
+    public void testParallelDeletionsBeforeEverythingElse() throws Exception {
+        final ActionSet actions = new ActionSet(new DummyActionFactory(), 4);
+        actions.addCopySourceAction(createPath("new"));
+        actions.addSkipSourceAction(createPath("same"));
+        actions.addDeleteTargetAction(createPath("old"));
+        final List<Action> performed = performActions(actions);
+        assertEquals(3, performed.size());
+        assertEquals(ActionType.DELETE_TARGET, performed.get(0).getActionType());
+    }
+
+    private int indexOf(List<Action> actions, Path path) {
+        for (int i = 0; i < actions.size(); i++) {
+            if (actions.get(i).getPath().equals(path)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testSkippedConversionIsReportedAndTheRestContinues() throws Exception {
+        final DummyFileConverter converter = new DummyFileConverter() {
+            @Override
+            public synchronized void convert(FileSystem fileSystem, Path sourceRoot, Path targetRoot, Path path)
+                    throws IOException {
+                if (path.equals(createPath("skipped.convert"))) {
+                    throw new ConversionSkippedException(path, "it's a test");
+                }
+                super.convert(fileSystem, sourceRoot, targetRoot, path);
+            }
+        };
+        final ActionSet actions = new ActionSet(new RealActionFactory());
+        actions.addConvertSourceAction(createPath("converted.convert"), converter);
+        actions.addConvertSourceAction(createPath("skipped.convert"), converter);
+        final List<Action> skipped = new ArrayList<>();
+        final List<Action> performed = performActions(actions, skipped);
+        assertEquals(1, performed.size());
+        assertEquals(createPath("converted.convert"), performed.get(0).getPath());
+        assertEquals(1, skipped.size());
+        assertEquals(createPath("skipped.convert"), skipped.get(0).getPath());
+    }
+
+    @Test
+    public void testSubmittedTaskRunsOnWorkerThread() throws Exception {
+        final ActionSet actions = new ActionSet(new RealActionFactory(), 2);
+        try {
+            final Thread current = Thread.currentThread();
+            final Future<Thread> thread = actions.submit(new Callable<Thread>() {
+                @Override
+                public Thread call() {
+                    return Thread.currentThread();
+                }
+            });
+            assertNotSame(current, thread.get());
+        } finally {
+            actions.close();
+        }
+    }
+
+    @Test
+    public void testSubmittedTaskRunsRightAwayWithSingleWorker() throws Exception {
+        final ActionSet actions = new ActionSet(new RealActionFactory());
+        final Future<Thread> thread = actions.submit(new Callable<Thread>() {
             @Override
-            public void actionPerformed(Action action) {
-                performed.add(action);
+            public Thread call() {
+                return Thread.currentThread();
             }
         });
+        assertTrue(thread.isDone());
+        assertSame(Thread.currentThread(), thread.get());
+    }
+
+    private List<Action> performActions(ActionSet actions) throws IOException {
+        return performActions(actions, new ArrayList<Action>());
+    }
+
+    private List<Action> performActions(ActionSet actions, final List<Action> skipped) throws IOException {
+        final List<Action> performed = new ArrayList<>();
+        try {
+            actions.performAll(new DummyFileSystem(), createPath("."), createPath("."), new ActionCallback() {
+                @Override
+                public void actionPerformed(Action action, long durationInNanos) {
+                    performed.add(action);
+                }
+
+                @Override
+                public void actionSkipped(Action action) {
+                    skipped.add(action);
+                }
+            });
+        } finally {
+            actions.close();
+        }
         return performed;
     }
 }
\ No newline at end of file
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto.action;
+
+import nl.ulso.magisto.converter.Conversion;
+import nl.ulso.magisto.converter.ConversionSkippedException;
+import nl.ulso.magisto.converter.DummyFileConverter;
+import nl.ulso.magisto.io.DummyFileSystem;
+import nl.ulso.magisto.io.FileSystem;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConversionPipelineTest {
+
+    @Test
+    public void testStagesAreCalledInOrder() throws Exception {
+        final RecordingFileConverter converter = new RecordingFileConverter(null);
+        final List<Action> performed = performConversions(new ConversionPipeline(4, 2), converter, 100);
+        assertEquals(100, performed.size());
+        for (Action action : performed) {
+            assertEquals(Arrays.asList("read", "render", "write"), converter.getStages(action.getPath()));
+        }
+    }
+
+    @Test
+    public void testOtherActionsArePerformed() throws Exception {
+        final DummyActionFactory factory = new DummyActionFactory();
+        final List<Action> actions = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            actions.add(factory.convertSource(createPath("file" + i), null));
+        }
+        final List<Action> performed = perform(new ConversionPipeline(2, 2), actions);
+        assertEquals(10, performed.size());
+        assertEquals(10, factory.countFor(ActionType.CONVERT_SOURCE));
+    }
+
+    @Test
+    public void testNumberOfDocumentsInMemoryIsBounded() throws Exception {
+        final RecordingFileConverter converter = new RecordingFileConverter(null);
+        performConversions(new ConversionPipeline(2, 1), converter, 200);
+        // 2 readers, 2 waiting for the renderer, 1 renderer, 2 waiting for the writers and 2 writers:
+        assertTrue(converter.getMaximumInMemory() <= 9);
+    }
+
+    @Test
+    public void testFirstFailureIsRethrown() throws Exception {
+        final RecordingFileConverter converter = new RecordingFileConverter(createPath("file13.convert"));
+        try {
+            performConversions(new ConversionPipeline(4, 2), converter, 100);
+            throw new AssertionError("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("file13.convert", e.getMessage());
+        }
+        assertEquals(Arrays.asList("read", "render"), converter.getStages(createPath("file13.convert")));
+    }
+
+    @Test
+    public void testSkippedConversionIsReportedAndTheRestContinues() throws Exception {
+        final RecordingFileConverter converter = new RecordingFileConverter(null, createPath("file7.convert"));
+        final List<Action> skipped = new ArrayList<>();
+        final List<Action> performed = perform(new ConversionPipeline(2, 1), createConversions(converter, 20),
+                skipped);
+        assertEquals(19, performed.size());
+        assertEquals(1, skipped.size());
+        assertEquals(createPath("file7.convert"), skipped.get(0).getPath());
+    }
+
+    @Test
+    public void testThreadsAreKeptUntilClosed() throws Exception {
+        final RecordingFileConverter converter = new RecordingFileConverter(null);
+        final ConversionPipeline pipeline = new ConversionPipeline(2, 1);
+        try {
+            performAll(pipeline, createConversions(converter, 20), new ArrayList<Action>());
+            performAll(pipeline, createConversions(converter, 20), new ArrayList<Action>());
+        } finally {
+            pipeline.close();
+        }
+        // 2 readers, 1 renderer and 2 writers, for both runs together:
+        assertTrue(converter.getThreadCount() <= 5);
+    }
+
+    private List<Action> performConversions(ConversionPipeline pipeline, RecordingFileConverter converter, int count)
+            throws IOException {
+        return perform(pipeline, createConversions(converter, count));
+    }
+
+    private List<Action> createConversions(RecordingFileConverter converter, int count) {
+        final RealActionFactory factory = new RealActionFactory();
+        final List<Action> actions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            actions.add(factory.convertSource(createPath("file" + i + ".convert"), converter));
+        }
+        return actions;
+    }
+
+    private List<Action> perform(ConversionPipeline pipeline, List<Action> actions) throws IOException {
+        return perform(pipeline, actions, new ArrayList<Action>());
+    }
+
+    private List<Action> perform(ConversionPipeline pipeline, List<Action> actions, List<Action> skipped)
+            throws IOException {
+        try {
+            return performAll(pipeline, actions, skipped);
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    private List<Action> performAll(ConversionPipeline pipeline, List<Action> actions, final List<Action> skipped)
+            throws IOException {
+        final List<Action> performed = new ArrayList<>();
+        pipeline.performAll(actions, new DummyFileSystem(), createPath("source"), createPath("target"),
+                new ActionCallback() {
+                    @Override
+                    public void actionPerformed(Action action, long durationInNanos) {
+                        performed.add(action);
+                    }
+
+                    @Override
+                    public void actionSkipped(Action action) {
+                        skipped.add(action);
+                    }
+                }, new StopSignal());
+        return performed;
+    }
+
+    private static class RecordingFileConverter extends DummyFileConverter {
+        private final Path failingPath;
+        private final Path skippedPath;
+        private final Map<Path, List<String>> stages = new HashMap<>();
+        private final Set<Thread> threads = new HashSet<>();
+        private final AtomicInteger inMemory = new AtomicInteger();
+        private int maximumInMemory;
+
+        private RecordingFileConverter(Path failingPath) {
+            this(failingPath, null);
+        }
+
+        private RecordingFileConverter(Path failingPath, Path skippedPath) {
+            this.failingPath = failingPath;
+            this.skippedPath = skippedPath;
+        }
+
+        @Override
+        public Conversion createConversion(FileSystem fileSystem, Path sourceRoot, Path targetRoot,
+                                           final Path path) {
+            return new Conversion() {
+                @Override
+                public void read() throws IOException {
+                    record(path, "read");
+                    final int count = inMemory.incrementAndGet();
+                    synchronized (RecordingFileConverter.this) {
+                        maximumInMemory = Math.max(maximumInMemory, count);
+                    }
+                }
+
+                @Override
+                public void render() throws IOException {
+                    record(path, "render");
+                    if (path.equals(failingPath)) {
+                        throw new IOException(path.toString());
+                    }
+                }
+
+                @Override
+                public void write() throws IOException {
+                    record(path, "write");
+                    inMemory.decrementAndGet();
+                    if (path.equals(skippedPath)) {
+                        throw new ConversionSkippedException(path, "it's a test");
+                    }
+                }
+            };
+        }
+
+        private synchronized void record(Path path, String stage) {
+            List<String> list = stages.get(path);
+            if (list == null) {
+                list = new ArrayList<>();
+                stages.put(path, list);
+            }
+            list.add(stage);
+            threads.add(Thread.currentThread());
+        }
+
+        private synchronized int getThreadCount() {
+            return threads.size();
+        }
+
+        private synchronized List<String> getStages(Path path) {
+            return stages.get(path);
+        }
+
+        private synchronized int getMaximumInMemory() {
+            return maximumInMemory;
+        }
+    }
+}
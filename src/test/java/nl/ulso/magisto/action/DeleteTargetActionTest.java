@@ -47,4 +47,13 @@ public class DeleteTargetActionTest {
         new DeleteTargetAction(entry.getPath()).perform(fileSystem, sourceRoot, targetRoot);
         assertEquals("target:file", fileSystem.getLoggedDeletions());
     }
+
+    @Test
+    public void testDeleteTree() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path sourceRoot = fileSystem.resolveSourceDirectory("source");
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        new DeleteTargetAction(createPath("directory"), true).perform(fileSystem, sourceRoot, targetRoot);
+        assertEquals("target:directory/**", fileSystem.getLoggedDeletions());
+    }
 }
\ No newline at end of file
@@ -59,11 +59,21 @@ public class DummyActionFactory implements ActionFactory {
         return new DummyAction(this, path, SOURCE, DELETE_TARGET);
     }
 
-    public void clearRecordings() {
+    @Override
+    public Action deleteTargetTree(Path path) {
+        return new DummyAction(this, path, SOURCE, DELETE_TARGET);
+    }
+
+    @Override
+    public Action moveTarget(Path fromPath, Path toPath) {
+        return new DummyAction(this, toPath, SOURCE, MOVE_TARGET);
+    }
+
+    public synchronized void clearRecordings() {
         counts.clear();
     }
 
-    public void registerActionPerformed(DummyAction action) {
+    public synchronized void registerActionPerformed(DummyAction action) {
         final ActionType type = action.getActionType();
         if (!counts.containsKey(type)) {
             counts.put(type, 1);
@@ -72,7 +82,7 @@ public class DummyActionFactory implements ActionFactory {
         }
     }
 
-    public int countFor(ActionType type) {
+    public synchronized int countFor(ActionType type) {
         if (counts.containsKey(type)) {
             return counts.get(type);
         }
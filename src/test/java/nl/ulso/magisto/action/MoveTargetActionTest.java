@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.action;
+
+import nl.ulso.magisto.io.DummyFileSystem;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static nl.ulso.magisto.io.Paths.createPath;
+import static org.junit.Assert.assertEquals;
+
+public class MoveTargetActionTest {
+
+    @Test
+    public void testActionType() throws Exception {
+        assertEquals(ActionType.MOVE_TARGET,
+                new MoveTargetAction(createPath("from"), createPath("to")).getActionType());
+    }
+
+    @Test
+    public void testActionCategory() throws Exception {
+        assertEquals(ActionCategory.SOURCE,
+                new MoveTargetAction(createPath("from"), createPath("to")).getActionCategory());
+    }
+
+    @Test
+    public void testPathIsTheNewPath() throws Exception {
+        assertEquals(createPath("to"), new MoveTargetAction(createPath("from"), createPath("to")).getPath());
+    }
+
+    @Test
+    public void testMove() throws Exception {
+        final DummyFileSystem fileSystem = new DummyFileSystem();
+        final Path sourceRoot = fileSystem.resolveSourceDirectory("source");
+        final Path targetRoot = fileSystem.prepareTargetDirectory("target");
+        new MoveTargetAction(createPath("old", "file"), createPath("new", "file"))
+                .perform(fileSystem, sourceRoot, targetRoot);
+        assertEquals(String.format("target:%s -> %s", createPath("old", "file"), createPath("new", "file")),
+                fileSystem.getLoggedMoves());
+    }
+}
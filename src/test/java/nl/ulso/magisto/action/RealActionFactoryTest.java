@@ -56,4 +56,9 @@ public class RealActionFactoryTest {
         assertNotNull(factory.deleteTarget(createPath("delete")));
     }
 
+    @Test
+    public void testMoveTargetAction() throws Exception {
+        assertNotNull(factory.moveTarget(createPath("from"), createPath("to")));
+    }
+
 }
\ No newline at end of file
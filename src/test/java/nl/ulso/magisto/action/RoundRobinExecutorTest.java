@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package nl.ulso.magisto.action;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RoundRobinExecutorTest {
+
+    /*
+    The single worker is kept busy with the first task until all others are queued, so the order in which it takes
+    them is certain.
+     */
+    @Test
+    public void testLanesTakeTurns() throws Exception {
+        final List<String> performed = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch queued = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(5);
+        try (final RoundRobinExecutor executor = new RoundRobinExecutor(1)) {
+            final Executor busy = executor.newLane();
+            final Executor quiet = executor.newLane();
+            busy.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        queued.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    performed.add("busy0");
+                    done.countDown();
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            for (int i = 1; i <= 3; i++) {
+                busy.execute(new RecordingTask("busy" + i, performed, done));
+            }
+            quiet.execute(new RecordingTask("quiet1", performed, done));
+            queued.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList("busy0", "busy1", "quiet1", "busy2", "busy3"), performed);
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testClosedExecutorRejectsTasks() throws Exception {
+        final RoundRobinExecutor executor = new RoundRobinExecutor(2);
+        final Executor lane = executor.newLane();
+        executor.close();
+        lane.execute(new RecordingTask("task", new ArrayList<String>(), new CountDownLatch(1)));
+    }
+
+    private static final class RecordingTask implements Runnable {
+        private final String name;
+        private final List<String> performed;
+        private final CountDownLatch done;
+
+        private RecordingTask(String name, List<String> performed, CountDownLatch done) {
+            this.name = name;
+            this.performed = performed;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            performed.add(name);
+            done.countDown();
+        }
+    }
+}
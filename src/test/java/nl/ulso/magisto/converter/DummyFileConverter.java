@@ -59,18 +59,42 @@ public class DummyFileConverter implements FileConverter {
     }
 
     @Override
-    public void convert(FileSystem fileSystem, Path sourceRoot, Path targetRoot, Path path)
+    public synchronized void convert(FileSystem fileSystem, Path sourceRoot, Path targetRoot, Path path)
             throws IOException {
         loggedConversions += String.format("%s:%s -> %s:%s", sourceRoot.getFileName(), path.getFileName(),
                 targetRoot.getFileName(), getConvertedFileName(path).getFileName());
     }
 
+    @Override
+    public Conversion createConversion(final FileSystem fileSystem, final Path sourceRoot, final Path targetRoot,
+                                       final Path path) {
+        return new Conversion() {
+            @Override
+            public void read() throws IOException {
+            }
+
+            @Override
+            public void render() throws IOException {
+            }
+
+            @Override
+            public void write() throws IOException {
+                convert(fileSystem, sourceRoot, targetRoot, path);
+            }
+        };
+    }
+
     @Override
     public boolean isCustomTemplateChanged(FileSystem fileSystem, Path sourceRoot, Path targetRoot)
             throws IOException {
         return isCustomTemplateChanged;
     }
 
+    @Override
+    public String getFingerprint() {
+        return isCustomTemplateChanged ? "changed" : "unchanged";
+    }
+
     public String getLoggedConversions() {
         return loggedConversions;
     }
@@ -18,7 +18,10 @@ package nl.ulso.magisto.converter.markdown;
 
 import org.junit.Test;
 
+import java.nio.CharBuffer;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class MarkdownDocumentTest {
 
@@ -26,6 +29,47 @@ public class MarkdownDocumentTest {
         return new MarkdownDocument(text.toCharArray());
     }
 
+    /*
+    The time to parse unclosed brackets followed by emphasis grows exponentially with the number of brackets: it
+    multiplies by about five with every two brackets more. With 14 brackets it already takes seconds; with 30 it takes
+    days, so it certainly exceeds the budget, however fast the machine.
+     */
+    @Test(expected = BudgetExceededException.class)
+    public void testParsingTimeExceeded() throws Exception {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            builder.append('[');
+        }
+        for (int i = 0; i < 10; i++) {
+            builder.append("*_a ");
+        }
+        MarkdownDocument.parse(builder.toString().toCharArray(), new DocumentBudget(100, 0, false));
+    }
+
+    @Test
+    public void testWithinBudget() throws Exception {
+        final MarkdownDocument document = MarkdownDocument.parse("# Title".toCharArray(), new DocumentBudget(0, 1,
+                false));
+        assertEquals("Title", document.extractTitle());
+    }
+
+    @Test
+    public void testOnlyTextWithinBufferIsParsed() throws Exception {
+        final CharBuffer buffer = CharBuffer.wrap("# Title\n\nParagraph# Garbage".toCharArray(), 0, 18);
+        final MarkdownDocument document = new MarkdownDocument(buffer);
+        assertEquals("Title", document.extractTitle());
+        assertTrue(document.toHtml().endsWith("<p>Paragraph</p>"));
+    }
+
+    @Test
+    public void testSpareCharsAreUsedForLineBreaks() throws Exception {
+        final char[] array = "# Title\n\nParagraph  ".toCharArray();
+        final MarkdownDocument document = new MarkdownDocument(CharBuffer.wrap(array, 0, 18));
+        assertTrue(document.toHtml().endsWith("<p>Paragraph</p>"));
+        assertEquals('\n', array[18]);
+        assertEquals('\n', array[19]);
+    }
+
     @Test
     public void testTitleExtractionAtxHeader() throws Exception {
         assertEquals("Title", createMarkdownDocument(
@@ -17,11 +17,13 @@
 package nl.ulso.magisto.converter.markdown;
 
 import freemarker.template.Template;
+import nl.ulso.magisto.converter.ConversionSkippedException;
 import nl.ulso.magisto.git.DummyGitClient;
 import nl.ulso.magisto.io.DummyFileSystem;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.CharBuffer;
 import java.nio.file.Path;
 import java.util.Date;
 import java.util.Map;
@@ -100,7 +102,62 @@ public class MarkdownToHtmlFileConverterTest {
         fileConverter.convert(fileSystemAccessor, createPath("."), createPath("."), createPath("test.md"));
         final String output = fileSystemAccessor.getTextFileFromBufferedWriter("test.html");
         assertNotNull(output);
-        System.out.println("output = " + output);
+    }
+
+    @Test
+    public void testDocumentOverBudgetIsSkipped() throws Exception {
+        fileSystemAccessor.registerTextFileForBufferedReader("test.md", createLargeMarkdown());
+        fileConverter = new MarkdownToHtmlFileConverter(fileSystemAccessor, createPath("."), gitClient,
+                new DocumentBudget(0, 1, false));
+        try {
+            fileConverter.convert(fileSystemAccessor, createPath("."), createPath("."), createPath("test.md"));
+            fail("Expected a ConversionSkippedException");
+        } catch (ConversionSkippedException e) {
+            assertTrue(e.getMessage().startsWith("Skipped 'test.md'"));
+        }
+        assertFalse(fileSystemAccessor.isTextFileWrittenWithBufferedWriter("test.html"));
+        assertEquals("", fileSystemAccessor.getLoggedDeletions());
+    }
+
+    @Test
+    public void testDocumentOverBudgetRemovesPreviousTarget() throws Exception {
+        fileSystemAccessor.registerTextFileForBufferedReader("test.md", createLargeMarkdown());
+        fileSystemAccessor.registerTextFileForBufferedReader("test.html", "<p>Before</p>");
+        fileConverter = new MarkdownToHtmlFileConverter(fileSystemAccessor, createPath("."), gitClient,
+                new DocumentBudget(0, 1, false));
+        try {
+            fileConverter.convert(fileSystemAccessor, createPath("."), createPath("."), createPath("test.md"));
+            fail("Expected a ConversionSkippedException");
+        } catch (ConversionSkippedException e) {
+            assertTrue(fileSystemAccessor.getLoggedDeletions().contains("test.html"));
+        }
+    }
+
+    @Test
+    public void testFingerprintDependsOnBudget() throws Exception {
+        final MarkdownToHtmlFileConverter skipping = new MarkdownToHtmlFileConverter(fileSystemAccessor,
+                createPath("."), gitClient, new DocumentBudget(0, 1, false));
+        final MarkdownToHtmlFileConverter falling = new MarkdownToHtmlFileConverter(fileSystemAccessor,
+                createPath("."), gitClient, new DocumentBudget(0, 1, true));
+        assertNotEquals(fileConverter.getFingerprint(), skipping.getFingerprint());
+        assertNotEquals(skipping.getFingerprint(), falling.getFingerprint());
+    }
+
+    @Test
+    public void testDocumentOverBudgetFallsBackToText() throws Exception {
+        fileSystemAccessor.registerTextFileForBufferedReader("test.md", createLargeMarkdown());
+        fileConverter = new MarkdownToHtmlFileConverter(fileSystemAccessor, createPath("."), gitClient,
+                new DocumentBudget(0, 1, true));
+        fileConverter.convert(fileSystemAccessor, createPath("."), createPath("."), createPath("test.md"));
+        final String output = fileSystemAccessor.getTextFileFromBufferedWriter("test.html");
+        assertTrue(output.contains("<pre># Title &lt;b&gt;"));
+        assertTrue(output.contains("<title>test.md</title>"));
+    }
+
+    @Test
+    public void testEscapeHtml() throws Exception {
+        assertEquals("a &lt;b&gt; &amp; &quot;c&quot;", MarkdownToHtmlFileConverter.escapeHtml(
+                CharBuffer.wrap("a <b> & \"c\"")));
     }
 
     @Test
@@ -130,6 +187,14 @@ public class MarkdownToHtmlFileConverterTest {
         assertEquals("../static/favicon.ico", output);
     }
 
+    private String createLargeMarkdown() {
+        final StringBuilder builder = new StringBuilder("# Title <b>\n\n");
+        while (builder.length() <= 1024) {
+            builder.append("Paragraph\n\n");
+        }
+        return builder.toString();
+    }
+
     @Test
     public void testCustomTemplateHasNotChanged() throws Exception {
         fileSystemAccessor.addSourcePaths(createPathEntry(".page.ftl"));
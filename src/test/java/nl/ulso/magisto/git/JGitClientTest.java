@@ -18,9 +18,10 @@ package nl.ulso.magisto.git;
 
 import org.junit.Test;
 
+import java.util.List;
+
 import static nl.ulso.magisto.io.Paths.createPath;
-import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class JGitClientTest {
 
@@ -38,4 +39,46 @@ public class JGitClientTest {
         assertNotNull(history.getCommits());
         assertTrue(history.getCommits().size() > 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testIndexedHistoryMatchesLog() throws Exception {
+        final String directory = System.getProperty("user.dir");
+        final List<Commit> expected = new JGitClient(directory).getHistory(createPath("pom.xml")).getCommits();
+        final List<Commit> actual = new JGitClient(directory, true).getHistory(createPath("pom.xml")).getCommits();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testIndexedHistorySharesCommits() throws Exception {
+        final JGitClient gitClient = new JGitClient(System.getProperty("user.dir"), true);
+        final List<Commit> pomCommits = gitClient.getHistory(createPath("pom.xml")).getCommits();
+        final List<Commit> readmeCommits = gitClient.getHistory(createPath("README.md")).getCommits();
+        boolean found = false;
+        for (Commit pomCommit : pomCommits) {
+            for (Commit readmeCommit : readmeCommits) {
+                if (pomCommit.getId().equals(readmeCommit.getId())) {
+                    assertSame(pomCommit, readmeCommit);
+                    found = true;
+                }
+            }
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testIndexedHistoryForUnknownPath() throws Exception {
+        final History history = new JGitClient(System.getProperty("user.dir"), true)
+                .getHistory(createPath("does", "not", "exist.md"));
+        assertTrue(history.getCommits().isEmpty());
+        assertSame(Commit.DEFAULT_COMMIT, history.getLastCommit());
+    }
+
+    @Test
+    public void testHistoryIndexIsKeptWhileHeadDoesNotMove() throws Exception {
+        final JGitClient gitClient = new JGitClient(System.getProperty("user.dir"), true);
+        assertSame(gitClient.getHistoryIndex(), gitClient.getHistoryIndex());
+    }
+}
@@ -17,6 +17,7 @@
 package nl.ulso.magisto.io;
 
 import java.io.*;
+import java.nio.CharBuffer;
 import java.nio.file.Path;
 import java.util.*;
 
@@ -35,7 +36,12 @@ public class DummyFileSystem implements FileSystem {
     private final Map<String, StringWriter> textFilesForWriting = new HashMap<>();
     private String loggedCopies = "";
     private String loggedDeletions = "";
+    private String loggedMoves = "";
+    private String loggedPublications = "";
     private long touchFileTimestamp = -1;
+    private int contentHashCount = 0;
+    private int syncCount = 0;
+    private int syncCountAtTouchFile = -1;
 
     public DummyFileSystem() {
         this.sourceRoot = createPath("source").toAbsolutePath();
@@ -53,12 +59,23 @@ public class DummyFileSystem implements FileSystem {
         return targetRoot;
     }
 
+    @Override
+    public Path stageTargetDirectory(String directoryName) throws IOException {
+        return targetRoot;
+    }
+
+    @Override
+    public void publishTargetDirectory(String directoryName, Path stagingRoot, int generations) throws IOException {
+        loggedPublications += String.format("%s:%s:%d%n", directoryName, stagingRoot.getFileName(), generations);
+    }
+
     @Override
     public void requireDistinct(Path sourceRoot, Path targetRoot) throws IOException {
     }
 
     @Override
     public void writeTouchFile(Path targetRoot) throws IOException {
+        syncCountAtTouchFile = syncCount;
     }
 
     @Override
@@ -89,6 +106,36 @@ public class DummyFileSystem implements FileSystem {
         return paths;
     }
 
+    @Override
+    public List<PathEntry> findAllEntries(Path root) throws IOException {
+        return findAllEntries(root, new Comparator<Path>() {
+            @Override
+            public int compare(Path o1, Path o2) {
+                return o1.compareTo(o2);
+            }
+        });
+    }
+
+    @Override
+    public List<PathEntry> findAllEntries(Path root, final Comparator<? super Path> comparator) throws IOException {
+        final List<PathEntry> entries = new ArrayList<>();
+        if (root.equals(sourceRoot)) {
+            addAllEntries(entries, sourcePaths);
+        } else if (root.equals(staticRoot)) {
+            addAllEntries(entries, staticPaths);
+        } else if (root.equals(targetRoot)) {
+            addAllEntries(entries, targetPaths);
+        }
+        Paths.sortEntries(entries, comparator);
+        return entries;
+    }
+
+    private void addAllEntries(List<PathEntry> entries, Set<DummyPathEntry> dummyEntries) {
+        for (DummyPathEntry entry : dummyEntries) {
+            entries.add(entry.toPathEntry());
+        }
+    }
+
     @Override
     public long getLastModifiedInMillis(Path path) throws IOException {
         final DummyPathEntry entry;
@@ -104,6 +151,33 @@ public class DummyFileSystem implements FileSystem {
         return entry != null ? entry.getTimestamp() : -1;
     }
 
+    @Override
+    public long getSize(Path path) throws IOException {
+        final DummyPathEntry entry;
+        if (path.startsWith(staticRoot)) {
+            entry = findEntry(staticRoot.relativize(path), staticPaths);
+        } else if (path.startsWith(sourceRoot)) {
+            entry = findEntry(sourceRoot.relativize(path), sourcePaths);
+        } else {
+            entry = findEntry(targetRoot.relativize(path), targetPaths);
+        }
+        return entry.toPathEntry().getSize();
+    }
+
+    @Override
+    public String computeContentHash(Path path) throws IOException {
+        contentHashCount++;
+        final DummyPathEntry entry;
+        if (path.startsWith(staticRoot)) {
+            entry = findEntry(staticRoot.relativize(path), staticPaths);
+        } else if (path.startsWith(sourceRoot)) {
+            entry = findEntry(sourceRoot.relativize(path), sourcePaths);
+        } else {
+            entry = findEntry(targetRoot.relativize(path), targetPaths);
+        }
+        return entry.getContentHash();
+    }
+
     private void addAllPaths(SortedSet<Path> paths, Set<DummyPathEntry> entries) {
         for (DummyPathEntry entry : entries) {
             paths.add(entry.getPath());
@@ -120,11 +194,26 @@ public class DummyFileSystem implements FileSystem {
         loggedDeletions += String.format("%s:%s%n", root.getFileName(), path);
     }
 
+    @Override
+    public void deleteTree(Path root, Path path) throws IOException {
+        loggedDeletions += String.format("%s:%s/**%n", root.getFileName(), path);
+    }
+
+    @Override
+    public void move(Path root, Path fromPath, Path toPath) throws IOException {
+        loggedMoves += String.format("%s:%s -> %s%n", root.getFileName(), fromPath, toPath);
+    }
+
     @Override
     public BufferedReader newBufferedReaderForTextFile(Path path) throws IOException {
         return new BufferedReader(new StringReader(textFilesForReading.get(path.getFileName().toString())));
     }
 
+    @Override
+    public CharBuffer readTextFile(Path path) throws IOException {
+        return CharBuffer.wrap(textFilesForReading.get(path.getFileName().toString()).toCharArray());
+    }
+
     @Override
     public BufferedWriter newBufferedWriterForTextFile(Path path) throws IOException {
         final StringWriter writer = new StringWriter();
@@ -132,13 +221,35 @@ public class DummyFileSystem implements FileSystem {
         return new BufferedWriter(writer);
     }
 
+    @Override
+    public long getThrottledTimeInNanos() {
+        return 0;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        syncCount++;
+    }
+
+    @Override
+    public long getSyncTimeInNanos() {
+        return 0;
+    }
+
     @Override
     public boolean exists(Path path) {
         if (path.equals(staticRoot)) {
             return !staticPaths.isEmpty();
         }
         if (path.startsWith(targetRoot)) {
-            return targetPaths.contains(createPathEntry(path));
+            return targetPaths.contains(createPathEntry(path))
+                    || containsPath(targetRoot.relativize(path), targetPaths)
+                    || textFilesForReading.containsKey(path.getFileName().toString());
+        }
+        if (path.startsWith(sourceRoot) && !path.startsWith(staticRoot)) {
+            return sourcePaths.contains(createPathEntry(path))
+                    || containsPath(sourceRoot.relativize(path), sourcePaths)
+                    || textFilesForReading.containsKey(path.getFileName().toString());
         }
         return staticPaths.contains(createPathEntry(path))
                 || textFilesForReading.containsKey(path.getFileName().toString());
@@ -149,6 +260,20 @@ public class DummyFileSystem implements FileSystem {
         return !exists(path);
     }
 
+    @Override
+    public boolean isDirectory(Path path) {
+        return false;
+    }
+
+    private boolean containsPath(Path path, Set<DummyPathEntry> entries) {
+        for (DummyPathEntry entry : entries) {
+            if (entry.getPath().equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private DummyPathEntry findEntry(Path source, Set<DummyPathEntry> entries) {
         for (DummyPathEntry entry : entries) {
             if (entry.getPath().equals(source)) {
@@ -174,18 +299,42 @@ public class DummyFileSystem implements FileSystem {
         return loggedCopies.trim();
     }
 
+    public String getLoggedMoves() {
+        return loggedMoves.trim();
+    }
+
     public String getLoggedDeletions() {
         return loggedDeletions.trim();
     }
 
+    public String getLoggedPublications() {
+        return loggedPublications.trim();
+    }
+
     public void registerTextFileForBufferedReader(String fileName, String content) {
         textFilesForReading.put(fileName, content);
     }
 
+    public boolean isTextFileWrittenWithBufferedWriter(String fileName) {
+        return textFilesForWriting.containsKey(fileName);
+    }
+
     public String getTextFileFromBufferedWriter(String fileName) {
         return textFilesForWriting.get(fileName).toString();
     }
 
+    public int getSyncCount() {
+        return syncCount;
+    }
+
+    public int getSyncCountAtTouchFile() {
+        return syncCountAtTouchFile;
+    }
+
+    public int getContentHashCount() {
+        return contentHashCount;
+    }
+
     public void markTouchFile() {
         touchFileTimestamp = System.currentTimeMillis() - 1000;
     }
@@ -24,10 +24,16 @@ public class DummyPathEntry {
 
     private final Path path;
     private final long timestamp;
+    private final String content;
 
     private DummyPathEntry(Path path, long timestamp) {
+        this(path, timestamp, path.toString());
+    }
+
+    private DummyPathEntry(Path path, long timestamp, String content) {
         this.path = path;
         this.timestamp = timestamp;
+        this.content = content;
     }
 
     @Override
@@ -55,6 +61,22 @@ public class DummyPathEntry {
         return new DummyPathEntry(createPath(first, more), System.currentTimeMillis());
     }
 
+    public DummyPathEntry withContent(String content) {
+        return new DummyPathEntry(path, timestamp, content);
+    }
+
+    public DummyPathEntry withTimestamp(long timestamp) {
+        return new DummyPathEntry(path, timestamp, content);
+    }
+
+    public PathEntry toPathEntry() {
+        return new PathEntry(path, false, content.length(), timestamp);
+    }
+
+    public String getContentHash() {
+        return ContentHashes.hash(content);
+    }
+
     public Path getPath() {
         return path;
     }
@@ -20,9 +20,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 
 import static nl.ulso.magisto.io.Paths.createPath;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class PrioritizedByExtensionPathComparatorTest {
@@ -48,4 +52,24 @@ public class PrioritizedByExtensionPathComparatorTest {
         assertTrue(comparator.compare(path1, path2) > 0);
         assertTrue(comparator.compare(path2, path1) < 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSortedEntriesMatchComparator() throws Exception {
+        final List<PathEntry> entries = new ArrayList<>();
+        for (String name : new String[]{"b.txt", "a.md", "a.html", "a", "dir", "c.MD", "c.jpg", "a.markdown"}) {
+            entries.add(new PathEntry(createPath(name), false, 0, 0));
+            entries.add(new PathEntry(createPath("dir", name), false, 0, 0));
+        }
+        final List<Path> expected = new ArrayList<>();
+        for (PathEntry entry : entries) {
+            expected.add(entry.getPath());
+        }
+        Collections.sort(expected, comparator);
+        Paths.sortEntries(entries, comparator);
+        final List<Path> actual = new ArrayList<>();
+        for (PathEntry entry : entries) {
+            actual.add(entry.getPath());
+        }
+        assertEquals(expected, actual);
+    }
+}
@@ -21,11 +21,14 @@ import org.junit.Test;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.SortedSet;
@@ -190,6 +193,65 @@ public class RealFileSystemTest {
         });
     }
 
+    @Test
+    public void testFindAllEntries() throws Exception {
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                Files.write(path.resolve("foo"), "content".getBytes("UTF-8"));
+                Files.setLastModifiedTime(path.resolve("foo"), FileTime.fromMillis(1000000000000L));
+                Files.createDirectory(path.resolve("bar"));
+                Files.createFile(path.resolve("bar").resolve("baz"));
+                Files.createFile(path.resolve(".hidden"));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                final List<PathEntry> entries = fileSystem.findAllEntries(path);
+                assertEquals(3, entries.size());
+                assertEquals(createPath("bar"), entries.get(0).getPath());
+                assertTrue(entries.get(0).isDirectory());
+                assertEquals(createPath("bar", "baz"), entries.get(1).getPath());
+                assertFalse(entries.get(1).isDirectory());
+                assertEquals(createPath("foo"), entries.get(2).getPath());
+                assertEquals(7, entries.get(2).getSize());
+                assertEquals(1000000000000L, entries.get(2).getLastModifiedInMillis());
+            }
+        });
+    }
+
+    @Test
+    public void testFindAllEntriesWithMultipleWorkers() throws Exception {
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                for (int i = 0; i < 5; i++) {
+                    final Path directory = Files.createDirectory(path.resolve("dir" + i));
+                    Files.createFile(directory.resolve("file.md"));
+                    Files.createDirectory(directory.resolve(".hidden"));
+                    Files.createFile(directory.resolve(".hidden").resolve("file.md"));
+                    final Path subdirectory = Files.createDirectory(directory.resolve("sub"));
+                    Files.createFile(subdirectory.resolve("file.txt"));
+                }
+                Files.createFile(path.resolve("file.md"));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                final List<PathEntry> expected = fileSystem.findAllEntries(path);
+                final List<PathEntry> actual = new RealFileSystem(4).findAllEntries(path);
+                assertEquals(21, actual.size());
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).getPath(), actual.get(i).getPath());
+                    assertEquals(expected.get(i).isDirectory(), actual.get(i).isDirectory());
+                    assertEquals(expected.get(i).getLastModifiedInMillis(),
+                            actual.get(i).getLastModifiedInMillis());
+                }
+            }
+        });
+    }
+
     @Test
     public void testSourceAndTargetDoNotOverlap() throws Exception {
         final Path source = WORKING_DIRECTORY.resolve("foo");
@@ -325,6 +387,59 @@ public class RealFileSystemTest {
         });
     }
 
+    @Test
+    public void testTreeDelete() throws Exception {
+        runTreeDeleteTest(fileSystem);
+    }
+
+    @Test
+    public void testParallelTreeDelete() throws Exception {
+        runTreeDeleteTest(new RealFileSystem(4));
+    }
+
+    private void runTreeDeleteTest(final FileSystem fileSystem) throws Exception {
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                final Path directory = path.resolve("directory");
+                Files.createDirectories(directory.resolve("sub"));
+                Files.createFile(directory.resolve("file"));
+                Files.createFile(directory.resolve(".hidden"));
+                Files.createFile(directory.resolve("sub").resolve("file"));
+                Files.createFile(path.resolve("file"));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                fileSystem.deleteTree(path, createPath("directory"));
+                fileSystem.deleteTree(path, createPath("file"));
+                assertFalse(Files.exists(path.resolve("directory")));
+                assertFalse(Files.exists(path.resolve("file")));
+            }
+        });
+    }
+
+    @Test
+    public void testMoveCreatesDirectories() throws Exception {
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                Files.createDirectory(path.resolve("old"));
+                Files.write(path.resolve("old").resolve("file"), "content".getBytes("UTF-8"));
+                Files.setLastModifiedTime(path.resolve("old").resolve("file"), FileTime.fromMillis(1000000000));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                fileSystem.move(path, createPath("old", "file"), createPath("new", "sub", "file"));
+                final Path moved = path.resolve("new").resolve("sub").resolve("file");
+                assertEquals("content", new String(Files.readAllBytes(moved), "UTF-8"));
+                assertEquals(1000000000, Files.getLastModifiedTime(moved).toMillis());
+                assertFalse(Files.exists(path.resolve("old").resolve("file")));
+            }
+        });
+    }
+
     @Test
     public void testBufferedReaderForTextFile() throws Exception {
         final Path textFile = WORKING_DIRECTORY.resolve("README.md");
@@ -352,6 +467,300 @@ public class RealFileSystemTest {
         });
     }
 
+    @Test
+    public void testStrictDurabilitySyncsRightAway() throws Exception {
+        final FileSystem strictFileSystem = new RealFileSystem(1, Throttle.UNLIMITED, Durability.STRICT);
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                Files.createDirectory(path.resolve("source"));
+                Files.createDirectory(path.resolve("target"));
+                Files.write(path.resolve("source").resolve("file"), "content".getBytes("UTF-8"));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                final Path target = path.resolve("target");
+                strictFileSystem.copy(path.resolve("source"), target, createPath("file"));
+                final long syncTimeAfterCopy = strictFileSystem.getSyncTimeInNanos();
+                assertTrue(syncTimeAfterCopy > 0);
+                try (final BufferedWriter writer = strictFileSystem.newBufferedWriterForTextFile(
+                        target.resolve("test.md"))) {
+                    writer.write("test");
+                }
+                assertTrue(strictFileSystem.getSyncTimeInNanos() > syncTimeAfterCopy);
+                assertEquals("test", new String(Files.readAllBytes(target.resolve("test.md")), "UTF-8"));
+                assertEquals(0, fileSystem.getSyncTimeInNanos());
+            }
+        });
+    }
+
+    @Test
+    public void testStrictDurabilitySyncsReadOnlyCopy() throws Exception {
+        final FileSystem strictFileSystem = new RealFileSystem(1, Throttle.UNLIMITED, Durability.STRICT);
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                Files.createDirectory(path.resolve("source"));
+                Files.createDirectory(path.resolve("target"));
+                Files.write(path.resolve("source").resolve("file"), "content".getBytes("UTF-8"));
+                assertTrue(path.resolve("source").resolve("file").toFile().setReadOnly());
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                final Path target = path.resolve("target");
+                strictFileSystem.copy(path.resolve("source"), target, createPath("file"));
+                assertEquals("content", new String(Files.readAllBytes(target.resolve("file")), "UTF-8"));
+                assertTrue(strictFileSystem.getSyncTimeInNanos() > 0);
+            }
+        });
+    }
+
+    @Test
+    public void testBatchedDurabilitySyncsOnRequest() throws Exception {
+        final FileSystem batchedFileSystem = new RealFileSystem(1, Throttle.UNLIMITED, Durability.BATCHED);
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                Files.createDirectory(path.resolve("source"));
+                Files.createDirectory(path.resolve("target"));
+                Files.write(path.resolve("source").resolve("file"), "content".getBytes("UTF-8"));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                final Path target = path.resolve("target");
+                batchedFileSystem.copy(path.resolve("source"), target, createPath("file"));
+                batchedFileSystem.delete(path, createPath("source").resolve("file"));
+                assertEquals(0, batchedFileSystem.getSyncTimeInNanos());
+                batchedFileSystem.sync();
+                assertTrue(batchedFileSystem.getSyncTimeInNanos() > 0);
+            }
+        });
+    }
+
+    @Test
+    public void testTouchFileIsSyncedWhenBatched() throws Exception {
+        final FileSystem batchedFileSystem = new RealFileSystem(1, Throttle.UNLIMITED, Durability.BATCHED);
+        runFileSystemTest(new FileSystemTestWithEmptyTempDirectory() {
+            @Override
+            public void runTest(Path path) throws IOException {
+                batchedFileSystem.writeTouchFile(path);
+                assertTrue(batchedFileSystem.getSyncTimeInNanos() > 0);
+            }
+        });
+    }
+
+    @Test
+    public void testTransferCopy() throws Exception {
+        runCopyStrategyTest(CopyStrategy.TRANSFER, false);
+    }
+
+    @Test
+    public void testReflinkCopyClonesOrFallsBack() throws Exception {
+        runCopyStrategyTest(CopyStrategy.REFLINK, false);
+    }
+
+    @Test
+    public void testHardlinkCopyLinksFile() throws Exception {
+        runCopyStrategyTest(CopyStrategy.HARDLINK, true);
+    }
+
+    /*
+    Whatever the strategy, or the one it falls back to, the result must be the same as that of a full copy, and an
+    existing target must be replaced. Only a hard link shares the file itself.
+     */
+    private void runCopyStrategyTest(CopyStrategy copyStrategy, final boolean expectLinked) throws Exception {
+        final FileSystem strategicFileSystem = new RealFileSystem(1, Throttle.UNLIMITED, Durability.NONE,
+                copyStrategy);
+        final byte[] content = new byte[2 * 1024 * 1024];
+        Arrays.fill(content, (byte) 'x');
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                Files.createDirectory(path.resolve("source"));
+                Files.createDirectory(path.resolve("target"));
+                Files.write(path.resolve("source").resolve("file"), content);
+                Files.write(path.resolve("target").resolve("file"), "old".getBytes("UTF-8"));
+                Files.setLastModifiedTime(path.resolve("source").resolve("file"), FileTime.fromMillis(1000000000));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                final Path source = path.resolve("source").resolve("file");
+                final Path target = path.resolve("target").resolve("file");
+                strategicFileSystem.copy(path.resolve("source"), path.resolve("target"), createPath("file"));
+                assertArrayEquals(content, Files.readAllBytes(target));
+                assertEquals(1000000000, Files.getLastModifiedTime(target).toMillis());
+                assertEquals(expectLinked, Files.isSameFile(source, target));
+            }
+        });
+    }
+
+    @Test
+    public void testThrottledCopyAndWrite() throws Exception {
+        final FileSystem throttledFileSystem = new RealFileSystem(1, new Throttle(1024 * 1024, 100));
+        final byte[] content = new byte[600 * 1024];
+        Arrays.fill(content, (byte) 'x');
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                Files.createDirectory(path.resolve("source"));
+                Files.createDirectory(path.resolve("target"));
+                Files.write(path.resolve("source").resolve("file"), content);
+                Files.write(path.resolve("target").resolve("file"), "old".getBytes("UTF-8"));
+                Files.setLastModifiedTime(path.resolve("source").resolve("file"), FileTime.fromMillis(1000000000));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                final Path target = path.resolve("target");
+                throttledFileSystem.copy(path.resolve("source"), target, createPath("file"));
+                assertArrayEquals(content, Files.readAllBytes(target.resolve("file")));
+                assertEquals(1000000000, Files.getLastModifiedTime(target.resolve("file")).toMillis());
+                try (final BufferedWriter writer = throttledFileSystem.newBufferedWriterForTextFile(
+                        target.resolve("test.md"))) {
+                    writer.write(new String(content, "UTF-8"));
+                }
+                assertArrayEquals(content, Files.readAllBytes(target.resolve("test.md")));
+                assertTrue(throttledFileSystem.getThrottledTimeInNanos() > 0);
+                assertEquals(0, fileSystem.getThrottledTimeInNanos());
+            }
+        });
+    }
+
+    @Test
+    public void testContentHash() throws Exception {
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                Files.write(path.resolve("file1"), "content".getBytes("UTF-8"));
+                Files.write(path.resolve("file2"), "content".getBytes("UTF-8"));
+                Files.write(path.resolve("file3"), "other content".getBytes("UTF-8"));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                final String hash = fileSystem.computeContentHash(path.resolve("file1"));
+                assertEquals(ContentHashes.hash("content"), hash);
+                assertEquals(hash, fileSystem.computeContentHash(path.resolve("file2")));
+                assertNotEquals(hash, fileSystem.computeContentHash(path.resolve("file3")));
+            }
+        });
+    }
+
+    @Test
+    public void testReadTextFile() throws Exception {
+        final String content = String.format("# Caf\u00e9%n%nParagraph\r\nwith \u20ac and \ud83d\ude00");
+        final StringBuilder builder = new StringBuilder();
+        while (builder.length() < 2 * 1024 * 1024) {
+            builder.append(content);
+        }
+        final String largeContent = builder.toString();
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                Files.write(path.resolve("small.md"), content.getBytes("UTF-8"));
+                Files.write(path.resolve("large.md"), largeContent.getBytes("UTF-8"));
+                Files.write(path.resolve("empty.md"), new byte[0]);
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                assertEquals(content, fileSystem.readTextFile(path.resolve("small.md")).toString());
+                assertEquals(largeContent, fileSystem.readTextFile(path.resolve("large.md")).toString());
+                assertEquals(0, fileSystem.readTextFile(path.resolve("empty.md")).remaining());
+            }
+        });
+    }
+
+    @Test
+    public void testReadTextFileReservesTwoChars() throws Exception {
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                Files.write(path.resolve("ascii.md"), "# Title".getBytes("UTF-8"));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                final CharBuffer text = fileSystem.readTextFile(path.resolve("ascii.md"));
+                assertEquals("# Title", text.toString());
+                assertEquals(text.remaining() + 2, text.array().length);
+            }
+        });
+    }
+
+    @Test
+    public void testStagedExportIsPublished() throws Exception {
+        runFileSystemTest(new FileSystemTestWithPreparedDirectory() {
+            @Override
+            public void prepareTempDirectory(Path path) throws IOException {
+                final Path site = Files.createDirectory(path.resolve("site"));
+                Files.createFile(resolveTouchFile(site));
+                Files.write(site.resolve("index.html"), "old".getBytes("UTF-8"));
+            }
+
+            @Override
+            public void runTest(Path path) throws IOException {
+                final Path site = path.resolve("site");
+                final Path staging = fileSystem.stageTargetDirectory(site.toString());
+                assertTrue(Files.exists(resolveTouchFile(staging)));
+                try (final BufferedWriter writer = fileSystem.newBufferedWriterForTextFile(
+                        staging.resolve("index.html"))) {
+                    writer.write("new");
+                }
+                assertEquals("old", readFirstLine(site.resolve("index.html")));
+                fileSystem.publishTargetDirectory(site.toString(), staging, 2);
+                assertTrue(Files.isSymbolicLink(site));
+                assertEquals("new", readFirstLine(site.resolve("index.html")));
+                assertTrue(Files.notExists(staging));
+                final Path generations = path.resolve(".site.generations");
+                assertEquals("old", readFirstLine(generations.resolve("1").resolve("index.html")));
+                assertEquals(generations.resolve("2").toRealPath(), site.toRealPath());
+            }
+        });
+    }
+
+    @Test
+    public void testOldGenerationsArePruned() throws Exception {
+        runFileSystemTest(new FileSystemTestWithEmptyTempDirectory() {
+            @Override
+            public void runTest(Path path) throws IOException {
+                final String site = path.resolve("site").toString();
+                for (int i = 0; i < 4; i++) {
+                    final Path staging = fileSystem.stageTargetDirectory(site);
+                    fileSystem.writeTouchFile(staging);
+                    fileSystem.publishTargetDirectory(site, staging, 1);
+                }
+                final Path generations = path.resolve(".site.generations");
+                assertTrue(Files.notExists(generations.resolve("2")));
+                assertTrue(Files.exists(generations.resolve("3")));
+                assertTrue(Files.exists(generations.resolve("4")));
+            }
+        });
+    }
+
+    @Test
+    public void testUnpublishedStagingDirectoryIsContinued() throws Exception {
+        runFileSystemTest(new FileSystemTestWithEmptyTempDirectory() {
+            @Override
+            public void runTest(Path path) throws IOException {
+                final String site = path.resolve("site").toString();
+                final Path staging = fileSystem.stageTargetDirectory(site);
+                Files.createFile(staging.resolve("done.html"));
+                assertEquals(staging, fileSystem.stageTargetDirectory(site));
+                assertTrue(Files.exists(staging.resolve("done.html")));
+                assertTrue(Files.notExists(path.resolve("site")));
+            }
+        });
+    }
+
+    private String readFirstLine(Path path) throws IOException {
+        return Files.readAllLines(path, Charset.forName("UTF-8")).get(0);
+    }
+
     private Path resolveTouchFile(Path path) {
         return path.resolve(FileSystem.MAGISTO_EXPORT_MARKER_FILE);
     }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Vincent Oostindie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package nl.ulso.magisto.io;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ThrottleTest {
+
+    @Test
+    public void testUnlimitedNeverWaits() throws Exception {
+        final Throttle throttle = Throttle.UNLIMITED;
+        assertTrue(throttle.isUnlimited());
+        throttle.acquireBytes(Long.MAX_VALUE);
+        throttle.acquireOperation();
+        assertEquals(0, throttle.getThrottledTimeInNanos());
+    }
+
+    @Test
+    public void testBurstWithinOneSecondDoesNotWait() throws Exception {
+        final Throttle throttle = new Throttle(1000, 10);
+        assertFalse(throttle.isUnlimited());
+        throttle.acquireBytes(1000);
+        for (int i = 0; i < 10; i++) {
+            throttle.acquireOperation();
+        }
+        assertEquals(0, throttle.getThrottledTimeInNanos());
+    }
+
+    @Test
+    public void testBytesOverBudgetWait() throws Exception {
+        final Throttle throttle = new Throttle(1000, 0);
+        throttle.acquireBytes(1000);
+        final long start = System.nanoTime();
+        throttle.acquireBytes(200);
+        final long waited = System.nanoTime() - start;
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertTrue(throttle.getThrottledTimeInNanos() >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    public void testOperationsOverBudgetWait() throws Exception {
+        final Throttle throttle = new Throttle(0, 10);
+        for (int i = 0; i < 12; i++) {
+            throttle.acquireOperation();
+        }
+        assertTrue(throttle.getThrottledTimeInNanos() >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+}